@@ -0,0 +1,95 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * A single benchmark run by <code>BenchmarkRunner</code>. The runner calls
+ * <code>run</code> repeatedly and reports throughput as the number of
+ * operations completed per second.
+ * 
+ * @author Ben Linskey
+ */
+public abstract class Benchmark {
+    private final String name;
+    private long sink;
+
+    /**
+     * Class constructor.
+     * 
+     * @param name
+     *            the name under which results are reported
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name under which results are reported.
+     * 
+     * @return the name of this benchmark
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the benchmark. Called once before the first call to
+     * <code>run</code>.
+     * 
+     * @param fixtures
+     *            the data to benchmark with
+     * @throws Exception
+     */
+    public void setUp(Fixtures fixtures) throws Exception {
+    }
+
+    /**
+     * Performs one invocation of the benchmark.
+     * 
+     * @return the number of operations performed
+     * @throws Exception
+     */
+    public abstract int run() throws Exception;
+
+    /**
+     * Releases any resources held by the benchmark. Called once after the
+     * last call to <code>run</code>.
+     * 
+     * @throws Exception
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * Records a result so that the JIT compiler cannot discard the work that
+     * produced it.
+     * 
+     * @param result
+     *            a string produced by the benchmarked code
+     */
+    protected void consume(String result) {
+        sink += result.length();
+    }
+
+    /**
+     * Returns a value derived from every consumed result.
+     * 
+     * @return the accumulated length of all consumed results
+     */
+    public long getSink() {
+        return sink;
+    }
+}
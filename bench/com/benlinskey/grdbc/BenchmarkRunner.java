@@ -0,0 +1,226 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the build benchmarks and writes their results as JSON. Each benchmark
+ * is run for a number of timed warmup iterations, whose results are
+ * discarded, followed by a number of timed measurement iterations.
+ * <p>
+ * Usage:
+ * <code>java com.benlinskey.grdbc.BenchmarkRunner syntax-file results-file</code>
+ * <p>
+ * The following system properties control the run:
+ * <ul>
+ * <li><code>bench.warmup</code>: warmup iterations (default 3)</li>
+ * <li><code>bench.iterations</code>: measurement iterations (default 5)</li>
+ * <li><code>bench.time</code>: length of each iteration in milliseconds
+ * (default 1000)</li>
+ * <li><code>bench.filter</code>: a regular expression; only benchmarks whose
+ * names match are run</li>
+ * </ul>
+ * 
+ * @author Ben Linskey
+ */
+public class BenchmarkRunner {
+    private final static int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private final static int ITERATIONS = Integer.getInteger(
+            "bench.iterations", 5);
+    private final static long TIME = Long.getLong("bench.time", 1000);
+    private final static String FILTER = System.getProperty("bench.filter",
+            ".*");
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java com.benlinskey.grdbc."
+                    + "BenchmarkRunner syntax-file results-file");
+            System.exit(1);
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new TranscodeBenchmark(false));
+        benchmarks.add(new TranscodeBenchmark(true));
+        benchmarks.add(new ParseBenchmark(true));
+        benchmarks.add(new ParseBenchmark(false));
+        benchmarks.add(new KeyBenchmark(true));
+        benchmarks.add(new KeyBenchmark(false));
+        benchmarks.add(new ExtractBenchmark(false));
+        benchmarks.add(new ExtractBenchmark(true));
+        benchmarks.add(new ReplayBenchmark(false));
+        benchmarks.add(new ReplayBenchmark(true));
+        benchmarks.add(new InsertBenchmark());
+
+        StringBuilder json = new StringBuilder();
+        try {
+            Fixtures fixtures = new Fixtures(args[0]);
+            System.out.println("Loaded " + fixtures.getSections().size()
+                    + " sections and " + fixtures.getBetaCode().size()
+                    + " Beta Code strings.");
+
+            json.append("{\n");
+            json.append("  \"date\": \"").append(now()).append("\",\n");
+            json.append("  \"java\": \"")
+                    .append(System.getProperty("java.version"))
+                    .append("\",\n");
+            json.append("  \"warmupIterations\": ").append(WARMUP)
+                    .append(",\n");
+            json.append("  \"iterationMillis\": ").append(TIME).append(",\n");
+            json.append("  \"benchmarks\": [");
+            boolean first = true;
+            for (Benchmark benchmark : benchmarks) {
+                if (!benchmark.getName().matches(FILTER)) {
+                    continue;
+                }
+                double[] scores = measure(benchmark, fixtures);
+                json.append(first ? "\n" : ",\n");
+                appendResult(json, benchmark.getName(), scores);
+                first = false;
+            }
+            json.append("\n  ]\n}\n");
+
+            Writer out = new OutputStreamWriter(new FileOutputStream(args[1]),
+                    "UTF-8");
+            out.write(json.toString());
+            out.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("Results written to " + args[1] + ".");
+    }
+
+    /**
+     * Runs a benchmark and returns its throughput in each measurement
+     * iteration.
+     * 
+     * @param benchmark
+     *            the benchmark to run
+     * @param fixtures
+     *            the data to benchmark with
+     * @return the operations per second of each measurement iteration
+     * @throws Exception
+     */
+    private static double[] measure(Benchmark benchmark, Fixtures fixtures)
+            throws Exception {
+        System.out.println("Running " + benchmark.getName() + "...");
+        benchmark.setUp(fixtures);
+        for (int i = 0; i < WARMUP; i++) {
+            iterate(benchmark);
+        }
+        double[] scores = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            scores[i] = iterate(benchmark);
+        }
+        benchmark.tearDown();
+        System.out.println(String.format(Locale.US,
+                "  %.1f ops/s (+/- %.1f)", mean(scores), stdev(scores)));
+        return scores;
+    }
+
+    /**
+     * Runs a benchmark repeatedly for one iteration.
+     * 
+     * @param benchmark
+     *            the benchmark to run
+     * @return the number of operations completed per second
+     * @throws Exception
+     */
+    private static double iterate(Benchmark benchmark) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long end = start + TIME * 1000000;
+        long now;
+        do {
+            ops += benchmark.run();
+            now = System.nanoTime();
+        } while (now < end);
+        return ops * 1e9 / (now - start);
+    }
+
+    /**
+     * Appends the JSON object for a benchmark's results.
+     * 
+     * @param json
+     *            the buffer to append to
+     * @param name
+     *            the name of the benchmark
+     * @param scores
+     *            the throughput of each measurement iteration
+     */
+    private static void appendResult(StringBuilder json, String name,
+            double[] scores) {
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (double score : scores) {
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+        }
+        json.append("    {\n");
+        json.append("      \"benchmark\": \"").append(name).append("\",\n");
+        json.append("      \"mode\": \"thrpt\",\n");
+        json.append("      \"unit\": \"ops/s\",\n");
+        json.append("      \"score\": ").append(format(mean(scores)))
+                .append(",\n");
+        json.append("      \"scoreError\": ").append(format(stdev(scores)))
+                .append(",\n");
+        json.append("      \"min\": ").append(format(min)).append(",\n");
+        json.append("      \"max\": ").append(format(max)).append(",\n");
+        json.append("      \"rawData\": [");
+        for (int i = 0; i < scores.length; i++) {
+            json.append(i == 0 ? "" : ", ").append(format(scores[i]));
+        }
+        json.append("]\n");
+        json.append("    }");
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stdev(double[] values) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    private static String now() {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                .format(new Date());
+    }
+}
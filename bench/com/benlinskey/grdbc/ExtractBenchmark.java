@@ -0,0 +1,73 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures extracting every section of the syntax text so that it can be
+ * handed to another thread, as the lexicon creator does with entries. Sliced
+ * extraction scans the mapped file for each <code>div2</code> element and
+ * hashes its bytes; the legacy mode parses the file and re-serializes each
+ * element as a string, as <code>LexiconCreator</code> once did, and hashes the
+ * string.
+ * 
+ * @author Ben Linskey
+ */
+public class ExtractBenchmark extends Benchmark {
+    private final boolean sliced;
+    private MappedXmlFile file;
+
+    /**
+     * Class constructor.
+     * 
+     * @param sliced
+     *            <code>true</code> to slice the mapped file rather than
+     *            re-serialize each element
+     */
+    public ExtractBenchmark(boolean sliced) {
+        super(sliced ? "extractSlices" : "extractStrings");
+        this.sliced = sliced;
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) throws Exception {
+        file = new MappedXmlFile(fixtures.getFile());
+    }
+
+    @Override
+    public int run() throws Exception {
+        int sections = 0;
+        if (sliced) {
+            ElementSlicer in = new ElementSlicer(file.getBuffer(), "div2");
+            while (in.next()) {
+                consume(in.getAttribute("n"));
+                ByteBuffer slice = in.getSlice();
+                consume(ContentHash.of("", slice));
+                sections++;
+            }
+        } else {
+            TeiReader in = new TeiReader(file);
+            while (in.nextElement("div2")) {
+                consume(in.getAttribute("n"));
+                consume(ContentHash.of(in.readElement()));
+                sections++;
+            }
+            in.close();
+        }
+        return sections;
+    }
+}
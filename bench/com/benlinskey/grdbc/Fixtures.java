@@ -0,0 +1,124 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Benchmark data taken from the Overview of Greek Syntax text: the raw XML of
+ * each division, and the Beta Code of every element marked as Greek.
+ * 
+ * @author Ben Linskey
+ */
+public class Fixtures {
+    private final String file;
+    private final List<String> sections = new ArrayList<String>();
+    private final List<String> betaCode = new ArrayList<String>();
+
+    /**
+     * Class constructor.
+     * 
+     * @param file
+     *            the path of the syntax XML file
+     * @throws Exception
+     */
+    public Fixtures(String file) throws Exception {
+        this.file = file;
+        TeiReader in = new TeiReader(file);
+        while (in.nextElement("div2")) {
+            sections.add(in.readElement());
+        }
+        in.close();
+
+        in = new TeiReader(file);
+        XMLStreamReader reader = in.getStreamReader();
+        while (in.nextElement("foreign", "quote")) {
+            if ("greek".equals(in.getAttribute("lang"))) {
+                String beta = readText(reader);
+                if (beta.trim().length() > 0) {
+                    betaCode.add(beta);
+                }
+            }
+        }
+        in.close();
+    }
+
+    /**
+     * Reads all text within the current element, including the text of any
+     * child elements.
+     * 
+     * @param reader
+     *            a reader positioned at the start tag of an element
+     * @return the text of the element
+     * @throws XMLStreamException
+     */
+    private static String readText(XMLStreamReader reader)
+            throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                text.append(reader.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the path of the syntax XML file.
+     * 
+     * @return the path of the file the fixtures were read from
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the XML of each <code>div2</code> element, untranscoded.
+     * 
+     * @return the raw XML of each section
+     */
+    public List<String> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * Returns the text of each Greek <code>foreign</code> and
+     * <code>quote</code> element, in Beta Code.
+     * 
+     * @return the Beta Code strings in the text
+     */
+    public List<String> getBetaCode() {
+        return Collections.unmodifiableList(betaCode);
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures insert throughput through a <code>BulkLoader</code> into an
+ * in-memory SQLite database with the same schema as the lexicon database.
+ * Rows are built from the transcoded
+ * fixture sections. The table is emptied periodically to keep the database
+ * from growing without bound.
+ * 
+ * @author Ben Linskey
+ */
+public class InsertBenchmark extends Benchmark {
+    private final static int BATCH_SIZE = 500;
+    private final static int BATCHES_PER_TABLE = 20;
+    private final List<String[]> rows = new ArrayList<String[]>();
+    private BulkLoader loader;
+    private PreparedStatement insertStatement;
+    private int batches;
+
+    /**
+     * Class constructor.
+     */
+    public InsertBenchmark() {
+        super("insert");
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) throws Exception {
+        BetaCodeTranscoder transcoder = GreekTextParser.createTranscoder();
+        SyntaxParser parser = new SyntaxParser();
+        List<String> betaCode = fixtures.getBetaCode();
+        List<String> sections = fixtures.getSections();
+        for (int i = 0; i < betaCode.size(); i++) {
+            String beta = betaCode.get(i);
+            String greek = transcoder.transcode(beta);
+            parser.parse(sections.get(i % sections.size()));
+            rows.add(new String[] { beta.replaceAll("[^a-zA-Z]", ""), beta,
+                    greek, greek, greek.toLowerCase(), parser.transcode() });
+        }
+
+        loader = new BulkLoader(":memory:");
+        loader.execute("CREATE TABLE lexicon ("
+                + "_id INTEGER PRIMARY KEY, betaNoSymbols VARCHAR(100), "
+                + "betaSymbols VARCHAR(100), greekFullWord VARCHAR(100), "
+                + "greekNoSymbols VARCHAR(100), greekLowercase VARCHAR(100), "
+                + "entry TEXT)");
+        insertStatement = loader.prepareInsert("INSERT INTO lexicon "
+                + "VALUES (NULL, ?, ?, ?, ?, ?, ?)");
+    }
+
+    @Override
+    public int run() throws Exception {
+        if (++batches % BATCHES_PER_TABLE == 0) {
+            loader.flush();
+            loader.execute("DELETE FROM lexicon");
+        }
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String[] row = rows.get(i % rows.size());
+            for (int column = 0; column < row.length; column++) {
+                insertStatement.setString(column + 1, row[column]);
+            }
+            loader.addRow(insertStatement);
+        }
+        return BATCH_SIZE;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        loader.close();
+    }
+}
@@ -0,0 +1,85 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures deriving the key columns of lexicon entries. Each entry is a bare
+ * <code>entry</code> element keyed by one of the Beta Code strings of the
+ * syntax text, and is parsed on every run before its keys are read, so that
+ * no keys are cached from one run to the next. The legacy mode derives the
+ * keys as <code>LexiconParser</code> once did, filtering the key attribute
+ * with a regular expression for each column and transcoding it once per
+ * column, which gives a baseline.
+ * 
+ * @author Ben Linskey
+ */
+public class KeyBenchmark extends Benchmark {
+    private final boolean legacy;
+    private final List<String> entries = new ArrayList<String>();
+    private LexiconParser parser;
+
+    /**
+     * Class constructor.
+     * 
+     * @param legacy
+     *            <code>true</code> to derive the keys with regular
+     *            expressions, as earlier versions did
+     */
+    public KeyBenchmark(boolean legacy) {
+        super(legacy ? "entryKeysRegex" : "entryKeys");
+        this.legacy = legacy;
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) {
+        for (String beta : fixtures.getBetaCode()) {
+            entries.add("<entry key=\"" + escape(beta.trim()) + "\"/>");
+        }
+        parser = new LexiconParser();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;")
+                .replace("\"", "&quot;");
+    }
+
+    @Override
+    public int run() throws Exception {
+        for (String entry : entries) {
+            parser.parse(entry);
+            if (legacy) {
+                String beta = parser.getRootAttribute("key");
+                consume(beta.replaceAll("[^a-zA-Z]", ""));
+                consume(parser.betaToGreek(beta));
+                consume(parser.betaToGreek(beta.replaceAll("[^a-zA-Z\\*]",
+                        "")));
+                consume(parser.betaToGreek(
+                        beta.replaceAll("[^a-zA-Z\\*]", "")).toLowerCase());
+                consume(SearchText.toKey(parser.betaToGreek(beta)));
+            } else {
+                consume(parser.getBetaNoSymbols());
+                consume(parser.getGreekFullWord());
+                consume(parser.getGreekNoSymbols());
+                consume(parser.getGreekLowercase());
+                consume(parser.getSearchKey());
+            }
+        }
+        return entries.size();
+    }
+}
@@ -0,0 +1,439 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic lexicon in the TEI form read by
+ * <code>LexiconCreator</code>, with any number of entries, so that builds can
+ * be measured at many times the size of the real lexicon.
+ * <p>
+ * The headwords are made-up Beta Code words built from Greek syllables, with
+ * breathings, accents, iota subscripts and capitals, and a few repeated
+ * headwords. Entries are sorted in Greek alphabetical order and grouped by
+ * initial letter in <code>div0</code> elements, as in the real text. Each
+ * entry has an <code>orth</code>, and may have an inflection, etymology and
+ * gender, followed by one or more senses. Most entries are short, but the
+ * number of senses has a long tail, so that a few entries run to many
+ * kilobytes. Senses mix English translations with <code>foreign</code>,
+ * <code>ref</code> and <code>note</code> elements marked as Greek and with
+ * <code>bibl</code> citations. The Greek words in them are drawn from the
+ * headwords with a Zipf-like distribution, so that some words recur often and
+ * most are rare, as in real text.
+ * <p>
+ * The output depends only on the number of entries and the seed.
+ * <p>
+ * Usage:
+ * <code>java com.benlinskey.grdbc.LexiconGenerator [-seed N] entries output-file</code>
+ * 
+ * @author Ben Linskey
+ */
+public class LexiconGenerator {
+    private final static String[] ONSETS = { "b", "g", "d", "z", "q", "k",
+            "l", "m", "n", "c", "p", "r", "s", "t", "f", "x", "y", "st", "tr",
+            "pr", "kl", "gr", "ps", "sk", "pl" };
+    private final static String[] VOWELS = { "a", "e", "h", "i", "o", "u",
+            "w", "ai", "ei", "oi", "ou", "au", "eu" };
+    private final static String[] NUMERALS = { "I", "II", "III", "IV",
+            "V", "VI" };
+    private final static String[] CODAS = { "", "", "", "", "n", "s", "r",
+            "l" };
+    private final static String[][] ENDINGS = { { "os", "ou", "o(" },
+            { "h", "hs", "h(" }, { "on", "ou", "to/" }, { "is", "ews", "h(" },
+            { "w", null, null }, { "os", "h, on", null },
+            { "hs", "ou", "o(" } };
+    private final static String[] FUNCTION_WORDS = { "kai/", "de/", "o(",
+            "h(", "to/", "tou=", "th=s", "e)n", "ei)s", "e)k", "ou)", "ga/r",
+            "me/n", "w(s", "te" };
+    private final static String[] GLOSSES = { "house", "ship", "sea",
+            "speak", "make", "strong", "wise", "old", "carry", "god", "city",
+            "war", "land", "word", "hand", "fire", "water", "bright",
+            "sacrifice", "law", "judge", "run", "take", "give", "see",
+            "friend", "enemy", "gift", "honour", "shame" };
+    private final static String[] ENGLISH = { "of", "the", "a", "in", "to",
+            "by", "as", "with", "esp.", "c. gen.", "c. acc.", "metaph.",
+            "pass.", "later", "also", "Att.", "Ion.", "Ep." };
+    private final static String[][] AUTHORS = { { "Il.", "0012,001" },
+            { "Od.", "0012,002" }, { "Hdt.", "0016,001" },
+            { "Th.", "0003,001" }, { "Pl.", "0059,030" },
+            { "S.", "0011,004" }, { "E.", "0006,003" }, { "A.", "0085,005" },
+            { "Ar.", "0019,001" }, { "X.", "0032,006" },
+            { "Hes.", "0020,001" }, { "Pi.", "0033,001" } };
+
+    private final Random random;
+    private final List<String> headwords = new ArrayList<String>();
+    private final List<String> vocabulary = new ArrayList<String>();
+    private long greekStrings;
+
+    /**
+     * Class constructor.
+     * 
+     * @param seed
+     *            the seed of the random generator
+     */
+    public LexiconGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        long seed = 1;
+        int i = 0;
+        if (args.length == 4 && args[0].equals("-seed")) {
+            seed = Long.parseLong(args[1]);
+            i = 2;
+        }
+        if (args.length != i + 2) {
+            System.err.println("Usage: java com.benlinskey.grdbc."
+                    + "LexiconGenerator [-seed N] entries output-file");
+            System.exit(1);
+        }
+        try {
+            LexiconGenerator generator = new LexiconGenerator(seed);
+            long bytes = generator.write(Integer.parseInt(args[i]),
+                    args[i + 1]);
+            System.out.println("Wrote " + args[i] + " entries (" + bytes
+                    + " bytes, " + generator.getGreekStrings()
+                    + " Greek strings) to " + args[i + 1] + ".");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes a lexicon.
+     * 
+     * @param entries
+     *            the number of entries to write
+     * @param path
+     *            the path of the file to write
+     * @return the size of the file in bytes
+     * @throws IOException
+     */
+    public long write(int entries, String path) throws IOException {
+        createHeadwords(entries);
+        CountingWriter counter = new CountingWriter(new OutputStreamWriter(
+                new FileOutputStream(path), "UTF-8"));
+        Writer out = new BufferedWriter(counter);
+        out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        out.write("<TEI.2>\n<text lang=\"greek\"><body>\n");
+        char letter = 0;
+        for (int i = 0; i < headwords.size(); i++) {
+            String key = headwords.get(i);
+            char initial = KeyRange.toLetters(key).charAt(0);
+            if (initial != letter) {
+                if (letter != 0) {
+                    out.write("</div0>\n");
+                }
+                letter = initial;
+                out.write("<div0 type=\"alphabetic letter\" n=\""
+                        + Character.toUpperCase(letter) + "\">\n");
+                out.write("<head lang=\"greek\">*" + letter + "</head>\n");
+            }
+            writeEntry(out, key, i + 1);
+        }
+        if (letter != 0) {
+            out.write("</div0>\n");
+        }
+        out.write("</body></text>\n</TEI.2>\n");
+        out.close();
+        return counter.count;
+    }
+
+    /**
+     * Returns the number of elements marked as Greek written so far.
+     * 
+     * @return the number of Greek strings
+     */
+    public long getGreekStrings() {
+        return greekStrings;
+    }
+
+    /**
+     * Creates the headwords, in the order in which they appear, and the
+     * vocabulary of Greek words, from the most to the least frequent.
+     */
+    private void createHeadwords(int entries) {
+        headwords.clear();
+        for (int i = 0; i < entries; i++) {
+            // A few headwords are repeated, as homographs are in the real
+            // text.
+            if (i > 0 && random.nextInt(100) == 0) {
+                headwords.add(headwords.get(random.nextInt(i)));
+            } else {
+                headwords.add(createWord());
+            }
+        }
+
+        final Map<String, String> letters = new HashMap<String, String>();
+        for (String word : headwords) {
+            letters.put(word, KeyRange.toOrder(word));
+        }
+        Collections.sort(headwords, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return letters.get(a).compareTo(letters.get(b));
+            }
+        });
+
+        vocabulary.clear();
+        for (String word : FUNCTION_WORDS) {
+            vocabulary.add(word);
+        }
+        List<String> shuffled = new ArrayList<String>(headwords);
+        Collections.shuffle(shuffled, random);
+        vocabulary.addAll(shuffled);
+    }
+
+    /**
+     * Creates a Beta Code headword of two to four syllables and one of the
+     * endings of a dictionary form, with a breathing on an initial vowel or
+     * rho and an accent on one of its last three syllables. A few are proper
+     * names.
+     */
+    private String createWord() {
+        int syllables = 2 + random.nextInt(3);
+        List<String> parts = new ArrayList<String>();
+        for (int i = 0; i < syllables; i++) {
+            String onset = i == 0 && random.nextInt(4) == 0 ? ""
+                    : pick(ONSETS);
+            parts.add(onset + pick(VOWELS)
+                    + (i < syllables - 1 ? pick(CODAS) : ""));
+        }
+        parts.add(ENDINGS[random.nextInt(ENDINGS.length)][0]);
+
+        // Accent a vowel in one of the last three syllables.
+        int accented = Math.max(0, parts.size() - 1 - random.nextInt(3));
+        String syllable = parts.get(accented);
+        int vowel = lastVowel(syllable);
+        if (vowel >= 0) {
+            char v = syllable.charAt(vowel);
+            String accent = (v == 'h' || v == 'w' || vowel > 0)
+                    && random.nextInt(3) == 0 ? "=" : random.nextInt(20) == 0
+                    ? "\\" : "/";
+            String subscript = (v == 'h' || v == 'w' || v == 'a')
+                    && random.nextInt(25) == 0 ? "|" : "";
+            parts.set(accented, syllable.substring(0, vowel + 1) + accent
+                    + subscript + syllable.substring(vowel + 1));
+        }
+
+        StringBuilder word = new StringBuilder();
+        for (String part : parts) {
+            word.append(part);
+        }
+        String s = word.toString();
+        String breathing = random.nextInt(3) == 0 ? "(" : ")";
+        if (s.charAt(0) == 'r') {
+            s = "r(" + s.substring(1);
+        } else if ("aehiouw".indexOf(s.charAt(0)) >= 0) {
+            int end = 1;
+            while (end < s.length() && "iu".indexOf(s.charAt(end)) >= 0
+                    && end < 2) {
+                end++;
+            }
+            s = s.substring(0, end) + breathing + s.substring(end);
+        }
+        // Only names beginning with a consonant are capitalized, since the
+        // breathing of a capital vowel goes before the letter.
+        if ("aehiouwr".indexOf(s.charAt(0)) < 0 && random.nextInt(20) == 0) {
+            s = "*" + s;
+        }
+        return s;
+    }
+
+    private static int lastVowel(String syllable) {
+        for (int i = syllable.length() - 1; i >= 0; i--) {
+            if ("aehiouw".indexOf(syllable.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String pick(String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    /**
+     * Returns a word from the vocabulary. The rank of the word is drawn so
+     * that its logarithm is uniform, which gives a frequency roughly
+     * inversely proportional to rank.
+     */
+    private String pickGreekWord() {
+        int rank = (int) Math.exp(random.nextDouble()
+                * Math.log(vocabulary.size()));
+        return vocabulary.get(Math.min(rank, vocabulary.size() - 1));
+    }
+
+    private String greekPhrase(int maxWords) {
+        int words = 1 + random.nextInt(maxWords);
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            phrase.append(i == 0 ? "" : " ").append(pickGreekWord());
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * Returns the number of senses of an entry: usually one or two, but
+     * occasionally dozens.
+     */
+    private int countSenses() {
+        if (random.nextInt(200) == 0) {
+            return 20 + random.nextInt(60);
+        }
+        int senses = 1;
+        while (senses < 12 && random.nextInt(3) == 0) {
+            senses++;
+        }
+        return senses;
+    }
+
+    private void writeEntry(Writer out, String key, int id)
+            throws IOException {
+        String[] ending = ENDINGS[random.nextInt(ENDINGS.length)];
+        out.write("<entry key=\"" + key + "\" type=\"main\" id=\"n" + id
+                + "\">");
+        out.write("<orth extent=\"full\" lang=\"greek\">" + key + "</orth>");
+        greekStrings++;
+        if (ending[1] != null && random.nextInt(2) == 0) {
+            out.write(", <itype lang=\"greek\">" + ending[1] + "</itype>");
+        }
+        if (ending[2] != null && random.nextInt(3) == 0) {
+            out.write(", <gen lang=\"greek\">" + ending[2] + "</gen>");
+        }
+        if (random.nextInt(3) == 0) {
+            out.write(", (<etym lang=\"greek\">" + pickGreekWord()
+                    + "</etym>)");
+        }
+
+        int senses = countSenses();
+        for (int i = 0; i < senses; i++) {
+            int level = i == 0 ? 1 : 1 + random.nextInt(3);
+            out.write(" <sense n=\"" + senseNumber(i, level) + "\" id=\"n"
+                    + id + "." + i + "\" level=\"" + level + "\" opt=\"n\">");
+            writeSense(out);
+            out.write("</sense>");
+        }
+        out.write("\n</entry>\n");
+    }
+
+    private static String senseNumber(int i, int level) {
+        switch (level) {
+        case 1:
+            return String.valueOf((char) ('A' + i % 26));
+        case 2:
+            return NUMERALS[i % NUMERALS.length];
+        default:
+            return String.valueOf(1 + i % 9);
+        }
+    }
+
+    private void writeSense(Writer out) throws IOException {
+        out.write("<tr opt=\"n\">" + pick(GLOSSES));
+        if (random.nextInt(2) == 0) {
+            out.write(", " + pick(GLOSSES));
+        }
+        out.write("</tr>");
+        int clauses = 1 + random.nextInt(6);
+        for (int i = 0; i < clauses; i++) {
+            switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+            case 2:
+                out.write(", <foreign lang=\"greek\">" + greekPhrase(4)
+                        + "</foreign>");
+                greekStrings++;
+                writeCitation(out);
+                break;
+            case 3:
+                out.write(", " + pick(ENGLISH) + " <foreign lang=\"greek\">"
+                        + greekPhrase(2) + "</foreign>");
+                greekStrings++;
+                break;
+            case 4:
+                writeCitation(out);
+                break;
+            case 5:
+                out.write("; cf. <ref targOrder=\"U\" lang=\"greek\">"
+                        + pickGreekWord() + "</ref>");
+                greekStrings++;
+                break;
+            case 6:
+                out.write("; <note anchored=\"yes\" lang=\"greek\">"
+                        + greekPhrase(3) + "</note>");
+                greekStrings++;
+                break;
+            default:
+                out.write(", " + pick(ENGLISH) + " " + pick(GLOSSES)
+                        + (random.nextInt(10) == 0 ? " &amp; " + pick(GLOSSES)
+                                : ""));
+                break;
+            }
+        }
+    }
+
+    private void writeCitation(Writer out) throws IOException {
+        String[] author = AUTHORS[random.nextInt(AUTHORS.length)];
+        int book = 1 + random.nextInt(24);
+        int line = 1 + random.nextInt(900);
+        out.write(" <bibl n=\"Perseus:abo:tlg," + author[1] + ":" + book + ":"
+                + line + "\"><author>" + author[0] + "</author> " + book
+                + "." + line + "</bibl>");
+    }
+
+    /**
+     * Counts the characters written through it; the output is pure ASCII,
+     * so this is also the number of bytes.
+     */
+    private static class CountingWriter extends Writer {
+        private final Writer out;
+        long count;
+
+        CountingWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length)
+                throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
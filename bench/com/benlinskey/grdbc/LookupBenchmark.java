@@ -0,0 +1,239 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Measures how many lookups per second a <code>LookupService</code> answers
+ * from a lexicon or syntax database.
+ * <p>
+ * The words looked up are the database's own headwords or section titles,
+ * written in the forms a user might type them: for the lexicon, in Beta
+ * Code, in Greek with and without diacritics, and in capitals. They are
+ * drawn so that a few entries are requested far more often than the rest,
+ * as they would be by real users, which is what the service's cache is
+ * for. Lookups are made one word at a time and then in batches, on several
+ * threads at once, and every word must resolve to at least one entry.
+ * <p>
+ * Usage: <code>java com.benlinskey.grdbc.LookupBenchmark database</code>
+ * <p>
+ * The following system properties control the run:
+ * <ul>
+ * <li><code>lookup.threads</code>: the number of threads making lookups,
+ * which is also the number of connections (default 4)</li>
+ * <li><code>lookup.count</code>: the number of words each thread looks up
+ * in each phase (default 20000)</li>
+ * <li><code>lookup.batch</code>: the number of words in each batch (default
+ * 100)</li>
+ * <li><code>lookup.cache</code>: the number of entries the service caches
+ * (default 4096)</li>
+ * <li><code>lookup.seed</code>: the seed for choosing words (default 1)</li>
+ * </ul>
+ * 
+ * @author Ben Linskey
+ */
+public class LookupBenchmark {
+    private final static int THREADS = Integer.getInteger("lookup.threads", 4);
+    private final static int COUNT = Integer.getInteger("lookup.count", 20000);
+    private final static int BATCH = Integer.getInteger("lookup.batch", 100);
+    private final static int CACHE = Integer.getInteger("lookup.cache",
+            LookupService.DEFAULT_CACHE_SIZE);
+    private final static long SEED = Long.getLong("lookup.seed", 1);
+
+    private final List<String> words;
+    private final LookupService service;
+
+    /**
+     * Class constructor.
+     * 
+     * @param db
+     *            the path of a lexicon or syntax database
+     * @throws SQLException
+     */
+    public LookupBenchmark(String db) throws SQLException {
+        words = sample(db);
+        service = new LookupService(db, THREADS, CACHE);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java com.benlinskey.grdbc."
+                    + "LookupBenchmark database");
+            System.exit(1);
+        }
+        // Connecting would silently create an empty database.
+        if (!new File(args[0]).isFile()) {
+            System.err.println(args[0] + " does not exist.");
+            System.exit(1);
+        }
+
+        try {
+            LookupBenchmark benchmark = new LookupBenchmark(args[0]);
+            System.out.println(benchmark.words.size() + " words, "
+                    + THREADS + " threads, cache of " + CACHE + " entries");
+            benchmark.run("single", 1);
+            benchmark.run("batch", BATCH);
+            benchmark.service.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns every headword or section title in the database, in each of
+     * the forms in which it will be looked up.
+     */
+    private static List<String> sample(String db) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Connection connection = config.createConnection("jdbc:sqlite:" + db);
+        List<String> words = new ArrayList<String>();
+        try {
+            Statement statement = connection.createStatement();
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM "
+                    + "sqlite_master WHERE name = 'lexicon'");
+            boolean lexicon = rs.next() && rs.getInt(1) > 0;
+            rs.close();
+            if (lexicon) {
+                rs = statement.executeQuery("SELECT betaSymbols, "
+                        + "greekFullWord, greekNoSymbols FROM lexicon "
+                        + "WHERE searchKey <> '' ORDER BY _id");
+                while (rs.next()) {
+                    words.add(rs.getString(1));
+                    words.add(rs.getString(2));
+                    words.add(rs.getString(3));
+                    words.add(toCapitals(rs.getString(2)));
+                }
+            } else {
+                rs = statement.executeQuery("SELECT section FROM syntax "
+                        + "ORDER BY _id");
+                while (rs.next()) {
+                    words.add(rs.getString(1));
+                    words.add(rs.getString(1).toLowerCase(Locale.ROOT));
+                }
+            }
+            rs.close();
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        if (words.isEmpty()) {
+            throw new SQLException(db + " has no entries.");
+        }
+        return words;
+    }
+
+    /**
+     * Capitalizes a word letter by letter. <code>String.toUpperCase</code>
+     * writes an iota subscript as a capital iota after its vowel, which
+     * spells a different word.
+     */
+    private static String toCapitals(String word) {
+        StringBuilder capitals = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            capitals.append(Character.toUpperCase(word.charAt(i)));
+        }
+        return capitals.toString();
+    }
+
+    /**
+     * Looks up <code>COUNT</code> words on each of <code>THREADS</code>
+     * threads and prints the rate and the cache's hit rate.
+     */
+    private void run(String name, final int batch) throws Exception {
+        final AtomicLong unresolved = new AtomicLong();
+        final List<Exception> failures = new ArrayList<Exception>();
+        long hits = service.getCacheHits();
+        long misses = service.getCacheMisses();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(SEED + t);
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        List<String> chosen = new ArrayList<String>(batch);
+                        for (int i = 0; i < COUNT; i += batch) {
+                            chosen.clear();
+                            for (int j = 0; j < batch; j++) {
+                                chosen.add(choose(random));
+                            }
+                            Map<String, List<LookupService.Entry>> results;
+                            results = service.lookupAll(chosen);
+                            for (List<LookupService.Entry> entries : results
+                                    .values()) {
+                                if (entries.isEmpty()) {
+                                    unresolved.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+
+        long lookups = (long) THREADS * ((COUNT + batch - 1) / batch) * batch;
+        hits = service.getCacheHits() - hits;
+        misses = service.getCacheMisses() - misses;
+        System.out.println(String.format(Locale.ROOT,
+                "%-8s %10.0f lookups/s  %5.1f%% cache hits", name, lookups
+                        * 1e9 / elapsed, 100.0 * hits / Math.max(1, hits
+                        + misses)));
+        if (unresolved.get() > 0) {
+            throw new IllegalStateException(unresolved.get()
+                    + " lookups found nothing.");
+        }
+    }
+
+    /**
+     * Chooses a word, favouring those near the start of the list: the
+     * chance of choosing a word falls off steeply with its position.
+     */
+    private String choose(Random random) {
+        double r = random.nextDouble();
+        return words.get((int) (r * r * r * words.size()));
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.List;
+
+/**
+ * Measures parsing a section of XML, transcoding its Greek text, and
+ * serializing the result. With transcoding disabled, the same sections are
+ * copied unchanged, which isolates the cost of reading and writing the XML.
+ * 
+ * @author Ben Linskey
+ */
+public class ParseBenchmark extends Benchmark {
+    private final boolean transcode;
+    private List<String> sections;
+    private GreekTextParser parser;
+
+    /**
+     * Class constructor.
+     * 
+     * @param transcode
+     *            <code>true</code> to transcode Greek text while copying
+     */
+    public ParseBenchmark(boolean transcode) {
+        super(transcode ? "parseAndTranscode" : "serialize");
+        this.transcode = transcode;
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) {
+        sections = fixtures.getSections();
+        if (transcode) {
+            parser = new SyntaxParser();
+        } else {
+            parser = new GreekTextParser() {
+                @Override
+                protected String[] getGreekElements() {
+                    return new String[0];
+                }
+            };
+        }
+    }
+
+    @Override
+    public int run() throws Exception {
+        for (String xml : sections) {
+            parser.parse(xml);
+            consume(parser.getUpdatedXML());
+        }
+        return sections.size();
+    }
+}
@@ -0,0 +1,465 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Replays the queries with which the app reads a lexicon database and
+ * reports the latency of each kind of query.
+ * <p>
+ * The query arguments are drawn at random from the rows of the database
+ * itself, so that every exact lookup finds an entry. Each kind of query is
+ * run on its own, and then all of them are run interleaved at random, as
+ * they would be by a user searching and reading entries. Each query is timed
+ * from binding its argument until its last row has been read; the entries
+ * returned are decoded as the app would decode them (see
+ * <code>EntryDecoder</code>). The plan SQLite chooses for each query is
+ * printed first, so a query that scans the table rather than using an index
+ * stands out. In a database with the split layout (see
+ * <code>LexiconCreator</code>), entries are read from their own table.
+ * <p>
+ * Usage:
+ * <code>java com.benlinskey.grdbc.QueryBenchmark database results-file</code>
+ * <p>
+ * The following system properties control the run:
+ * <ul>
+ * <li><code>query.warmup</code>: untimed queries of each kind run first
+ * (default 1000)</li>
+ * <li><code>query.count</code>: timed queries of each kind (default
+ * 10000)</li>
+ * <li><code>query.seed</code>: the seed for choosing arguments (default
+ * 1)</li>
+ * <li><code>query.filter</code>: a regular expression; only queries whose
+ * names match are run</li>
+ * </ul>
+ * 
+ * @author Ben Linskey
+ */
+public class QueryBenchmark {
+    private final static int WARMUP = Integer.getInteger("query.warmup", 1000);
+    private final static int COUNT = Integer.getInteger("query.count", 10000);
+    private final static long SEED = Long.getLong("query.seed", 1);
+    private final static String FILTER = System.getProperty("query.filter",
+            ".*");
+    private final static int SAMPLES = 5000;
+
+    private final Connection connection;
+    private final EntryDecoder decoder;
+    private final List<Query> queries = new ArrayList<Query>();
+    private final boolean split;
+
+    /**
+     * Class constructor.
+     * 
+     * @param db
+     *            the path of the lexicon database
+     * @throws SQLException
+     */
+    public QueryBenchmark(String db) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        connection = config.createConnection("jdbc:sqlite:" + db);
+        decoder = new EntryDecoder(connection);
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM "
+                + "sqlite_master WHERE name = '"
+                + LexiconCreator.ENTRY_TABLE_NAME + "'");
+        split = rs.getInt(1) > 0;
+        rs.close();
+        statement.close();
+        String entries = split ? "SELECT _id, entry FROM lexicon JOIN "
+                + LexiconCreator.ENTRY_TABLE_NAME + " USING (_id) "
+                : "SELECT _id, entry FROM lexicon ";
+
+        List<String[]> samples = sample();
+        Pattern filter = Pattern.compile(FILTER);
+        for (Query query : new Query[] {
+                new Query("exact-beta", entries + "WHERE betaSymbols = ?",
+                        samples, 1, 0),
+                new Query("prefix-like", "SELECT _id, greekFullWord "
+                        + "FROM lexicon WHERE greekLowercase LIKE ?",
+                        samples, 2, 3),
+                new Query("prefix-range", "SELECT _id, greekFullWord "
+                        + "FROM lexicon WHERE greekLowercase >= ? "
+                        + "AND greekLowercase < ?", samples, 2, 3),
+                new Query("accent-insensitive", entries
+                        + "WHERE greekNoSymbols = ?", samples, 3, 0),
+                new Query("by-id", "SELECT entry FROM "
+                        + (split ? LexiconCreator.ENTRY_TABLE_NAME
+                                : "lexicon") + " WHERE _id = ?", samples, 0,
+                        0) }) {
+            if (filter.matcher(query.name).find()) {
+                queries.add(query);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java com.benlinskey.grdbc."
+                    + "QueryBenchmark database results-file");
+            System.exit(1);
+        }
+        // Connecting would silently create an empty database.
+        if (!new File(args[0]).isFile()) {
+            System.err.println(args[0] + " does not exist.");
+            System.exit(1);
+        }
+
+        try {
+            QueryBenchmark benchmark = new QueryBenchmark(args[0]);
+            System.out.println("Layout: "
+                    + (benchmark.split ? "split" : "combined"));
+            benchmark.explain();
+            List<Result> results = benchmark.run();
+            benchmark.close();
+            writeResults(args[0], benchmark.split, results, args[1]);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("Results written to " + args[1] + ".");
+    }
+
+    /**
+     * Returns the keys of a random sample of the lexicon's rows.
+     * 
+     * @return the <code>_id</code>, <code>betaSymbols</code>,
+     *         <code>greekLowercase</code> and <code>greekNoSymbols</code> of
+     *         each sampled row
+     * @throws SQLException
+     */
+    private List<String[]> sample() throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT _id, betaSymbols, "
+                + "greekLowercase, greekNoSymbols FROM lexicon");
+        List<String[]> rows = new ArrayList<String[]>();
+        while (rs.next()) {
+            rows.add(new String[] { rs.getString(1), rs.getString(2),
+                    rs.getString(3), rs.getString(4) });
+        }
+        rs.close();
+        statement.close();
+        if (rows.isEmpty()) {
+            throw new IllegalStateException("The lexicon is empty.");
+        }
+
+        Random random = new Random(SEED);
+        List<String[]> samples = new ArrayList<String[]>(SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            samples.add(rows.get(random.nextInt(rows.size())));
+        }
+        return samples;
+    }
+
+    /**
+     * Prints the query plan of each query.
+     * 
+     * @throws SQLException
+     */
+    public void explain() throws SQLException {
+        for (Query query : queries) {
+            System.out.println(query.name + ": " + query.sql);
+            PreparedStatement statement = connection
+                    .prepareStatement("EXPLAIN QUERY PLAN " + query.sql);
+            query.bind(statement, 0);
+            ResultSet rs = statement.executeQuery();
+            StringBuilder plan = new StringBuilder();
+            while (rs.next()) {
+                // The last column is the human-readable detail.
+                String detail = rs.getString(rs.getMetaData()
+                        .getColumnCount());
+                plan.append("    ").append(detail).append('\n');
+                // Older versions of SQLite describe a full scan as just
+                // "TABLE lexicon", newer ones as "SCAN lexicon".
+                if (detail.startsWith("SCAN")
+                        || (!detail.contains("INDEX") && !detail
+                                .contains("PRIMARY KEY"))) {
+                    query.scans = true;
+                }
+            }
+            rs.close();
+            statement.close();
+            query.plan = plan.toString().trim();
+            System.out.print(plan);
+            if (query.scans) {
+                System.out.println("    (scans the whole table)");
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Runs each query on its own, then all of them interleaved.
+     * 
+     * @return the latencies of each query, followed by those of the mix
+     * @throws SQLException
+     */
+    public List<Result> run() throws SQLException {
+        List<Result> results = new ArrayList<Result>();
+        System.out.println(String.format(Locale.US,
+                "%-20s %9s %9s %9s %9s %9s %8s", "query", "mean us",
+                "p50 us", "p90 us", "p99 us", "max us", "rows"));
+        for (Query query : queries) {
+            Result result = run(Arrays.asList(query));
+            result.plan = query.plan;
+            result.scans = query.scans;
+            results.add(report(result, query.name));
+        }
+        if (queries.size() > 1) {
+            results.add(report(run(queries), "mix"));
+        }
+        return results;
+    }
+
+    /**
+     * Times queries chosen at random from the specified list.
+     */
+    private Result run(List<Query> mix) throws SQLException {
+        Random random = new Random(SEED);
+        for (int i = 0; i < WARMUP; i++) {
+            mix.get(random.nextInt(mix.size())).execute(random.nextInt(SAMPLES));
+        }
+
+        long[] nanos = new long[COUNT];
+        long rows = 0;
+        for (int i = 0; i < COUNT; i++) {
+            Query query = mix.get(random.nextInt(mix.size()));
+            int sample = random.nextInt(SAMPLES);
+            long start = System.nanoTime();
+            rows += query.execute(sample);
+            nanos[i] = System.nanoTime() - start;
+        }
+        return new Result(nanos, rows);
+    }
+
+    private Result report(Result result, String name) {
+        result.name = name;
+        System.out.println(String.format(Locale.US,
+                "%-20s %9.1f %9.1f %9.1f %9.1f %9.1f %8.1f", name,
+                result.mean / 1e3, result.percentile(50) / 1e3,
+                result.percentile(90) / 1e3, result.percentile(99) / 1e3,
+                result.percentile(100) / 1e3, result.rowsPerQuery));
+        return result;
+    }
+
+    public void close() throws SQLException {
+        for (Query query : queries) {
+            query.statement.close();
+        }
+        connection.close();
+    }
+
+    private static void writeResults(String db, boolean split,
+            List<Result> results, String file) throws Exception {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"date\": \"")
+                .append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                        .format(new Date())).append("\",\n");
+        json.append("  \"java\": \"")
+                .append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"database\": \"").append(new File(db).getName())
+                .append("\",\n");
+        json.append("  \"databaseBytes\": ").append(new File(db).length())
+                .append(",\n");
+        json.append("  \"layout\": \"").append(split ? "split" : "combined")
+                .append("\",\n");
+        json.append("  \"queries\": ").append(COUNT).append(",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.US, "    {\"name\": \"%s\", "
+                    + "\"meanNanos\": %d, \"p50Nanos\": %d, "
+                    + "\"p90Nanos\": %d, \"p99Nanos\": %d, "
+                    + "\"maxNanos\": %d, \"rowsPerQuery\": %.2f",
+                    result.name, (long) result.mean, result.percentile(50),
+                    result.percentile(90), result.percentile(99),
+                    result.percentile(100), result.rowsPerQuery));
+            if (result.plan != null) {
+                json.append(", \"plan\": \"")
+                        .append(result.plan.replace("\"", "\\\"")
+                                .replaceAll("\\s*\n\\s*", "; "))
+                        .append("\", \"scans\": ").append(result.scans);
+            }
+            json.append("}");
+        }
+        json.append("\n  ]\n}\n");
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        out.write(json.toString());
+        out.close();
+    }
+
+    /**
+     * One kind of query, with its arguments.
+     */
+    private class Query {
+        final String name;
+        final String sql;
+        final PreparedStatement statement;
+        final String[] arguments;
+        final boolean prefix;
+        final boolean range;
+        int entryColumn = -1;
+        String plan;
+        boolean scans;
+
+        /**
+         * Class constructor.
+         * 
+         * @param name
+         *            the name under which results are reported
+         * @param sql
+         *            the query
+         * @param samples
+         *            the sampled rows
+         * @param column
+         *            the column of the samples that gives the argument
+         * @param prefixLength
+         *            if greater than 0, the argument is a prefix of at most
+         *            this many letters, chosen at random
+         * @throws SQLException
+         */
+        Query(String name, String sql, List<String[]> samples, int column,
+                int prefixLength) throws SQLException {
+            this.name = name;
+            this.sql = sql;
+            statement = connection.prepareStatement(sql);
+            prefix = prefixLength > 0;
+            range = sql.indexOf('?') != sql.lastIndexOf('?');
+            arguments = new String[samples.size()];
+            Random random = new Random(SEED + column);
+            for (int i = 0; i < arguments.length; i++) {
+                String argument = samples.get(i)[column];
+                if (prefix && argument.length() > 1) {
+                    // As typed into the search box: one to a few letters.
+                    argument = argument.substring(0,
+                            1 + random.nextInt(Math.min(prefixLength,
+                                    argument.length())));
+                }
+                arguments[i] = argument;
+            }
+        }
+
+        void bind(PreparedStatement statement, int sample)
+                throws SQLException {
+            String argument = arguments[sample];
+            if (!prefix) {
+                statement.setString(1, argument);
+            } else if (!range) {
+                statement.setString(1, argument + "%");
+            } else {
+                // The words beginning with the prefix sort before the prefix
+                // with its last letter incremented.
+                statement.setString(1, argument);
+                statement.setString(2, argument.substring(0,
+                        argument.length() - 1)
+                        + (char) (argument.charAt(argument.length() - 1) + 1));
+            }
+        }
+
+        /**
+         * Runs the query with the arguments of a sampled row and reads every
+         * row it returns, decoding any entries.
+         * 
+         * @return the number of rows returned
+         */
+        int execute(int sample) throws SQLException {
+            bind(statement, sample);
+            ResultSet rs = statement.executeQuery();
+            int columns = rs.getMetaData().getColumnCount();
+            if (entryColumn < 0) {
+                entryColumn = 0;
+                for (int i = 1; i <= columns; i++) {
+                    if (rs.getMetaData().getColumnName(i).equals("entry")) {
+                        entryColumn = i;
+                    }
+                }
+            }
+            int rows = 0;
+            while (rs.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    if (i == entryColumn) {
+                        decoder.getString(rs, i);
+                    } else {
+                        rs.getString(i);
+                    }
+                }
+                rows++;
+            }
+            rs.close();
+            return rows;
+        }
+    }
+
+    /**
+     * The latencies of a run of queries.
+     */
+    private class Result {
+        final long[] nanos;
+        final double mean;
+        final double rowsPerQuery;
+        String name;
+        String plan;
+        boolean scans;
+
+        Result(long[] nanos, long rows) {
+            this.nanos = nanos.clone();
+            Arrays.sort(this.nanos);
+            long total = 0;
+            for (long n : nanos) {
+                total += n;
+            }
+            mean = nanos.length == 0 ? 0 : (double) total / nanos.length;
+            rowsPerQuery = nanos.length == 0 ? 0 : (double) rows
+                    / nanos.length;
+        }
+
+        /**
+         * Returns the latency below which the specified percentage of the
+         * queries completed.
+         */
+        long percentile(double p) {
+            if (nanos.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(p / 100 * nanos.length) - 1;
+            return nanos[Math.max(0, Math.min(i, nanos.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Measures reading stored sections back as SAX events. Sections stored as tag
+ * streams are replayed by <code>EntryDecoder</code>; sections stored as XML
+ * text are parsed, as a client of a text database would.
+ * 
+ * @author Ben Linskey
+ */
+public class ReplayBenchmark extends Benchmark {
+    private final boolean tagStreams;
+    private final List<String> xml = new ArrayList<String>();
+    private final List<byte[]> streams = new ArrayList<byte[]>();
+    private final CountingHandler handler = new CountingHandler();
+    private EntryDecoder decoder;
+    private XMLReader reader;
+
+    /**
+     * Class constructor.
+     * 
+     * @param tagStreams
+     *            <code>true</code> to replay tag streams rather than parse
+     *            XML text
+     */
+    public ReplayBenchmark(boolean tagStreams) {
+        super(tagStreams ? "replayTagStream" : "replayXml");
+        this.tagStreams = tagStreams;
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) throws Exception {
+        TagDictionary tags = new TagDictionary();
+        SyntaxParser parser = new SyntaxParser();
+        if (tagStreams) {
+            parser.setTagDictionary(tags);
+        }
+        for (String section : fixtures.getSections()) {
+            parser.parse(section);
+            if (tagStreams) {
+                streams.add(parser.getTagStream());
+            } else {
+                xml.add(parser.getUpdatedXML());
+            }
+        }
+
+        decoder = new EntryDecoder(null, tags.getNames());
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+    }
+
+    @Override
+    public int run() throws Exception {
+        if (tagStreams) {
+            for (byte[] stream : streams) {
+                decoder.parse(stream, handler);
+            }
+            return streams.size();
+        }
+        for (String section : xml) {
+            reader.parse(new InputSource(new StringReader(section)));
+        }
+        return xml.size();
+    }
+
+    @Override
+    public long getSink() {
+        return super.getSink() + handler.count;
+    }
+
+    /**
+     * Counts the events it receives.
+     */
+    private static class CountingHandler extends DefaultHandler {
+        private long count;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            count += attributes.getLength() + 1;
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            count += length;
+        }
+    }
+}
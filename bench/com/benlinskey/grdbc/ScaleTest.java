@@ -0,0 +1,364 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the lexicon database from synthetic lexicons of increasing size and
+ * reports how the build time and memory grow with the number of entries.
+ * <p>
+ * For each size, a lexicon is written by <code>LexiconGenerator</code> to
+ * <code>N/xml</code> under the working directory, and the lexicon is built
+ * with <code>--profile</code> in a separate JVM in <code>N/w</code>, so that
+ * each build starts with a fresh heap. The elapsed time, the time spent in
+ * each stage, and the live heap are read from the build's profile (see
+ * <code>BuildProfile</code>). Once every size has been built, the exponent
+ * of the best fit of each measure to a power of the number of entries is
+ * printed: 1.0 means the measure grows linearly, and anything much above it
+ * is flagged as super-linear.
+ * <p>
+ * Usage:
+ * <code>java com.benlinskey.grdbc.ScaleTest sizes work-dir results-file</code>
+ * where <code>sizes</code> is a comma-separated list of entry counts.
+ * <p>
+ * The following system properties control the run:
+ * <ul>
+ * <li><code>scale.args</code>: extra arguments for each build, such as
+ * <code>-j 4 -b</code></li>
+ * <li><code>scale.jvmArgs</code>: arguments for each build's JVM, such as
+ * <code>-Xmx2g</code></li>
+ * <li><code>scale.seed</code>: the seed of the generated lexicons (default
+ * 1)</li>
+ * </ul>
+ * 
+ * @author Ben Linskey
+ */
+public class ScaleTest {
+    private final static String FILE = "Perseus_text_1999.04.0058.xml";
+    private final static String ARGS = System.getProperty("scale.args", "");
+    private final static String JVM_ARGS = System.getProperty(
+            "scale.jvmArgs", "");
+    private final static long SEED = Long.getLong("scale.seed", 1);
+    private final static double SUPER_LINEAR = 1.15;
+    private final static Pattern NUMBER = Pattern
+            .compile("\"(\\w+)\": (\\d+)");
+    private final static Pattern STAGE = Pattern
+            .compile("\\{\"stage\": \"(\\w+)\", \"nanos\": (\\d+)");
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: java com.benlinskey.grdbc.ScaleTest "
+                    + "sizes work-dir results-file");
+            System.exit(1);
+        }
+
+        List<Run> runs = new ArrayList<Run>();
+        try {
+            for (String size : args[0].split(",")) {
+                runs.add(run(Integer.parseInt(size.trim()), new File(args[1])));
+            }
+            report(runs);
+            writeResults(runs, args[2]);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("Results written to " + args[2] + ".");
+    }
+
+    /**
+     * Generates a lexicon with the specified number of entries and builds
+     * it.
+     * 
+     * @param entries
+     *            the number of entries
+     * @param root
+     *            the working directory
+     * @return the measurements of the build
+     * @throws Exception
+     */
+    private static Run run(int entries, File root) throws Exception {
+        File dir = new File(root, String.valueOf(entries));
+        File xml = new File(dir, "xml");
+        File work = new File(dir, "w");
+        xml.mkdirs();
+        work.mkdirs();
+        new File(work, "lexicon.db").delete();
+
+        Run run = new Run(entries);
+        System.out.println("Generating " + entries + " entries...");
+        run.sourceBytes = new LexiconGenerator(SEED).write(entries, new File(
+                xml, FILE).getPath());
+        // The index of an earlier lexicon of the same size would be stale.
+        new File(xml, FILE + ".entry.idx").delete();
+
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        command.addAll(split(JVM_ARGS));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.benlinskey.grdbc.GRDBC");
+        command.add("--profile");
+        command.addAll(split(ARGS));
+        command.add("-l");
+
+        System.out.println("Building " + entries + " entries ("
+                + run.sourceBytes / 1024 + " KB)...");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(work);
+        builder.redirectErrorStream(true);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        copy(process.getInputStream(), new FileOutputStream(new File(work,
+                "build.log")));
+        int status = process.waitFor();
+        run.wallNanos = System.nanoTime() - start;
+        if (status != 0) {
+            throw new IllegalStateException("Build of " + entries
+                    + " entries failed; see " + new File(work, "build.log"));
+        }
+
+        String profile = read(new File(work, "lexicon-profile.json"));
+        Matcher m = NUMBER.matcher(profile);
+        while (m.find()) {
+            if (m.group(1).equals("elapsedNanos")) {
+                run.elapsedNanos = Long.parseLong(m.group(2));
+            } else if (m.group(1).equals("liveHeapBytes")) {
+                run.liveHeapBytes = Long.parseLong(m.group(2));
+            }
+        }
+        m = STAGE.matcher(profile);
+        while (m.find()) {
+            run.stages.put(m.group(1), Long.parseLong(m.group(2)));
+        }
+        run.databaseBytes = new File(work, "lexicon.db").length();
+        System.out.println(String.format(Locale.US,
+                "  %.1f s, %.1f us/entry, %d MB live heap",
+                run.elapsedNanos / 1e9, run.elapsedNanos / 1e3 / entries,
+                run.liveHeapBytes >> 20));
+        return run;
+    }
+
+    private static List<String> split(String args) {
+        List<String> list = new ArrayList<String>();
+        for (String arg : args.trim().split("\\s+")) {
+            if (arg.length() > 0) {
+                list.add(arg);
+            }
+        }
+        return list;
+    }
+
+    private static void copy(InputStream in, OutputStream out)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        out.close();
+    }
+
+    private static String read(File file) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        StringBuilder s = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            s.append(line).append('\n');
+        }
+        in.close();
+        return s.toString();
+    }
+
+    /**
+     * Returns the exponent of the least-squares fit of the measured values
+     * to a power of the number of entries.
+     * 
+     * @param runs
+     *            the runs, of at least two different sizes
+     * @param values
+     *            the value measured in each run
+     * @return the exponent, or <code>NaN</code> if it cannot be fitted
+     */
+    static double fitExponent(List<Run> runs, double[] values) {
+        int n = 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            if (values[i] <= 0) {
+                continue;
+            }
+            double x = Math.log(runs.get(i).entries);
+            double y = Math.log(values[i]);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+            n++;
+        }
+        double d = n * sxx - sx * sx;
+        return n < 2 || d == 0 ? Double.NaN : (n * sxy - sx * sy) / d;
+    }
+
+    /**
+     * Prints a table of the runs and the scaling exponent of each measure.
+     */
+    private static void report(List<Run> runs) {
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%10s %10s %10s %12s %10s",
+                "entries", "source KB", "build s", "us/entry", "heap MB"));
+        for (Run run : runs) {
+            System.out.println(String.format(Locale.US,
+                    "%10d %10d %10.2f %12.1f %10d", run.entries,
+                    run.sourceBytes / 1024, run.elapsedNanos / 1e9,
+                    run.elapsedNanos / 1e3 / run.entries,
+                    run.liveHeapBytes >> 20));
+        }
+        if (runs.size() < 2) {
+            return;
+        }
+
+        System.out.println();
+        System.out.println("Scaling exponents (1.0 is linear):");
+        for (Map.Entry<String, Double> e : getExponents(runs).entrySet()) {
+            System.out.println(String.format(Locale.US, "%12s %6.2f%s",
+                    e.getKey(), e.getValue(),
+                    e.getValue() > SUPER_LINEAR ? "  super-linear" : ""));
+        }
+    }
+
+    /**
+     * Returns the scaling exponent of the total time, the live heap, and the
+     * time spent in each stage.
+     */
+    private static Map<String, Double> getExponents(List<Run> runs) {
+        Map<String, Double> exponents = new LinkedHashMap<String, Double>();
+        double[] values = new double[runs.size()];
+        for (int i = 0; i < runs.size(); i++) {
+            values[i] = runs.get(i).elapsedNanos;
+        }
+        exponents.put("total", fitExponent(runs, values));
+        for (int i = 0; i < runs.size(); i++) {
+            values[i] = runs.get(i).liveHeapBytes;
+        }
+        exponents.put("heap", fitExponent(runs, values));
+        for (String stage : runs.get(runs.size() - 1).stages.keySet()) {
+            for (int i = 0; i < runs.size(); i++) {
+                Long nanos = runs.get(i).stages.get(stage);
+                values[i] = nanos == null ? 0 : nanos;
+            }
+            exponents.put(stage, fitExponent(runs, values));
+        }
+        return exponents;
+    }
+
+    private static void writeResults(List<Run> runs, String file)
+            throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"date\": \"")
+                .append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                        .format(new Date())).append("\",\n");
+        json.append("  \"java\": \"")
+                .append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"args\": \"").append(ARGS).append("\",\n");
+        json.append("  \"seed\": ").append(SEED).append(",\n");
+        json.append("  \"runs\": [");
+        for (int i = 0; i < runs.size(); i++) {
+            Run run = runs.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"entries\": ").append(run.entries)
+                    .append(", \"sourceBytes\": ").append(run.sourceBytes)
+                    .append(", \"databaseBytes\": ")
+                    .append(run.databaseBytes)
+                    .append(", \"elapsedNanos\": ").append(run.elapsedNanos)
+                    .append(", \"wallNanos\": ").append(run.wallNanos)
+                    .append(", \"liveHeapBytes\": ")
+                    .append(run.liveHeapBytes).append(", \"stages\": {");
+            boolean first = true;
+            for (Map.Entry<String, Long> e : run.stages.entrySet()) {
+                json.append(first ? "" : ", ").append('"').append(e.getKey())
+                        .append("\": ").append(e.getValue());
+                first = false;
+            }
+            json.append("}}");
+        }
+        json.append("\n  ]");
+        if (runs.size() >= 2) {
+            json.append(",\n  \"exponents\": {");
+            boolean first = true;
+            for (Map.Entry<String, Double> e : getExponents(runs).entrySet()) {
+                json.append(first ? "\n" : ",\n");
+                json.append("    \"").append(e.getKey()).append("\": ")
+                        .append(e.getValue().isNaN() ? "null" : String
+                                .format(Locale.US, "%.3f", e.getValue()));
+                first = false;
+            }
+            json.append("\n  }");
+        }
+        json.append("\n}\n");
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        out.write(json.toString());
+        out.close();
+    }
+
+    /**
+     * The measurements of one build.
+     */
+    static class Run {
+        final int entries;
+        final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+        long sourceBytes;
+        long databaseBytes;
+        long elapsedNanos;
+        long wallNanos;
+        long liveHeapBytes;
+
+        Run(int entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public String toString() {
+            return entries + " entries: " + Arrays.asList(elapsedNanos,
+                    liveHeapBytes);
+        }
+    }
+}
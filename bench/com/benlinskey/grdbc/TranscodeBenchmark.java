@@ -0,0 +1,63 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.List;
+
+/**
+ * Measures the conversion of Beta Code strings to Greek characters. With the
+ * cache disabled, each string is passed straight to the transcoder; with it
+ * enabled, strings go through <code>GreekTextParser.betaToGreek</code> and the
+ * shared transcoding cache, as they do during a build.
+ * 
+ * @author Ben Linskey
+ */
+public class TranscodeBenchmark extends Benchmark {
+    private final boolean cached;
+    private List<String> betaCode;
+    private BetaCodeTranscoder transcoder;
+    private GreekTextParser parser;
+
+    /**
+     * Class constructor.
+     * 
+     * @param cached
+     *            <code>true</code> to transcode through the shared cache
+     */
+    public TranscodeBenchmark(boolean cached) {
+        super(cached ? "betaToGreek" : "transcode");
+        this.cached = cached;
+    }
+
+    @Override
+    public void setUp(Fixtures fixtures) throws Exception {
+        betaCode = fixtures.getBetaCode();
+        transcoder = GreekTextParser.createTranscoder();
+        parser = new LexiconParser();
+    }
+
+    @Override
+    public int run() {
+        for (String beta : betaCode) {
+            if (cached) {
+                consume(parser.betaToGreek(beta));
+            } else {
+                consume(transcoder.transcode(beta));
+            }
+        }
+        return betaCode.size();
+    }
+}
@@ -0,0 +1,33 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * Converts Beta Code to Greek characters in Unicode Normalization Form C.
+ * Implementations are not required to be thread-safe.
+ * 
+ * @author Ben Linskey
+ */
+public interface BetaCodeTranscoder {
+    /**
+     * Converts Beta Code to Greek characters.
+     * 
+     * @param beta
+     *            the Beta Code to transcode
+     * @return the Greek equivalent of the specified Beta Code
+     */
+    String transcode(String beta);
+}
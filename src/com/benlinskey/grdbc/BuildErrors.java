@@ -0,0 +1,299 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the entries or sections that could not be processed during a
+ * build.
+ * <p>
+ * In the default, strict mode, the first error stops the program, as it always
+ * has. In lenient mode, the item is skipped instead, and a row giving the
+ * stage that failed, the item's key, its offset and raw source, and the
+ * exception is written to the <code>build_errors</code> table of the state
+ * database of the database being built (see <code>BulkLoader</code>), which
+ * the loader must have attached. The build carries on until more errors than
+ * its budget allows have been recorded, at which point the rows written so far
+ * are committed and the build fails. The table is dropped at the start of
+ * every build, so it only ever describes the latest one; a build that resumes
+ * an interrupted one keeps the errors recorded before its checkpoint, which
+ * count towards its budget.
+ * <p>
+ * Errors may be recorded by any thread, but they are written to the database
+ * only when the thread that owns the loader calls <code>write</code>.
+ * 
+ * @author Ben Linskey
+ */
+public class BuildErrors {
+    public final static String TABLE_NAME = "build_errors";
+    private final static String TABLE = BulkLoader.STATE + "." + TABLE_NAME;
+    public final static int DEFAULT_BUDGET = 100;
+    private final static int LISTED_ERRORS = 10;
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final BulkLoader loader;
+    private final String db;
+    private final boolean lenient;
+    private final int budget;
+    private final List<Failure> pending = new ArrayList<Failure>();
+    private final List<Failure> listed = new ArrayList<Failure>();
+    private final Map<String, Integer> stages = new TreeMap<String, Integer>();
+    private PreparedStatement insertStatement;
+    private int count;
+
+    /**
+     * Class constructor.
+     * 
+     * @param loader
+     *            the loader of the database being built
+     * @param db
+     *            the name of the database, for messages
+     * @param options
+     *            the options for the build
+     * @throws SQLException
+     */
+    public BuildErrors(BulkLoader loader, String db, BuildOptions options)
+            throws SQLException {
+        this.loader = loader;
+        this.db = db;
+        this.lenient = options.isLenient();
+        this.budget = options.getErrorBudget();
+    }
+
+    /**
+     * Drops the table of errors from any earlier build, including one left
+     * in the database itself by builds that kept their errors there.
+     * 
+     * @throws SQLException
+     */
+    public void reset() throws SQLException {
+        loader.execute("DROP TABLE IF EXISTS " + TABLE, "DROP TABLE IF EXISTS "
+                + "main." + TABLE_NAME);
+    }
+
+    /**
+     * Keeps the errors that an interrupted build recorded up to its last
+     * checkpoint, and deletes the rest, which will be recorded again.
+     * 
+     * @param offset
+     *            the byte offset of the last item before the checkpoint
+     * @throws SQLException
+     */
+    public void resume(long offset) throws SQLException {
+        Statement statement = loader.getConnection().createStatement();
+        ResultSet rs = statement.executeQuery("SELECT name FROM "
+                + BulkLoader.STATE + ".sqlite_master WHERE type = 'table' "
+                + "AND name = '" + TABLE_NAME + "'");
+        boolean found = rs.next();
+        rs.close();
+        statement.close();
+        if (!found) {
+            return;
+        }
+
+        loader.execute("DELETE FROM " + TABLE + " WHERE sourceOffset > "
+                + offset);
+        statement = loader.getConnection().createStatement();
+        rs = statement.executeQuery("SELECT stage, COUNT(*) FROM " + TABLE
+                + " GROUP BY stage");
+        synchronized (this) {
+            while (rs.next()) {
+                stages.put(rs.getString(1), rs.getInt(2));
+                count += rs.getInt(2);
+            }
+        }
+        rs.close();
+        statement.close();
+    }
+
+    /**
+     * @return <code>true</code> if items that cannot be processed are skipped
+     */
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * Records an item that could not be processed. In strict mode, throws
+     * the exception as a <code>BuildException</code>.
+     * 
+     * @param stage
+     *            the stage of the build that failed, such as
+     *            <code>parse</code>
+     * @param key
+     *            the key of the entry or title of the section
+     * @param offset
+     *            the byte offset of the item in the source, or -1 if it is
+     *            not known
+     * @param source
+     *            the raw bytes of the item, or <code>null</code> if they are
+     *            not available; the buffer's position is not changed
+     * @param e
+     *            the exception that stopped the item
+     */
+    public void record(String stage, String key, long offset,
+            ByteBuffer source, Exception e) {
+        if (!lenient) {
+            throw new BuildException(e);
+        }
+
+        StringWriter trace = new StringWriter();
+        e.printStackTrace(new PrintWriter(trace));
+        Failure failure = new Failure(stage, key, offset,
+                source == null ? null : UTF8.decode(source.duplicate())
+                        .toString(), trace.toString(), e.toString()
+                        .replaceAll("\\s*\n\\s*", " "));
+        System.err.println("Skipping " + key + " (" + stage + "): "
+                + failure.message);
+        synchronized (this) {
+            count++;
+            pending.add(failure);
+            if (listed.size() < LISTED_ERRORS) {
+                listed.add(failure);
+            }
+            Integer n = stages.get(stage);
+            stages.put(stage, n == null ? 1 : n + 1);
+        }
+    }
+
+    /**
+     * Returns the number of errors recorded so far.
+     * 
+     * @return the number of skipped items
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Adds the errors recorded since the last call to the current batch of
+     * rows. If the budget has been exceeded, commits them, prints a summary,
+     * and stops the build.
+     * 
+     * @throws SQLException
+     * @throws BuildException
+     *             if more errors have been recorded than the budget allows
+     */
+    public void write() throws SQLException {
+        List<Failure> failures;
+        boolean exceeded;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            failures = new ArrayList<Failure>(pending);
+            pending.clear();
+            exceeded = count > budget;
+        }
+
+        if (insertStatement == null) {
+            loader.execute("CREATE TABLE IF NOT EXISTS " + TABLE
+                    + " (_id INTEGER PRIMARY KEY, stage TEXT, itemKey TEXT, "
+                    + "sourceOffset INTEGER, error TEXT, source TEXT)");
+            insertStatement = loader.prepareInsert("INSERT INTO "
+                    + TABLE + " (stage, itemKey, sourceOffset, error, "
+                    + "source) VALUES (?, ?, ?, ?, ?)");
+        }
+        for (Failure failure : failures) {
+            insertStatement.setString(1, failure.stage);
+            insertStatement.setString(2, failure.key);
+            if (failure.offset >= 0) {
+                insertStatement.setLong(3, failure.offset);
+            } else {
+                insertStatement.setNull(3, Types.INTEGER);
+            }
+            insertStatement.setString(4, failure.trace);
+            insertStatement.setString(5, failure.source);
+            loader.addRow(insertStatement);
+        }
+
+        if (exceeded) {
+            loader.flush();
+            printSummary();
+            throw new BuildException("Error budget of " + budget
+                    + " exceeded in " + db + "; stopping.");
+        }
+    }
+
+    /**
+     * Prints the number of items skipped at each stage and the first few
+     * errors. Prints nothing in strict mode.
+     */
+    public synchronized void printSummary() {
+        if (!lenient) {
+            return;
+        }
+        if (count == 0) {
+            System.out.println("No errors.");
+            return;
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(count).append(count == 1 ? " item" : " items")
+                .append(" skipped (");
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : stages.entrySet()) {
+            summary.append(first ? "" : ", ").append(e.getValue())
+                    .append(" in ").append(e.getKey());
+            first = false;
+        }
+        summary.append("); see the ").append(TABLE_NAME)
+                .append(" table in ").append(BulkLoader.getStatePath(db))
+                .append(":");
+        System.out.println(summary);
+        for (Failure failure : listed) {
+            System.out.println("  " + failure.key + " (" + failure.stage
+                    + "): " + failure.message);
+        }
+        if (count > listed.size()) {
+            System.out.println("  ...");
+        }
+    }
+
+    /**
+     * An item that could not be processed.
+     */
+    private static class Failure {
+        final String stage;
+        final String key;
+        final long offset;
+        final String source;
+        final String trace;
+        final String message;
+
+        Failure(String stage, String key, long offset, String source,
+                String trace, String message) {
+            this.stage = stage;
+            this.key = key;
+            this.offset = offset;
+            this.source = source;
+            this.trace = trace;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * Stops a build after an error from which it cannot recover. The creators
+ * throw it rather than exiting, so that <code>BuildScheduler</code> can
+ * report the failure and let the other builds that are running finish.
+ * 
+ * @author Ben Linskey
+ */
+public class BuildException extends RuntimeException {
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Class constructor.
+     * 
+     * @param message
+     *            a description of the error
+     */
+    public BuildException(String message) {
+        super(message);
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param cause
+     *            the exception that stopped the build
+     */
+    public BuildException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,228 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the options that control how the databases are built. The defaults
+ * give a full, single-threaded build that stores XML text.
+ * 
+ * @author Ben Linskey
+ */
+public class BuildOptions {
+    private int threads = 1;
+    private boolean incremental;
+    private boolean compressed;
+    private boolean binary;
+    private boolean split;
+    private boolean profiled;
+    private KeyRange range;
+    private boolean lenient;
+    private boolean resumed;
+    private int errorBudget = BuildErrors.DEFAULT_BUDGET;
+    private final List<OutputFormat> outputs = new ArrayList<OutputFormat>();
+
+    /**
+     * @return the number of threads used to process lexicon entries
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads
+     *            the number of threads used to process lexicon entries; if
+     *            greater than one, entries are read, processed, and inserted
+     *            in a pipeline
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return <code>true</code> if an existing lexicon database is updated
+     *         rather than rebuilt
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental
+     *            <code>true</code> to update an existing lexicon database
+     *            rather than rebuilding it
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return <code>true</code> if entries and sections are stored compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @param compressed
+     *            <code>true</code> to store entries and sections compressed
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return <code>true</code> if entries and sections are stored as tag
+     *         streams rather than XML text
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @param binary
+     *            <code>true</code> to store entries and sections as tag
+     *            streams rather than XML text
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return <code>true</code> if lexicon entries are stored apart from
+     *         their search keys
+     */
+    public boolean isSplit() {
+        return split;
+    }
+
+    /**
+     * @param split
+     *            <code>true</code> to store lexicon entries in a table of
+     *            their own, leaving the lexicon table with only the search
+     *            keys
+     */
+    public void setSplit(boolean split) {
+        this.split = split;
+    }
+
+    /**
+     * @return <code>true</code> if timings are recorded and reported
+     */
+    public boolean isProfiled() {
+        return profiled;
+    }
+
+    /**
+     * @param profiled
+     *            <code>true</code> to record timings and write a report (see
+     *            <code>BuildProfile</code>)
+     */
+    public void setProfiled(boolean profiled) {
+        this.profiled = profiled;
+    }
+
+    /**
+     * @return the range of lexicon entries to rebuild, or <code>null</code>
+     *         to build every entry
+     */
+    public KeyRange getRange() {
+        return range;
+    }
+
+    /**
+     * @param range
+     *            the range of lexicon entries to rebuild, leaving the rest of
+     *            an existing database as it is, or <code>null</code> to build
+     *            every entry
+     */
+    public void setRange(KeyRange range) {
+        this.range = range;
+    }
+
+    /**
+     * @return <code>true</code> if entries and sections that cannot be
+     *         processed are skipped rather than stopping the build
+     */
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * @param lenient
+     *            <code>true</code> to skip entries and sections that cannot
+     *            be processed, recording them in the database (see
+     *            <code>BuildErrors</code>)
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    /**
+     * @return the number of entries or sections that a lenient build may
+     *         skip before it stops
+     */
+    public int getErrorBudget() {
+        return errorBudget;
+    }
+
+    /**
+     * @param errorBudget
+     *            the number of entries or sections that a lenient build may
+     *            skip before it stops
+     */
+    public void setErrorBudget(int errorBudget) {
+        this.errorBudget = errorBudget;
+    }
+
+    /**
+     * @return <code>true</code> if an interrupted lexicon build is resumed
+     *         from its last checkpoint
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @param resumed
+     *            <code>true</code> to resume an interrupted lexicon build from
+     *            its last checkpoint, rather than starting again
+     */
+    public void setResumed(boolean resumed) {
+        this.resumed = resumed;
+    }
+
+    /**
+     * @return the formats in which each database is written in addition to
+     *         SQLite
+     */
+    public List<OutputFormat> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @param format
+     *            a format in which to write each database in addition to
+     *            SQLite
+     */
+    public void addOutput(OutputFormat format) {
+        if (!outputs.contains(format)) {
+            outputs.add(format);
+        }
+    }
+}
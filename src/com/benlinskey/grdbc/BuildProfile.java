@@ -0,0 +1,437 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.management.GcInfo;
+
+/**
+ * Collects timings for a build and writes them as a JSON report.
+ * <p>
+ * The time spent in each stage of the build is accumulated in nanoseconds,
+ * summed over all threads, so stages run by several worker threads may add up
+ * to more than the elapsed time. Stages may also nest: <code>transcode</code>
+ * is part of <code>parse</code>, and each <code>flush</code> of a batch of
+ * rows is part of whichever stage filled the batch. The report also gives the
+ * number of entries or sections processed and their rate, the live heap, a
+ * histogram of the time taken to write each batch of rows, and the slowest
+ * entries.
+ * <p>
+ * The live heap is the most heap found in use just after a garbage
+ * collection during the build, which is what the build retains rather than
+ * how much garbage the collector lets build up between collections. The
+ * collectors are checked every few milliseconds as items are processed, and
+ * only their latest collection is seen. If there is no collection during
+ * the build, the heap in use at its end is reported instead. The heap is
+ * shared by every build in the JVM, so concurrent builds (<code>-a</code>)
+ * each report the heap retained by all of them.
+ * <p>
+ * A disabled profile ignores everything it is given, so code may record
+ * timings unconditionally. Profiles may be shared by any number of threads.
+ * While enabled, a progress line is printed every
+ * <code>grdbc.progressInterval</code> seconds (10 by default; 0 for none).
+ * 
+ * @author Ben Linskey
+ */
+public class BuildProfile {
+    /**
+     * A profile that records nothing.
+     */
+    public final static BuildProfile DISABLED = new BuildProfile(null, false);
+
+    private final static int SLOWEST_ITEMS = 10;
+    private final static int HISTOGRAM_BUCKETS = 12;
+    private final static long PROGRESS_INTERVAL = Long.getLong(
+            "grdbc.progressInterval", 10) * 1000000000L;
+    private final static long HEAP_SAMPLE_INTERVAL = 10000000L;
+    private final static Set<String> HEAP_POOLS = new HashSet<String>();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                HEAP_POOLS.add(pool.getName());
+            }
+        }
+    }
+
+    private final String name;
+    private final boolean enabled;
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private final AtomicLong items = new AtomicLong();
+    private final PriorityQueue<Item> slowest = new PriorityQueue<Item>();
+    private final long[] flushes = new long[HISTOGRAM_BUCKETS];
+    private long flushCount;
+    private long flushNanos;
+    private long maxFlushNanos;
+    private long started;
+    private long finished;
+    private long nextProgress;
+    private final Map<String, Long> lastCollections = new HashMap<String, Long>();
+    private long startedUptime;
+    private long nextHeapSample;
+    private long liveHeap = -1;
+
+    /**
+     * Class constructor.
+     * 
+     * @param name
+     *            the name of the database being built
+     * @param enabled
+     *            <code>true</code> to record timings
+     */
+    public BuildProfile(String name, boolean enabled) {
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return <code>true</code> if this profile records timings
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the start of the build.
+     */
+    public void begin() {
+        if (!enabled) {
+            return;
+        }
+        startedUptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        started = System.nanoTime();
+        nextProgress = started + PROGRESS_INTERVAL;
+    }
+
+    /**
+     * Returns a timestamp to pass to <code>stop</code> or <code>item</code>
+     * once the work being timed is done.
+     * 
+     * @return the current time in nanoseconds, or 0 if disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time since the specified timestamp to a stage.
+     * 
+     * @param stage
+     *            the name of the stage
+     * @param start
+     *            a timestamp returned by <code>start</code>
+     */
+    public void stop(String stage, long start) {
+        if (enabled) {
+            getStage(stage).add(System.nanoTime() - start);
+        }
+    }
+
+    private Stage getStage(String stage) {
+        synchronized (stages) {
+            Stage s = stages.get(stage);
+            if (s == null) {
+                s = new Stage();
+                stages.put(stage, s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Records that an entry or section has been processed, and prints a
+     * progress line if one is due.
+     * 
+     * @param key
+     *            the key of the entry or title of the section
+     * @param start
+     *            a timestamp returned by <code>start</code> before the item
+     *            was processed
+     */
+    public void item(String key, long start) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        long count = items.incrementAndGet();
+        sampleHeap(now);
+        synchronized (slowest) {
+            if (slowest.size() < SLOWEST_ITEMS
+                    || slowest.peek().nanos < now - start) {
+                slowest.add(new Item(key, now - start));
+                if (slowest.size() > SLOWEST_ITEMS) {
+                    slowest.poll();
+                }
+            }
+            if (PROGRESS_INTERVAL > 0 && now >= nextProgress) {
+                nextProgress = now + PROGRESS_INTERVAL;
+                System.out.println(String.format(Locale.US,
+                        "  %d processed (%.0f/s), %d MB heap used", count,
+                        count * 1e9 / (now - started), usedHeap() >> 20));
+            }
+        }
+    }
+
+    /**
+     * Records the time taken to write out a batch of rows.
+     * 
+     * @param start
+     *            a timestamp returned by <code>start</code> before the batch
+     *            was written
+     */
+    public void flushed(long start) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        long nanos = now - start;
+        getStage("flush").add(nanos);
+        sampleHeap(now);
+
+        // Bucket i holds flushes of up to 2^i milliseconds; the last bucket
+        // holds all longer ones.
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BUCKETS - 1 && nanos > (1000000L << bucket)) {
+            bucket++;
+        }
+        synchronized (flushes) {
+            flushes[bucket]++;
+            flushCount++;
+            flushNanos += nanos;
+            maxFlushNanos = Math.max(maxFlushNanos, nanos);
+        }
+    }
+
+    /**
+     * Marks the end of the build.
+     */
+    public void end() {
+        if (enabled) {
+            finished = System.nanoTime();
+            synchronized (lastCollections) {
+                nextHeapSample = 0;
+            }
+            sampleHeap(finished);
+        }
+    }
+
+    /**
+     * Records the heap in use after the latest collection of each collector,
+     * if it has not been seen before and happened during the build, unless
+     * the heap was sampled less than <code>HEAP_SAMPLE_INTERVAL</code>
+     * nanoseconds ago.
+     * 
+     * @param now
+     *            the current time in nanoseconds
+     */
+    private void sampleHeap(long now) {
+        synchronized (lastCollections) {
+            if (now < nextHeapSample) {
+                return;
+            }
+            nextHeapSample = now + HEAP_SAMPLE_INTERVAL;
+            for (GarbageCollectorMXBean collector : ManagementFactory
+                    .getGarbageCollectorMXBeans()) {
+                // Only HotSpot reports the heap after each collection.
+                GcInfo info = null;
+                if (collector instanceof com.sun.management.GarbageCollectorMXBean) {
+                    info = ((com.sun.management.GarbageCollectorMXBean)
+                            collector).getLastGcInfo();
+                }
+                if (info == null || info.getStartTime() < startedUptime) {
+                    continue;
+                }
+                Long last = lastCollections.put(collector.getName(),
+                        info.getId());
+                if (last != null && last == info.getId()) {
+                    continue;
+                }
+                long used = 0;
+                for (Map.Entry<String, MemoryUsage> pool : info
+                        .getMemoryUsageAfterGc().entrySet()) {
+                    if (HEAP_POOLS.contains(pool.getKey())) {
+                        used += pool.getValue().getUsed();
+                    }
+                }
+                liveHeap = Math.max(liveHeap, used);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+                .getUsed();
+    }
+
+    private long liveHeap() {
+        synchronized (lastCollections) {
+            return liveHeap >= 0 ? liveHeap : usedHeap();
+        }
+    }
+
+    /**
+     * Writes the report, if this profile is enabled.
+     * 
+     * @param file
+     *            the path of the report
+     * @throws IOException
+     */
+    public void writeReport(String file) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long elapsed = (finished > 0 ? finished : System.nanoTime()) - started;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"database\": ").append(quote(name)).append(",\n");
+        json.append("  \"date\": \"")
+                .append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
+                        .format(new Date())).append("\",\n");
+        json.append("  \"java\": \"")
+                .append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"elapsedNanos\": ").append(elapsed).append(",\n");
+        json.append("  \"items\": ").append(items.get()).append(",\n");
+        json.append("  \"itemsPerSecond\": ")
+                .append(String.format(Locale.US, "%.1f", items.get() * 1e9
+                        / elapsed)).append(",\n");
+        json.append("  \"liveHeapBytes\": ").append(liveHeap()).append(",\n");
+
+        json.append("  \"stages\": [");
+        synchronized (stages) {
+            boolean first = true;
+            for (Map.Entry<String, Stage> e : stages.entrySet()) {
+                json.append(first ? "\n" : ",\n");
+                json.append("    {\"stage\": ").append(quote(e.getKey()))
+                        .append(", \"nanos\": ")
+                        .append(e.getValue().nanos.get())
+                        .append(", \"count\": ")
+                        .append(e.getValue().count.get()).append("}");
+                first = false;
+            }
+        }
+        json.append("\n  ],\n");
+
+        synchronized (flushes) {
+            json.append("  \"flushes\": {\n");
+            json.append("    \"count\": ").append(flushCount).append(",\n");
+            json.append("    \"nanos\": ").append(flushNanos).append(",\n");
+            json.append("    \"maxNanos\": ").append(maxFlushNanos)
+                    .append(",\n");
+            json.append("    \"histogram\": [");
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("      {\"maxMillis\": ")
+                        .append(i < HISTOGRAM_BUCKETS - 1 ? 1L << i : "null")
+                        .append(", \"count\": ").append(flushes[i])
+                        .append("}");
+            }
+            json.append("\n    ]\n  },\n");
+        }
+
+        List<Item> slow;
+        synchronized (slowest) {
+            slow = new ArrayList<Item>(slowest);
+        }
+        Collections.sort(slow, Collections.reverseOrder());
+        json.append("  \"slowest\": [");
+        for (int i = 0; i < slow.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"key\": ").append(quote(slow.get(i).key))
+                    .append(", \"nanos\": ").append(slow.get(i).nanos)
+                    .append("}");
+        }
+        json.append("\n  ]\n}\n");
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        out.write(json.toString());
+        out.close();
+        System.out.println("Profile written to " + file + ".");
+    }
+
+    static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * The accumulated time of one stage.
+     */
+    private static class Stage {
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+
+        void add(long elapsed) {
+            nanos.addAndGet(elapsed);
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * The time taken to process one entry or section. Items are ordered from
+     * fastest to slowest.
+     */
+    private static class Item implements Comparable<Item> {
+        final String key;
+        final long nanos;
+
+        Item(String key, long nanos) {
+            this.key = key;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public int compareTo(Item other) {
+            return nanos < other.nanos ? -1 : (nanos == other.nanos ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the builds of independent databases concurrently.
+ * <p>
+ * Targets register with the scheduler, which selects them by their
+ * command-line options. At most a fixed number of builds run at once; the
+ * rest wait for a free thread. The start and end of each build are reported
+ * as they happen. If a build fails, the builds that have not yet started are
+ * cancelled, and those already running are allowed to finish so that no
+ * database is left half written. Builds report errors by throwing, usually a
+ * <code>BuildException</code>; if the program is stopped from outside
+ * instead, any build still unfinished is reported as aborted.
+ * 
+ * @author Ben Linskey
+ */
+public class BuildScheduler {
+    private final int threads;
+    private final Map<String, BuildTarget> targets = new LinkedHashMap<String, BuildTarget>();
+
+    /**
+     * Class constructor.
+     * 
+     * @param threads
+     *            the largest number of builds to run at once
+     */
+    public BuildScheduler(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Adds a target that can be built.
+     * 
+     * @param target
+     *            the target to add
+     */
+    public void register(BuildTarget target) {
+        targets.put(target.getOption(), target);
+    }
+
+    /**
+     * Returns the target selected by the specified command-line option.
+     * 
+     * @param option
+     *            a command-line option
+     * @return the target, or <code>null</code> if no target uses the option
+     */
+    public BuildTarget getTarget(String option) {
+        return targets.get(option);
+    }
+
+    /**
+     * Returns every registered target, in the order in which they were
+     * registered.
+     * 
+     * @return the targets
+     */
+    public List<BuildTarget> getTargets() {
+        return Collections.unmodifiableList(new ArrayList<BuildTarget>(
+                targets.values()));
+    }
+
+    /**
+     * Builds the specified targets and waits for them to finish.
+     * 
+     * @param selected
+     *            the targets to build
+     * @param options
+     *            the options for every build
+     * @return <code>true</code> if every build succeeded
+     */
+    public boolean run(List<BuildTarget> selected, final BuildOptions options) {
+        final Set<String> unfinished = Collections
+                .synchronizedSet(new LinkedHashSet<String>());
+        // Set by a failing build before its thread can take the next one,
+        // so that every build still waiting sees it and is cancelled.
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (unfinished) {
+                    for (String name : unfinished) {
+                        System.err.println("[" + name + "] Aborted.");
+                    }
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(reporter);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(threads, selected.size())));
+        CompletionService<BuildTarget> builds = new ExecutorCompletionService<BuildTarget>(
+                executor);
+        Map<Future<BuildTarget>, BuildTarget> pending = new LinkedHashMap<Future<BuildTarget>, BuildTarget>();
+        for (final BuildTarget target : selected) {
+            unfinished.add(target.getName());
+            pending.put(builds.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (failed.get()) {
+                        unfinished.remove(target.getName());
+                        System.err.println("[" + target.getName()
+                                + "] Cancelled.");
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    System.out.println("[" + target.getName() + "] Started.");
+                    try {
+                        target.build(options);
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } catch (Exception e) {
+                        failed.set(true);
+                        throw new RuntimeException(e);
+                    }
+                    unfinished.remove(target.getName());
+                    System.out.println(String.format(Locale.US,
+                            "[%s] Finished in %.1f s.", target.getName(),
+                            (System.nanoTime() - start) / 1e9));
+                }
+            }, target), target);
+        }
+        executor.shutdown();
+
+        boolean succeeded = true;
+        while (!pending.isEmpty()) {
+            Future<BuildTarget> done;
+            try {
+                done = builds.take();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.exit(1);
+                return false;
+            }
+            BuildTarget target = pending.remove(done);
+            unfinished.remove(target.getName());
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                System.err.println("[" + target.getName() + "] Failed.");
+                e.getCause().printStackTrace();
+                succeeded = false;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        Runtime.getRuntime().removeShutdownHook(reporter);
+        return succeeded;
+    }
+}
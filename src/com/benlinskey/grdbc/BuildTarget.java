@@ -0,0 +1,75 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * A database that can be built by <code>BuildScheduler</code>. Each target is
+ * selected on the command line by its own option, and builds a separate
+ * database file, so that targets can be built concurrently.
+ * 
+ * @author Ben Linskey
+ */
+public abstract class BuildTarget {
+    private final String name;
+    private final String option;
+    private final String description;
+
+    /**
+     * Class constructor.
+     * 
+     * @param name
+     *            the name under which the build's status is reported
+     * @param option
+     *            the command-line option that selects this target
+     * @param description
+     *            a description of the option, for the usage message
+     */
+    protected BuildTarget(String name, String option, String description) {
+        this.name = name;
+        this.option = option;
+        this.description = description;
+    }
+
+    /**
+     * @return the name under which the build's status is reported
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the command-line option that selects this target
+     */
+    public String getOption() {
+        return option;
+    }
+
+    /**
+     * @return a description of the option, for the usage message
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Builds the database. Any exception thrown fails the whole run.
+     * 
+     * @param options
+     *            the options for the build
+     * @throws Exception
+     */
+    public abstract void build(BuildOptions options) throws Exception;
+}
@@ -0,0 +1,223 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads rows into a new SQLite database as quickly as possible.
+ * <p>
+ * The connection is tuned for a one-off build rather than for safety: the
+ * rollback journal is kept in memory, writes are not synced to disk, and the
+ * page cache is enlarged. Inserts are batched and committed every
+ * <code>grdbc.batchSize</code> rows (1000 by default), so memory use does not
+ * grow with the size of the source text. Indexes should be created only after
+ * all rows have been loaded. Closing the loader runs <code>ANALYZE</code> and
+ * <code>VACUUM</code> so that the finished file is compact and ready to query.
+ * <p>
+ * State that only later builds need, such as entry hashes, checkpoints and
+ * errors, is kept out of the database that is shipped, in a state database
+ * next to it, which is attached as <code>state</code>. Its tables are named
+ * with that prefix, and changes to both databases are committed together.
+ * 
+ * @author Ben Linskey
+ */
+public class BulkLoader {
+    public final static String STATE = "state";
+    private final static int PAGE_SIZE = 4096;
+    private final static int CACHE_PAGES = Integer.getInteger(
+            "grdbc.cachePages", 16384);
+    private final static int BATCH_SIZE = Integer.getInteger(
+            "grdbc.batchSize", 1000);
+    private final String db;
+    private final Connection connection;
+    private final List<PreparedStatement> insertStatements = new ArrayList<PreparedStatement>();
+    private int pendingRows;
+    private BuildProfile profile = BuildProfile.DISABLED;
+
+    /**
+     * Class constructor. Opens the specified database and configures it for
+     * bulk loading.
+     * 
+     * @param db
+     *            the path of the database file
+     * @throws ClassNotFoundException
+     *             if the SQLite driver cannot be loaded
+     * @throws SQLException
+     */
+    public BulkLoader(String db) throws ClassNotFoundException, SQLException {
+        Class.forName("org.sqlite.JDBC");
+        this.db = db;
+        connection = DriverManager.getConnection("jdbc:sqlite:" + db);
+
+        // The page size only affects a new file, or an existing one once it
+        // has been vacuumed.
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("PRAGMA page_size = " + PAGE_SIZE);
+        statement.executeUpdate("PRAGMA cache_size = " + CACHE_PAGES);
+        statement.executeUpdate("PRAGMA synchronous = OFF");
+        statement.executeQuery("PRAGMA journal_mode = MEMORY").close();
+        statement.close();
+
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Returns the path of the state database of a database.
+     * 
+     * @param db
+     *            the path of the database, such as <code>lexicon.db</code>
+     * @return the path of its state database, such as
+     *         <code>lexicon-build.db</code>
+     */
+    public static String getStatePath(String db) {
+        return db.replaceFirst("\\.db$", "") + "-build.db";
+    }
+
+    /**
+     * Attaches the state database, creating it if it does not exist, and
+     * configures it like the database being loaded.
+     * 
+     * @throws SQLException
+     */
+    public void attachState() throws SQLException {
+        // A database cannot be attached inside a transaction.
+        connection.commit();
+        connection.setAutoCommit(true);
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("ATTACH DATABASE '"
+                + getStatePath(db).replace("'", "''") + "' AS " + STATE);
+        statement.executeUpdate("PRAGMA " + STATE + ".synchronous = OFF");
+        statement.executeQuery("PRAGMA " + STATE + ".journal_mode = MEMORY")
+                .close();
+        statement.close();
+        connection.setAutoCommit(false);
+    }
+
+    /**
+     * Returns the connection to the database being loaded.
+     * 
+     * @return the database connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Sets the profile that records the time taken to write out each batch
+     * of rows.
+     * 
+     * @param profile
+     *            the profile of the build
+     */
+    public void setProfile(BuildProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Executes the specified SQL statements and commits them.
+     * 
+     * @param sql
+     *            the statements to execute
+     * @throws SQLException
+     */
+    public void execute(String... sql) throws SQLException {
+        Statement statement = connection.createStatement();
+        for (String s : sql) {
+            statement.executeUpdate(s);
+        }
+        statement.close();
+        connection.commit();
+    }
+
+    /**
+     * Prepares a statement used to insert rows. Parameters should be set on
+     * the returned statement before each call to <code>addRow</code>.
+     * 
+     * @param sql
+     *            an <code>INSERT</code> statement
+     * @return the prepared statement
+     * @throws SQLException
+     */
+    public PreparedStatement prepareInsert(String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        insertStatements.add(statement);
+        return statement;
+    }
+
+    /**
+     * Adds a row with the current parameters of the specified insert
+     * statement, writing out all pending rows if the batch is full.
+     * 
+     * @param statement
+     *            a statement returned by <code>prepareInsert</code>
+     * @throws SQLException
+     */
+    public void addRow(PreparedStatement statement) throws SQLException {
+        statement.addBatch();
+        if (++pendingRows >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out and commits any rows that have not yet been inserted.
+     * 
+     * @throws SQLException
+     */
+    public void flush() throws SQLException {
+        if (pendingRows > 0) {
+            long start = profile.start();
+            for (PreparedStatement statement : insertStatements) {
+                statement.executeBatch();
+            }
+            pendingRows = 0;
+            connection.commit();
+            profile.flushed(start);
+        } else {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Inserts any remaining rows, updates the query planner's statistics,
+     * compacts the database, and closes it.
+     * 
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        flush();
+        for (PreparedStatement statement : insertStatements) {
+            statement.close();
+        }
+
+        System.out.println("Optimizing database...");
+        execute("ANALYZE");
+
+        // VACUUM cannot run inside a transaction.
+        connection.setAutoCommit(true);
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("VACUUM");
+        statement.close();
+        connection.close();
+    }
+}
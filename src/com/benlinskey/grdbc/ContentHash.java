@@ -0,0 +1,126 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes SHA-1 hashes of text, used to detect which parts of a source text
+ * have changed since a database was last built. Each thread keeps its own
+ * <code>MessageDigest</code>.
+ * 
+ * @author Ben Linskey
+ */
+public class ContentHash {
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final static ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private ContentHash() {
+    }
+
+    /**
+     * Returns the SHA-1 hash of the specified text, encoded as UTF-8.
+     * 
+     * @param text
+     *            the text to hash
+     * @return the hash as a string of hexadecimal digits
+     */
+    public static String of(String text) {
+        MessageDigest digest = DIGEST.get();
+        try {
+            return toHex(digest.digest(text.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the specified text, encoded as UTF-8,
+     * followed by the specified bytes.
+     * 
+     * @param prefix
+     *            the text to hash first
+     * @param data
+     *            the bytes to hash, from the buffer's position to its limit;
+     *            the position is not changed
+     * @return the hash as a string of hexadecimal digits
+     */
+    public static String of(String prefix, ByteBuffer data) {
+        MessageDigest digest = DIGEST.get();
+        try {
+            digest.update(prefix.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(data.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the SHA-1 hash of the contents of the specified file.
+     * 
+     * @param path
+     *            the path of the file to hash
+     * @return the hash as a string of hexadecimal digits
+     * @throws IOException
+     */
+    public static String ofFile(String path) throws IOException {
+        MessageDigest digest = DIGEST.get();
+        byte[] buffer = new byte[65536];
+        InputStream in = new FileInputStream(path);
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the specified bytes as a string of hexadecimal digits.
+     * 
+     * @param bytes
+     *            the bytes to encode
+     * @return the hexadecimal encoding of the bytes
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,413 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Finds every element with a given name in a UTF-8 XML document by scanning
+ * its bytes, without parsing the document. Each element is returned as a
+ * slice of the document's buffer, from the <code>&lt;</code> of its start tag
+ * through the <code>&gt;</code> of its end tag, which can be parsed on its own
+ * with <code>MappedXmlFile.createReader</code>. No bytes are copied, so slices
+ * of a mapped file can be queued and handed to other threads cheaply.
+ * <p>
+ * Comments, CDATA sections, processing instructions and declarations are
+ * skipped, and elements of the same name nested within a slice are included
+ * in it. The element's start tag is the only part that is decoded, so that
+ * its attributes can be read. Slicers are not thread-safe, but the slices
+ * they return are independent of one another.
+ * 
+ * @author Ben Linskey
+ */
+public class ElementSlicer {
+    private final ByteBuffer buffer;
+    private final byte[] name;
+    private int position;
+    private int start = -1;
+    private int tagEnd;
+    private int end;
+
+    /**
+     * Class constructor.
+     * 
+     * @param buffer
+     *            the document to scan, from its position to its limit
+     * @param name
+     *            the name of the elements to find
+     */
+    public ElementSlicer(ByteBuffer buffer, String name) {
+        this.buffer = buffer;
+        this.name = toBytes(name);
+        position = buffer.position();
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Advances to the next element.
+     * 
+     * @return <code>true</code> if an element was found, or
+     *         <code>false</code> if the end of the document was reached
+     * @throws XMLStreamException
+     *             if an element is not closed
+     */
+    public boolean next() throws XMLStreamException {
+        int limit = buffer.limit();
+        int i = position;
+        while (i < limit) {
+            if (buffer.get(i) != '<') {
+                i++;
+            } else if (isStartTag(i)) {
+                start = i;
+                tagEnd = endOfTag(i);
+                end = buffer.get(tagEnd - 2) == '/' ? tagEnd
+                        : endOfElement(tagEnd);
+                position = end;
+                return true;
+            } else {
+                i = skipMarkup(i);
+            }
+        }
+        position = limit;
+        start = -1;
+        return false;
+    }
+
+    /**
+     * Returns the offset in the document of the current element.
+     * 
+     * @return the index in the buffer of the first byte of the element
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the offset in the document just past the current element.
+     * 
+     * @return the index in the buffer after the last byte of the element
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the bytes of the current element.
+     * 
+     * @return a buffer whose contents are the element
+     */
+    public ByteBuffer getSlice() {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice.slice();
+    }
+
+    /**
+     * Returns the value of the specified attribute of the current element,
+     * with character and entity references replaced and whitespace
+     * normalized as an XML parser would.
+     * 
+     * @param attribute
+     *            the name of the attribute
+     * @return the value of the attribute, or <code>null</code> if the current
+     *         element has no such attribute
+     */
+    public String getAttribute(String attribute) {
+        if (start < 0) {
+            return null;
+        }
+        byte[] target = toBytes(attribute);
+        int i = start + 1 + name.length;
+        while (i < tagEnd) {
+            byte b = buffer.get(i);
+            if (isSpace(b)) {
+                i++;
+                continue;
+            }
+            if (b == '>' || b == '/') {
+                break;
+            }
+
+            // Read one name="value" pair.
+            int nameStart = i;
+            while (i < tagEnd && buffer.get(i) != '='
+                    && !isSpace(buffer.get(i))) {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < tagEnd && buffer.get(i) != '=') {
+                i++;
+            }
+            i++;
+            while (i < tagEnd && isSpace(buffer.get(i))) {
+                i++;
+            }
+            if (i >= tagEnd) {
+                break;
+            }
+            byte quote = buffer.get(i++);
+            int valueStart = i;
+            while (i < tagEnd && buffer.get(i) != quote) {
+                i++;
+            }
+            if (matches(nameStart, nameEnd, target)) {
+                return normalize(decode(valueStart, i));
+            }
+            i++;
+        }
+        return null;
+    }
+
+    private boolean matches(int from, int to, byte[] bytes) {
+        if (to - from != bytes.length) {
+            return false;
+        }
+        for (int j = 0; j < bytes.length; j++) {
+            if (buffer.get(from + j) != bytes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = buffer.get(from + j);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces the references in an attribute value and turns each line
+     * break and tab into a space.
+     * 
+     * @param value
+     *            the raw value
+     * @return the normalized value
+     */
+    private static String normalize(String value) {
+        if (value.indexOf('&') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0 && value.indexOf('\t') < 0) {
+            return value;
+        }
+        StringBuilder s = new StringBuilder(value.length());
+        for (int j = 0; j < value.length(); j++) {
+            char c = value.charAt(j);
+            if (c == '\r') {
+                if (j + 1 < value.length() && value.charAt(j + 1) == '\n') {
+                    j++;
+                }
+                s.append(' ');
+            } else if (c == '\n' || c == '\t') {
+                s.append(' ');
+            } else if (c == '&' && value.indexOf(';', j) > j) {
+                int semicolon = value.indexOf(';', j);
+                String reference = value.substring(j + 1, semicolon);
+                String replacement = resolve(reference);
+                if (replacement == null) {
+                    s.append(c);
+                } else {
+                    s.append(replacement);
+                    j = semicolon;
+                }
+            } else {
+                s.append(c);
+            }
+        }
+        return s.toString();
+    }
+
+    private static String resolve(String reference) {
+        if (reference.equals("amp")) {
+            return "&";
+        } else if (reference.equals("lt")) {
+            return "<";
+        } else if (reference.equals("gt")) {
+            return ">";
+        } else if (reference.equals("quot")) {
+            return "\"";
+        } else if (reference.equals("apos")) {
+            return "'";
+        }
+        try {
+            if (reference.startsWith("#x")) {
+                return new String(Character.toChars(Integer.parseInt(
+                        reference.substring(2), 16)));
+            } else if (reference.startsWith("#")) {
+                return new String(Character.toChars(Integer.parseInt(reference
+                        .substring(1))));
+            }
+        } catch (IllegalArgumentException e) {
+            // Not a valid character reference; keep it as it is.
+        }
+        return null;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Returns true if a start tag of an element with the slicer's name
+     * begins at the specified offset.
+     */
+    private boolean isStartTag(int i) {
+        return hasName(i + 1);
+    }
+
+    /**
+     * Returns true if the element name at the specified offset is the
+     * slicer's name, rather than some other name beginning with it.
+     */
+    private boolean hasName(int i) {
+        if (i + name.length >= buffer.limit()) {
+            return false;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (buffer.get(i + j) != name[j]) {
+                return false;
+            }
+        }
+        byte next = buffer.get(i + name.length);
+        return isSpace(next) || next == '>' || next == '/';
+    }
+
+    /**
+     * Returns the offset just past the <code>&gt;</code> that closes the tag
+     * beginning at the specified offset, ignoring any within quoted attribute
+     * values.
+     */
+    private int endOfTag(int i) throws XMLStreamException {
+        byte quote = 0;
+        for (int j = i + 1; j < buffer.limit(); j++) {
+            byte b = buffer.get(j);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return j + 1;
+            }
+        }
+        throw unclosed(i);
+    }
+
+    /**
+     * Returns the offset just past the end tag that closes the element whose
+     * start tag ends at the specified offset.
+     */
+    private int endOfElement(int i) throws XMLStreamException {
+        int depth = 1;
+        int limit = buffer.limit();
+        while (i < limit) {
+            if (buffer.get(i) != '<') {
+                i++;
+            } else if (i + 1 < limit && buffer.get(i + 1) == '/'
+                    && hasName(i + 2)) {
+                i = endOfTag(i);
+                if (--depth == 0) {
+                    return i;
+                }
+            } else if (isStartTag(i)) {
+                int closing = endOfTag(i);
+                if (buffer.get(closing - 2) != '/') {
+                    depth++;
+                }
+                i = closing;
+            } else {
+                i = skipMarkup(i);
+            }
+        }
+        throw unclosed(start);
+    }
+
+    /**
+     * Returns the offset just past the markup beginning at the specified
+     * offset. Comments, CDATA sections, processing instructions and
+     * declarations are skipped in full, since they may contain text that
+     * looks like tags; for any other tag, only the <code>&lt;</code> is
+     * skipped.
+     */
+    private int skipMarkup(int i) throws XMLStreamException {
+        if (startsWith(i, "<!--")) {
+            return skipPast(i + 4, "-->");
+        } else if (startsWith(i, "<![CDATA[")) {
+            return skipPast(i + 9, "]]>");
+        } else if (startsWith(i, "<?")) {
+            return skipPast(i + 2, "?>");
+        } else if (startsWith(i, "<!")) {
+            // A declaration, such as a DOCTYPE with an internal subset.
+            int brackets = 0;
+            for (int j = i + 2; j < buffer.limit(); j++) {
+                byte b = buffer.get(j);
+                if (b == '[') {
+                    brackets++;
+                } else if (b == ']') {
+                    brackets--;
+                } else if (b == '>' && brackets == 0) {
+                    return j + 1;
+                }
+            }
+            throw unclosed(i);
+        }
+        return i + 1;
+    }
+
+    private boolean startsWith(int i, String s) {
+        if (i + s.length() > buffer.limit()) {
+            return false;
+        }
+        for (int j = 0; j < s.length(); j++) {
+            if (buffer.get(i + j) != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipPast(int i, String terminator) throws XMLStreamException {
+        int limit = buffer.limit() - terminator.length();
+        for (int j = i; j <= limit; j++) {
+            if (startsWith(j, terminator)) {
+                return j + terminator.length();
+            }
+        }
+        throw unclosed(i);
+    }
+
+    private static XMLStreamException unclosed(int offset) {
+        return new XMLStreamException("Unclosed markup at byte " + offset
+                + ".");
+    }
+}
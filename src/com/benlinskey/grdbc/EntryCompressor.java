@@ -0,0 +1,338 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses entries or sections, stored either as XML text or as tag
+ * streams, once they have been loaded into a database, in the formats read by
+ * <code>EntryDecoder</code>.
+ * <p>
+ * Each value is compressed separately, so rows can still be read one at a
+ * time. Short values compress poorly on their own, so they are compressed
+ * with a preset dictionary holding the tags and words that occur most often
+ * across the whole text. The dictionary is trained on the first run and
+ * stored once in the <code>metadata</code> table; later incremental builds
+ * reuse it, so that rows that have not changed keep the same bytes.
+ * 
+ * @author Ben Linskey
+ */
+public class EntryCompressor {
+    // Deflate cannot refer back further than 32 KB.
+    private final static int DICTIONARY_SIZE = 32768;
+    private final static int BATCH_SIZE = 1000;
+    private final static int MIN_TOKEN_LENGTH = 4;
+    private final static int MAX_TOKENS = 500000;
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+    private final static Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final BulkLoader loader;
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION,
+            true);
+    private final byte[] buffer = new byte[8192];
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private byte[] dictionary;
+
+    /**
+     * Class constructor.
+     * 
+     * @param loader
+     *            the loader of the database to compress
+     * @throws SQLException
+     */
+    public EntryCompressor(BulkLoader loader) throws SQLException {
+        this.loader = loader;
+        dictionary = (byte[]) Metadata.get(loader.getConnection(),
+                Metadata.DICTIONARY);
+    }
+
+    /**
+     * Returns true if the database already holds compressed values.
+     * 
+     * @return <code>true</code> if a dictionary has been stored
+     */
+    public boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    /**
+     * Compresses every value of a column that is still stored as text or as
+     * an uncompressed tag stream, training and storing a dictionary first if
+     * the database has none.
+     * 
+     * @param table
+     *            the table to compress, which must have an <code>_id</code>
+     *            column
+     * @param column
+     *            the column holding entry or section XML
+     * @throws SQLException
+     */
+    public void compress(String table, String column) throws SQLException {
+        if (dictionary == null) {
+            System.out.println("Training compression dictionary...");
+            dictionary = train(table, column);
+            Metadata.put(loader, Metadata.DICTIONARY, dictionary);
+        }
+
+        System.out.println("Compressing entries...");
+        Connection connection = loader.getConnection();
+        PreparedStatement select = connection.prepareStatement("SELECT _id, "
+                + column + " FROM " + table + " WHERE _id > ? AND "
+                + uncompressed(column) + " ORDER BY _id LIMIT " + BATCH_SIZE);
+        PreparedStatement update = loader.prepareInsert("UPDATE " + table
+                + " SET " + column + " = ? WHERE _id = ?");
+
+        // Rows are read a batch at a time, since a transaction cannot be
+        // committed while a query is still reading from it.
+        List<Integer> ids = new ArrayList<Integer>(BATCH_SIZE);
+        List<byte[]> values = new ArrayList<byte[]>(BATCH_SIZE);
+        int lastId = Integer.MIN_VALUE;
+        do {
+            ids.clear();
+            values.clear();
+            select.setInt(1, lastId);
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+                values.add(compress(rs.getObject(2)));
+            }
+            rs.close();
+
+            for (int i = 0; i < ids.size(); i++) {
+                update.setBytes(1, values.get(i));
+                update.setInt(2, ids.get(i));
+                loader.addRow(update);
+                lastId = ids.get(i);
+            }
+        } while (ids.size() == BATCH_SIZE);
+        select.close();
+        loader.flush();
+    }
+
+    /**
+     * Returns an SQL condition that selects the values of a column that have
+     * not been compressed.
+     */
+    private static String uncompressed(String column) {
+        return "(typeof(" + column + ") = 'text' OR substr(" + column
+                + ", 1, 1) = " + String.format("X'%02x'", EntryDecoder.TAG_STREAM)
+                + ")";
+    }
+
+    /**
+     * Compresses a single value.
+     * 
+     * @param value
+     *            the XML text or tag stream to compress
+     * @return the compressed value, including its format
+     */
+    private byte[] compress(Object value) {
+        compressed.reset();
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        if (value instanceof byte[]) {
+            byte[] stream = (byte[]) value;
+            compressed.write(EntryDecoder.DEFLATED_TAG_STREAM);
+            deflater.setInput(stream, 1, stream.length - 1);
+        } else {
+            compressed.write(EntryDecoder.DEFLATED_XML);
+            deflater.setInput(value.toString().getBytes(UTF_8));
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            compressed.write(buffer, 0, n);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Builds a dictionary from the tags and words that occur most often in a
+     * column. Tokens are counted as they are encoded in the stored values, so
+     * that the dictionary suits tag streams as well as XML text. Each
+     * candidate is scored by the number of bytes it would save
+     * if every later occurrence were replaced by a reference to it. Deflate
+     * encodes nearby matches most cheaply, so the best candidates are placed
+     * at the end of the dictionary.
+     * 
+     * @param table
+     *            the table to read
+     * @param column
+     *            the column to read
+     * @return the dictionary
+     * @throws SQLException
+     */
+    private byte[] train(String table, String column) throws SQLException {
+        Map<String, int[]> counts = new HashMap<String, int[]>();
+        Statement statement = loader.getConnection().createStatement();
+        ResultSet rs = statement.executeQuery("SELECT " + column + " FROM "
+                + table + " WHERE " + uncompressed(column));
+        while (rs.next()) {
+            Object value = rs.getObject(1);
+            if (value instanceof byte[]) {
+                countTagStreamTokens((byte[]) value, counts);
+            } else {
+                countTokens(value.toString(), counts);
+            }
+            if (counts.size() > MAX_TOKENS) {
+                prune(counts);
+            }
+        }
+        rs.close();
+        statement.close();
+
+        final Map<String, Long> scores = new HashMap<String, Long>();
+        for (Map.Entry<String, int[]> e : counts.entrySet()) {
+            long score = (long) (e.getValue()[0] - 1) * e.getKey().length();
+            if (score > 0) {
+                scores.put(e.getKey(), score);
+            }
+        }
+        List<String> tokens = new ArrayList<String>(scores.keySet());
+        Collections.sort(tokens, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int cmp = scores.get(b).compareTo(scores.get(a));
+                return cmp != 0 ? cmp : a.compareTo(b);
+            }
+        });
+
+        List<byte[]> chosen = new ArrayList<byte[]>();
+        int size = 0;
+        for (String token : tokens) {
+            byte[] bytes = token.getBytes(ISO_8859_1);
+            if (size + bytes.length <= DICTIONARY_SIZE) {
+                chosen.add(bytes);
+                size += bytes.length;
+            }
+        }
+        Collections.reverse(chosen);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (byte[] bytes : chosen) {
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Counts the tags and words in XML text. Tags are counted whole, with
+     * their attributes, and words are counted with the character that
+     * precedes them.
+     * 
+     * @param text
+     *            the XML to scan
+     * @param counts
+     *            the counts to update, keyed by the UTF-8 encoding of each
+     *            token decoded as ISO-8859-1
+     */
+    private static void countTokens(String text, Map<String, int[]> counts) {
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end;
+            char c = text.charAt(start);
+            if (c == '<') {
+                end = text.indexOf('>', start);
+                end = end < 0 ? length : end + 1;
+            } else {
+                end = start + 1;
+                while (end < length && Character.isLetter(text.charAt(end))) {
+                    end++;
+                }
+            }
+            if (end - start >= MIN_TOKEN_LENGTH) {
+                count(toKey(text.substring(start, end)), counts);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Counts the tags and words in a tag stream. Start tags are counted
+     * whole, as they are encoded, with their attributes; the text between
+     * them is counted as in XML text.
+     * 
+     * @param stream
+     *            the tag stream to scan, including its format
+     * @param counts
+     *            the counts to update
+     */
+    private static void countTagStreamTokens(byte[] stream,
+            Map<String, int[]> counts) {
+        TagStreamReader reader = new TagStreamReader(stream, 1,
+                stream.length - 1, null);
+        int type;
+        while ((type = reader.next()) != TagStreamReader.END_OF_STREAM) {
+            if (type == TagStreamReader.START || type == TagStreamReader.EMPTY) {
+                count(new String(stream, reader.getTokenStart(),
+                        reader.getTokenEnd() - reader.getTokenStart(),
+                        ISO_8859_1), counts);
+            } else if (type == TagStreamReader.TEXT) {
+                countTokens(reader.getText(), counts);
+            }
+        }
+    }
+
+    private static void count(String key, Map<String, int[]> counts) {
+        int[] count = counts.get(key);
+        if (count == null) {
+            counts.put(key, new int[] { 1 });
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Returns the UTF-8 encoding of a token, decoded as ISO-8859-1 so that
+     * tokens of XML text and of tag streams can be counted together.
+     */
+    private static String toKey(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) >= 0x80) {
+                return new String(token.getBytes(UTF_8), ISO_8859_1);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Removes tokens that have only been seen once, to bound memory use on
+     * very large texts.
+     */
+    private static void prune(Map<String, int[]> counts) {
+        Iterator<int[]> it = counts.values().iterator();
+        while (it.hasNext()) {
+            if (it.next()[0] < 2) {
+                it.remove();
+            }
+        }
+    }
+}
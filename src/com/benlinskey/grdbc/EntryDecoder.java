@@ -0,0 +1,306 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Reads entries and sections in any of the formats in which they can be
+ * stored.
+ * <p>
+ * A value stored as text is XML. A value stored as a BLOB begins with a byte
+ * giving its format:
+ * <ul>
+ * <li><code>DEFLATED_XML</code>: the UTF-8 text of the XML, compressed by
+ * <code>EntryCompressor</code></li>
+ * <li><code>TAG_STREAM</code>: a tag stream (see
+ * <code>TagStreamReader</code>)</li>
+ * <li><code>DEFLATED_TAG_STREAM</code>: a tag stream, compressed by
+ * <code>EntryCompressor</code></li>
+ * </ul>
+ * Compressed values use raw Deflate with the preset dictionary stored under
+ * the name <code>dictionary</code> in the database's <code>metadata</code>
+ * table, and tag streams use the names stored there under <code>tags</code>.
+ * Decoders are not thread-safe.
+ * 
+ * @author Ben Linskey
+ */
+public class EntryDecoder {
+    public final static int DEFLATED_XML = 1;
+    public final static int TAG_STREAM = 2;
+    public final static int DEFLATED_TAG_STREAM = 3;
+
+    private final byte[] dictionary;
+    private final String[] tags;
+    private final Inflater inflater = new Inflater(true);
+    private byte[] buffer = new byte[8192];
+    private XMLReader xmlReader;
+
+    /**
+     * Class constructor. Loads the compression dictionary and tag names, if
+     * any, from the specified database.
+     * 
+     * @param connection
+     *            a connection to a lexicon or syntax database
+     * @throws SQLException
+     */
+    public EntryDecoder(Connection connection) throws SQLException {
+        this((byte[]) Metadata.get(connection, Metadata.DICTIONARY),
+                loadTags(connection));
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param dictionary
+     *            the preset dictionary used to compress values, or
+     *            <code>null</code> if values are not compressed
+     * @param tags
+     *            the names used in tag streams, indexed by number, or
+     *            <code>null</code> if values are not stored as tag streams
+     */
+    public EntryDecoder(byte[] dictionary, String[] tags) {
+        this.dictionary = dictionary;
+        this.tags = tags;
+    }
+
+    private static String[] loadTags(Connection connection)
+            throws SQLException {
+        Object tags = Metadata.get(connection, Metadata.TAGS);
+        return tags == null ? null : new TagDictionary(tags.toString())
+                .getNames();
+    }
+
+    /**
+     * Returns the XML of an entry or section column.
+     * 
+     * @param rs
+     *            a result set positioned on a row
+     * @param column
+     *            the index of the column holding the entry or section
+     * @return the XML, or <code>null</code> if the column is
+     *         <code>NULL</code>
+     * @throws SQLException
+     *             if the value cannot be decoded
+     */
+    public String getString(ResultSet rs, int column) throws SQLException {
+        Object value = rs.getObject(column);
+        if (value instanceof byte[]) {
+            return decode((byte[]) value);
+        }
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Reports the document held by an entry or section column to the
+     * specified handler. Tag streams are replayed directly, without parsing
+     * any XML.
+     * 
+     * @param rs
+     *            a result set positioned on a row
+     * @param column
+     *            the index of the column holding the entry or section
+     * @param handler
+     *            the handler to receive the events
+     * @throws SQLException
+     *             if the value cannot be decoded
+     * @throws SAXException
+     *             if the handler throws an exception
+     */
+    public void parse(ResultSet rs, int column, ContentHandler handler)
+            throws SQLException, SAXException {
+        Object value = rs.getObject(column);
+        if (value instanceof byte[]) {
+            parse((byte[]) value, handler);
+        } else if (value != null) {
+            parseXml(value.toString(), handler);
+        }
+    }
+
+    /**
+     * Returns the XML of a value stored as a BLOB.
+     * 
+     * @param data
+     *            the stored value
+     * @return the XML
+     * @throws SQLException
+     *             if the value is in an unknown format or is corrupt
+     */
+    public String decode(byte[] data) throws SQLException {
+        switch (formatOf(data)) {
+        case DEFLATED_XML:
+            int length = inflate(data);
+            try {
+                return new String(buffer, 0, length, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        case TAG_STREAM:
+            return toXml(readTagStream(data, 1, data.length - 1));
+        default:
+            // Inflating may replace the buffer.
+            int streamLength = inflate(data);
+            return toXml(readTagStream(buffer, 0, streamLength));
+        }
+    }
+
+    /**
+     * Reports the document held by a value stored as a BLOB to the specified
+     * handler.
+     * 
+     * @param data
+     *            the stored value
+     * @param handler
+     *            the handler to receive the events
+     * @throws SQLException
+     *             if the value is in an unknown format or is corrupt
+     * @throws SAXException
+     *             if the handler throws an exception
+     */
+    public void parse(byte[] data, ContentHandler handler)
+            throws SQLException, SAXException {
+        switch (formatOf(data)) {
+        case DEFLATED_XML:
+            parseXml(decode(data), handler);
+            break;
+        case TAG_STREAM:
+            replay(readTagStream(data, 1, data.length - 1), handler);
+            break;
+        default:
+            int length = inflate(data);
+            replay(readTagStream(buffer, 0, length), handler);
+            break;
+        }
+    }
+
+    private static int formatOf(byte[] data) throws SQLException {
+        int format = data.length == 0 ? -1 : data[0];
+        if (format != DEFLATED_XML && format != TAG_STREAM
+                && format != DEFLATED_TAG_STREAM) {
+            throw new SQLException("Unknown entry format "
+                    + (format < 0 ? "(empty)" : format) + ".");
+        }
+        return format;
+    }
+
+    /**
+     * Decompresses a compressed value into the buffer.
+     * 
+     * @param data
+     *            the stored value, including its format
+     * @return the length of the decompressed value
+     * @throws SQLException
+     *             if the value is corrupt
+     */
+    private int inflate(byte[] data) throws SQLException {
+        if (dictionary == null) {
+            throw new SQLException("No compression dictionary found.");
+        }
+
+        inflater.reset();
+        inflater.setInput(data, 1, data.length - 1);
+        inflater.setDictionary(dictionary);
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+                int n = inflater.inflate(buffer, length, buffer.length
+                        - length);
+                if (n == 0 && inflater.needsInput()) {
+                    // Raw streams carry no trailer, so some versions of zlib
+                    // stop short of reporting the end of the stream.
+                    break;
+                }
+                length += n;
+            }
+            return length;
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupt entry: " + e.getMessage());
+        }
+    }
+
+    private TagStreamReader readTagStream(byte[] data, int offset, int length)
+            throws SQLException {
+        if (tags == null) {
+            throw new SQLException("No tag dictionary found.");
+        }
+        return new TagStreamReader(data, offset, length, tags);
+    }
+
+    private static String toXml(TagStreamReader reader) throws SQLException {
+        StringWriter out = new StringWriter();
+        out.write(GreekTextParser.XML_DECLARATION);
+        try {
+            XMLStreamWriter writer = XmlFactories.getOutputFactory()
+                    .createXMLStreamWriter(out);
+            reader.copyTo(writer);
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new SQLException("Corrupt entry: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new SQLException("Corrupt entry: " + e.getMessage());
+        }
+        return out.toString();
+    }
+
+    private static void replay(TagStreamReader reader, ContentHandler handler)
+            throws SQLException, SAXException {
+        try {
+            reader.replay(handler);
+        } catch (IllegalStateException e) {
+            throw new SQLException("Corrupt entry: " + e.getMessage());
+        }
+    }
+
+    private void parseXml(String xml, ContentHandler handler)
+            throws SQLException, SAXException {
+        try {
+            if (xmlReader == null) {
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                xmlReader = factory.newSAXParser().getXMLReader();
+            }
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(new StringReader(xml)));
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new SQLException("Unreadable entry: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.UnsupportedEncodingException;
+
+import edu.unc.epidoc.transcoder.TransCoder;
+
+/**
+ * A <code>BetaCodeTranscoder</code> backed by the EpiDoc TransCoder. This is
+ * the reference implementation against which <code>TableTranscoder</code> is
+ * verified. Like the TransCoder, it must not be shared between threads.
+ * 
+ * @author Ben Linskey
+ */
+public class EpiDocTranscoder implements BetaCodeTranscoder {
+    private final TransCoder transcoder;
+
+    /**
+     * Class constructor.
+     * 
+     * @throws Exception
+     *             if the TransCoder cannot be created
+     */
+    public EpiDocTranscoder() throws Exception {
+        transcoder = new TransCoder("BetaCode", "UnicodeC");
+    }
+
+    @Override
+    public String transcode(String beta) {
+        String greek = null;
+        try {
+            greek = transcoder.getString(beta);
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return greek;
+    }
+}
@@ -15,38 +15,180 @@
 
 package com.benlinskey.grdbc;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
- * This class provides a command line interface for the program.
+ * This class provides a command line interface for the program. Each
+ * database that can be built is registered with a
+ * <code>BuildScheduler</code>, which builds the selected databases
+ * concurrently.
  * @author Ben Linskey
  */
 public class GRDBC {
+	// The largest number of databases to build at once.
+	private final static int JOBS = Integer.getInteger("grdbc.jobs", Runtime
+			.getRuntime().availableProcessors());
+
 	public static void main(String[] args) {
-		if (args.length != 1) {
-			displayUsage();
+		BuildScheduler scheduler = createScheduler();
+		BuildOptions options = new BuildOptions();
+		String opt = null;
+		String[] patchArgs = null;
+		boolean valid = true;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-j") && i + 1 < args.length) {
+				options.setThreads(parseNumber(args[++i]));
+			} else if (args[i].equals("-i")) {
+				options.setIncremental(true);
+			} else if (args[i].equals("-z")) {
+				options.setCompressed(true);
+			} else if (args[i].equals("-b")) {
+				options.setBinary(true);
+			} else if (args[i].equals("--split")) {
+				options.setSplit(true);
+			} else if (args[i].equals("--profile")) {
+				options.setProfiled(true);
+			} else if (args[i].equals("--range") && i + 1 < args.length) {
+				options.setRange(KeyRange.parse(args[++i]));
+				valid &= options.getRange() != null;
+			} else if (args[i].equals("--output") && i + 1 < args.length) {
+				OutputFormat format = OutputFormat.parse(args[++i]);
+				valid &= format != null;
+				if (format != null) {
+					options.addOutput(format);
+				}
+			} else if (args[i].equals("--resume")) {
+				options.setResumed(true);
+			} else if (args[i].equals("--lenient")) {
+				options.setLenient(true);
+			} else if (args[i].equals("--max-errors") && i + 1 < args.length) {
+				options.setLenient(true);
+				options.setErrorBudget(parseNumber(args[++i]));
+				valid &= options.getErrorBudget() >= 0;
+			} else if (args[i].equals("-d") && opt == null
+					&& i + 3 < args.length) {
+				opt = args[i];
+				patchArgs = new String[] { args[++i], args[++i], args[++i] };
+			} else if (opt == null) {
+				opt = args[i];
+			} else {
+				opt = null;
+				break;
+			}
+		}
+
+		// Other outputs are written from every row, so they need a full build.
+		if (!options.getOutputs().isEmpty()
+				&& (options.isIncremental() || options.getRange() != null
+						|| options.isResumed())) {
+			System.err.println("--output needs a full build.");
+			valid = false;
+		}
+
+		if (opt == null || options.getThreads() < 1 || !valid) {
+			displayUsage(scheduler);
 			System.exit(1);
 		}
-		
-		String opt = args[0];
+
+		List<BuildTarget> targets = null;
 		if (opt.equals("-a")) {
-			(new LexiconCreator()).run();
-			(new SyntaxCreator()).run();
-		} else if (opt.equals("-l")) {
-			(new LexiconCreator()).run();
-		} else if (opt.equals("-g")) {
-			(new SyntaxCreator()).run();
+			targets = scheduler.getTargets();
+		} else if (scheduler.getTarget(opt) != null) {
+			targets = Collections.singletonList(scheduler.getTarget(opt));
+		}
+
+		if (targets != null) {
+			if (!scheduler.run(targets, options)) {
+				System.exit(1);
+			}
+		} else if (opt.equals("-d") && patchArgs != null) {
+			(new PatchGenerator(patchArgs[0], patchArgs[1], patchArgs[2]))
+					.run();
 		} else {
-			displayUsage();
+			displayUsage(scheduler);
+		}
+	}
+
+	/**
+	 * Creates a scheduler and registers every database that can be built.
+	 * 
+	 * @return the scheduler
+	 */
+	private static BuildScheduler createScheduler() {
+		BuildScheduler scheduler = new BuildScheduler(JOBS);
+		scheduler.register(new BuildTarget("lexicon", "-l",
+				"Create lexicon database") {
+			@Override
+			public void build(BuildOptions options) {
+				(new LexiconCreator(options)).run();
+			}
+		});
+		scheduler.register(new BuildTarget("syntax", "-g",
+				"Create grammar database") {
+			@Override
+			public void build(BuildOptions options) {
+				(new SyntaxCreator(options)).run();
+			}
+		});
+		return scheduler;
+	}
+	
+	/**
+	 * Parses the argument to the <code>-j</code> or <code>--max-errors</code>
+	 * option.
+	 * 
+	 * @param arg the argument to parse
+	 * @return the number, or -1 if the argument is invalid
+	 */
+	private static int parseNumber(String arg) {
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 	
 	/**
 	 * Displays usage information for the program.
+	 * 
+	 * @param scheduler the scheduler holding the databases that can be built
 	 */
-	private static void displayUsage() {
-		System.out.println("Usage: java -jar grdbc.jar [option]\n");
+	private static void displayUsage(BuildScheduler scheduler) {
+		System.out.println("Usage: java -jar grdbc.jar [-j threads] [-i] [-z] "
+				+ "[-b] [--split] [--profile] [--output FORMAT] "
+				+ "[--range FIRST-LAST] [--resume] [--lenient] "
+				+ "[--max-errors N] [option]\n");
 		System.out.println("Options:");
 		System.out.printf("%5s\t\t%20s\n", "-a", "Create all databases");
-		System.out.printf("%5s\t\t%20s\n", "-l", "Create lexicon database");
-		System.out.printf("%5s\t\t%20s\n", "-g", "Create grammar database");
+		for (BuildTarget target : scheduler.getTargets()) {
+			System.out.printf("%5s\t\t%20s\n", target.getOption(),
+					target.getDescription());
+		}
+		System.out.printf("%5s\t\t%20s\n", "-d OLD NEW PATCH",
+				"Write a patch that updates database OLD to NEW");
+		System.out.printf("%5s\t\t%20s\n", "-j N",
+				"Process lexicon entries on N threads");
+		System.out.printf("%5s\t\t%20s\n", "-i",
+				"Update the lexicon database incrementally");
+		System.out.printf("%5s\t\t%20s\n", "-z",
+				"Compress entries and sections");
+		System.out.printf("%5s\t\t%20s\n", "-b",
+				"Store entries and sections as binary tag streams");
+		System.out.printf("%5s\t\t%20s\n", "--split",
+				"Store lexicon entries apart from their search keys");
+		System.out.printf("%5s\t\t%20s\n", "--profile",
+				"Write a timing report for each database");
+		System.out.printf("%5s\t\t%20s\n", "--output FORMAT",
+				"Also write each database as jsonl or snapshot");
+		System.out.printf("%5s\t\t%20s\n", "--range FIRST-LAST",
+				"Rebuild only the lexicon entries from FIRST to LAST");
+		System.out.printf("%5s\t\t%20s\n", "--resume",
+				"Resume an interrupted lexicon build");
+		System.out.printf("%5s\t\t%20s\n", "--lenient",
+				"Skip entries and sections that cannot be processed");
+		System.out.printf("%5s\t\t%20s\n", "--max-errors N",
+				"Skip at most N entries or sections (default "
+						+ BuildErrors.DEFAULT_BUDGET + ")");
 	}
 }
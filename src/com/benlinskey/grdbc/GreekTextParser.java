@@ -15,126 +15,542 @@
 
 package com.benlinskey.grdbc;
 
-import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import edu.unc.epidoc.transcoder.TransCoder;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * An abstract class for parsing Greek text encoded in an XML document.
+ * <p>
+ * The XML is processed as a stream: each element is copied to the output as
+ * it is read, and the text of elements marked as Greek is converted from Beta
+ * Code to Greek characters along the way. No DOM is built.
+ * <p>
+ * By default the output is XML text. A parser given a tag dictionary writes
+ * each document as a tag stream instead (see <code>TagStreamReader</code>),
+ * which avoids serializing XML at build time and parsing it when the document
+ * is read.
+ * <p>
+ * A parser may be reused for any number of documents; each call to
+ * <code>parse</code> discards the results of the previous one. Parsers are not
+ * thread-safe.
  * 
  * @author Ben Linskey
  * 
  */
 public abstract class GreekTextParser {
-    protected Document doc;
-    protected TransCoder transcoder;
+    final static String XML_DECLARATION = "<?xml version=\"1.0\" "
+            + "encoding=\"UTF-8\" standalone=\"no\"?>";
+    private final static TranscodingCache CACHE = new TranscodingCache(
+            Integer.getInteger("grdbc.transcodingCacheSize", 50000));
+    private final static String TRANSCODER = System.getProperty(
+            "grdbc.transcoder", "table");
+    protected BetaCodeTranscoder transcoder;
+    private final Map<String, String> rootAttributes;
+    private final StringWriter out;
+    private final StringBuilder text;
+    private XMLStreamWriter writer;
+    private TagStreamWriter tagWriter;
+    private BuildProfile profile = BuildProfile.DISABLED;
+    private String xml;
+    private byte[] tagStream;
 
     /**
      * Class constructor.
+     */
+    protected GreekTextParser() {
+        rootAttributes = new HashMap<String, String>();
+        out = new StringWriter();
+        text = new StringBuilder();
+    }
+
+    /**
+     * Returns the transcoding cache shared by all parsers. The maximum size of
+     * the cache can be set with the <code>grdbc.transcodingCacheSize</code>
+     * system property.
+     * 
+     * @return the shared transcoding cache
+     */
+    public static TranscodingCache getTranscodingCache() {
+        return CACHE;
+    }
+
+    /**
+     * Creates the <code>BetaCodeTranscoder</code> selected by the
+     * <code>grdbc.transcoder</code> system property: <code>table</code> (the
+     * default) for the native <code>TableTranscoder</code>, or
+     * <code>epidoc</code> for the EpiDoc TransCoder.
+     * 
+     * @return a new transcoder
+     * @throws Exception
+     *             if the transcoder cannot be created
+     */
+    public static BetaCodeTranscoder createTranscoder() throws Exception {
+        if (TRANSCODER.equals("epidoc")) {
+            return new EpiDocTranscoder();
+        } else if (TRANSCODER.equals("table")) {
+            return new TableTranscoder();
+        }
+        throw new IllegalArgumentException("Unknown transcoder: " + TRANSCODER);
+    }
+
+    /**
+     * Sets the dictionary used to write documents as tag streams. Once it is
+     * set, <code>getTagStream</code> returns each document and
+     * <code>getUpdatedXML</code> returns <code>null</code>.
+     * 
+     * @param tags
+     *            the tag dictionary, which may be shared with other parsers,
+     *            or <code>null</code> to write XML text
+     */
+    public void setTagDictionary(TagDictionary tags) {
+        tagWriter = tags == null ? null : new TagStreamWriter(tags);
+    }
+
+    /**
+     * Sets the profile that records the time spent parsing documents and
+     * transcoding Beta Code that is not already cached.
+     * 
+     * @param profile
+     *            the profile of the build, which may be shared with other
+     *            parsers
+     */
+    public void setProfile(BuildProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Returns the names of the elements whose text should be transcoded when
+     * they are marked as Greek.
+     * 
+     * @return the names of the elements to transcode
+     */
+    protected abstract String[] getGreekElements();
+
+    /**
+     * Returns the value to write for the specified attribute of the root
+     * element. Subclasses may override this method to transcode attribute
+     * values. The default implementation returns the value unchanged.
+     * 
+     * @param name
+     *            the name of the attribute
+     * @param value
+     *            the value of the attribute in the source XML
+     * @return the value to write
+     */
+    protected String getRootAttributeValue(String name, String value) {
+        return value;
+    }
+
+    /**
+     * Parses the specified XML, which must contain a single root element.
      * 
      * @param xml
      *            the XML to parse
-     * @throws ParserConfigurationException
-     * @throws SAXException
-     * @throws IOException
-     */
-    protected GreekTextParser(String xml) throws ParserConfigurationException,
-            SAXException, IOException {
-        // Parse the XML and create a Document.
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        InputSource is = new InputSource(new StringReader(xml));
-        doc = db.parse(is);
-
-        // Create a TransCoder for converting Beta Code to Greek characters.
-        try {
-            transcoder = new TransCoder("BetaCode", "UnicodeC");
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
-    }
-
-    /**
-     * Transcodes beta code to Greek in elements with the given name.
-     * 
-     * @param element
-     *            the name of the element to search for
-     */
-    protected void transcodeInElements(String element) {
-        NodeList nodeList = doc.getElementsByTagName(element);
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node elementNode = nodeList.item(i);
-            Node langAttr = elementNode.getAttributes().getNamedItem("lang");
-            if (langAttr != null) {
-                String lang = langAttr.getTextContent();
-                if (lang.equals("greek")) {
-                    String greek = betaToGreek(elementNode.getTextContent());
-                    elementNode.setTextContent(greek);
-                }
+     * @throws XMLStreamException
+     */
+    public void parse(String xml) throws XMLStreamException {
+        XMLStreamReader reader = XmlFactories.getInputFactory()
+                .createXMLStreamReader(new StringReader(xml));
+        reader.nextTag();
+        parse(reader);
+        reader.close();
+    }
+
+    /**
+     * Parses the specified UTF-8 XML, which must contain a single root
+     * element.
+     * 
+     * @param xml
+     *            the XML to parse, such as a slice of a mapped file; its
+     *            position is not changed
+     * @throws XMLStreamException
+     */
+    public void parse(ByteBuffer xml) throws XMLStreamException {
+        XMLStreamReader reader = MappedXmlFile.createReader(xml);
+        reader.nextTag();
+        parse(reader);
+        reader.close();
+    }
+
+    /**
+     * Parses the element at which the specified reader is positioned. When
+     * this method returns, the reader is positioned at the element's end tag.
+     * 
+     * @param reader
+     *            a reader positioned at the start tag of the element to parse
+     * @throws XMLStreamException
+     */
+    public void parse(XMLStreamReader reader) throws XMLStreamException {
+        long start = profile.start();
+        startDocument();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            rootAttributes.put(reader.getAttributeLocalName(i),
+                    reader.getAttributeValue(i));
+        }
+        copyElement(reader, true);
+        endDocument();
+        profile.stop("parse", start);
+    }
+
+    /**
+     * Begins writing a new transcoded document.
+     * 
+     * @throws XMLStreamException
+     */
+    protected void startDocument() throws XMLStreamException {
+        rootAttributes.clear();
+        xml = null;
+        tagStream = null;
+        text.setLength(0);
+        if (tagWriter != null) {
+            tagWriter.reset();
+            writer = tagWriter;
+            return;
+        }
+        out.getBuffer().setLength(0);
+        out.write(XML_DECLARATION);
+        writer = XmlFactories.getOutputFactory().createXMLStreamWriter(out);
+    }
+
+    /**
+     * Finishes writing the transcoded document.
+     * 
+     * @throws XMLStreamException
+     */
+    protected void endDocument() throws XMLStreamException {
+        writer.flush();
+        writer.close();
+        if (tagWriter != null) {
+            tagStream = tagWriter.toByteArray(EntryDecoder.TAG_STREAM);
+        } else {
+            xml = out.toString();
+        }
+        writer = null;
+    }
+
+    /**
+     * Returns the underlying writer for the document being written.
+     * 
+     * @return the writer for the current document
+     */
+    protected XMLStreamWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Copies the element at which the specified reader is positioned to the
+     * output, transcoding Greek text along the way.
+     * 
+     * @param reader
+     *            a reader positioned at the start tag of the element to copy
+     * @param root
+     *            <code>true</code> if this is the root element of the output
+     * @throws XMLStreamException
+     */
+    private void copyElement(XMLStreamReader reader, boolean root)
+            throws XMLStreamException {
+        String name = reader.getLocalName();
+        String[][] attributes = readAttributes(reader, root);
+        appendText(" ");
+
+        if (isGreek(name, attributes)) {
+            String beta = readText(reader);
+            if (beta.length() == 0) {
+                writeStartElement(name, attributes, true);
+            } else {
+                String greek = betaToGreek(beta);
+                writeStartElement(name, attributes, false);
+                writer.writeCharacters(greek);
+                writer.writeEndElement();
+                appendText(greek);
+                appendText(" ");
             }
+            return;
+        }
+
+        // Write empty elements as such rather than as a start/end tag pair.
+        int event = reader.next();
+        if (event == XMLStreamConstants.END_ELEMENT) {
+            writeStartElement(name, attributes, true);
+            return;
         }
+
+        writeStartElement(name, attributes, false);
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            copyEvent(reader, event);
+            event = reader.next();
+        }
+        writer.writeEndElement();
+        appendText(" ");
     }
 
     /**
-     * Returns a string containing an XML representation of the document in its
-     * current state.
+     * Copies all remaining content of the element in which the specified
+     * reader is positioned to the output. When this method returns, the reader
+     * is positioned at that element's end tag.
      * 
-     * @return a string containing an XML representation of the document in its
-     *         current state
+     * @param reader
+     *            a reader positioned inside the element to copy
+     * @throws XMLStreamException
      */
-    protected String getUpdatedXML() {
-        StringWriter writer = new StringWriter();
-        try {
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(writer);
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException e) {
-            e.printStackTrace();
-            System.exit(1);
-        } catch (TransformerException e) {
-            e.printStackTrace();
-            System.exit(1);
+    protected void copyContent(XMLStreamReader reader)
+            throws XMLStreamException {
+        int event = reader.next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            copyEvent(reader, event);
+            event = reader.next();
+        }
+    }
+
+    /**
+     * Copies a single event to the output, descending into elements.
+     * 
+     * @param reader
+     *            the reader that produced the event
+     * @param event
+     *            the event type
+     * @throws XMLStreamException
+     */
+    private void copyEvent(XMLStreamReader reader, int event)
+            throws XMLStreamException {
+        switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+            copyElement(reader, false);
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+            writer.writeCharacters(reader.getText());
+            appendText(reader.getText());
+            break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+            writer.writeEntityRef(reader.getLocalName());
+            break;
+        case XMLStreamConstants.COMMENT:
+            writer.writeComment(reader.getText());
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            writer.writeProcessingInstruction(reader.getPITarget(),
+                    reader.getPIData());
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Appends the specified string to the plain text of the document. Runs of
+     * spaces used to separate the text of adjacent elements are collapsed.
+     * 
+     * @param s
+     *            the text to append
+     */
+    protected void appendText(String s) {
+        if (s.equals(" ")) {
+            int length = text.length();
+            if (length == 0 || text.charAt(length - 1) == ' ') {
+                return;
+            }
+        }
+        text.append(s);
+    }
+
+    /**
+     * Reads the attributes of the element at which the specified reader is
+     * positioned.
+     * 
+     * @param reader
+     *            a reader positioned at an element's start tag
+     * @param root
+     *            <code>true</code> if this is the root element of the output
+     * @return an array of {prefix, namespace, name, value} arrays
+     */
+    private String[][] readAttributes(XMLStreamReader reader, boolean root) {
+        String[][] attributes = new String[reader.getAttributeCount()][];
+        for (int i = 0; i < attributes.length; i++) {
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            if (root) {
+                value = getRootAttributeValue(name, value);
+            }
+            attributes[i] = new String[] { reader.getAttributePrefix(i),
+                    reader.getAttributeNamespace(i), name, value };
+        }
+        return attributes;
+    }
+
+    /**
+     * Writes a start tag along with its attributes.
+     * 
+     * @param name
+     *            the name of the element
+     * @param attributes
+     *            the attributes, as returned by <code>readAttributes</code>
+     * @param empty
+     *            <code>true</code> to write an empty element
+     * @throws XMLStreamException
+     */
+    private void writeStartElement(String name, String[][] attributes,
+            boolean empty) throws XMLStreamException {
+        if (empty) {
+            writer.writeEmptyElement(name);
+        } else {
+            writer.writeStartElement(name);
+        }
+        for (String[] attr : attributes) {
+            if (attr[0] == null || attr[0].length() == 0) {
+                writer.writeAttribute(attr[2], attr[3]);
+            } else {
+                writer.writeAttribute(attr[0], attr[1], attr[2], attr[3]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the specified element contains Greek text that should be
+     * transcoded.
+     * 
+     * @param name
+     *            the name of the element
+     * @param attributes
+     *            the element's attributes
+     * @return <code>true</code> if the element's text should be transcoded
+     */
+    private boolean isGreek(String name, String[][] attributes) {
+        boolean greek = false;
+        for (String[] attr : attributes) {
+            if (attr[2].equals("lang") && attr[3].equals("greek")) {
+                greek = true;
+            }
+        }
+        if (!greek) {
+            return false;
+        }
+        for (String element : getGreekElements()) {
+            if (element.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads all text within the current element, including the text of any
+     * child elements, and advances to the element's end tag.
+     * 
+     * @param reader
+     *            a reader positioned at the element's start tag
+     * @return the text content of the element
+     * @throws XMLStreamException
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                text.append(reader.getText());
+                break;
+            default:
+                break;
+            }
         }
-        return writer.toString();
+        return text.toString();
+    }
+
+    /**
+     * Returns the value of the specified attribute of the root element, as it
+     * appeared in the source XML.
+     * 
+     * @param name
+     *            the name of the attribute
+     * @return the value of the attribute, or <code>null</code> if there is no
+     *         such attribute
+     */
+    protected String getRootAttribute(String name) {
+        return rootAttributes.get(name);
+    }
+
+    /**
+     * Returns a string containing an XML representation of the transcoded
+     * document.
+     * 
+     * @return a string containing an XML representation of the transcoded
+     *         document
+     */
+    protected String getUpdatedXML() {
+        return xml;
+    }
+
+    /**
+     * Returns the transcoded document as a tag stream, preceded by the
+     * <code>EntryDecoder.TAG_STREAM</code> format number.
+     * 
+     * @return the tag stream, or <code>null</code> if the document was
+     *         written as XML text
+     */
+    public byte[] getTagStream() {
+        return tagStream;
     }
 
     /**
-     * Converts Beta Code to Greek characters.
+     * Returns the text content of the transcoded document, without markup.
+     * The text of adjacent elements is separated by a space.
+     * 
+     * @return the plain text of the transcoded document
+     */
+    public String getPlainText() {
+        return text.toString();
+    }
+
+    /**
+     * Converts Beta Code to Greek characters. Strings are looked up in the
+     * shared cache first, so the transcoder is only created when this parser
+     * meets a string that has not been transcoded recently.
      * 
      * @param beta
      *            the Beta Code to transcode
      * @return the Greek equivalent of the specified Beta Code
+     * @throws RuntimeException
+     *             if the transcoder fails on the specified Beta Code, so
+     *             that a lenient build can skip the document
      */
     protected String betaToGreek(String beta) {
-        String greek = null;
-        try {
-            greek = transcoder.getString(beta);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            System.exit(1);
+        String greek = CACHE.get(beta);
+        if (greek != null) {
+            return greek;
+        }
+
+        // Create a transcoder for converting Beta Code to Greek characters.
+        // A transcoder that cannot be created would fail on every document.
+        if (transcoder == null) {
+            try {
+                transcoder = createTranscoder();
+            } catch (Exception e) {
+                throw new BuildException(e);
+            }
         }
+        long start = profile.start();
+        greek = transcoder.transcode(beta);
+        profile.stop("transcode", start);
+        CACHE.put(beta, greek);
         return greek;
     }
 }
@@ -0,0 +1,86 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+
+/**
+ * Writes each row as a line of JSON, for tools that process the lexicon or
+ * the syntax text without SQLite. Each line is an object giving the row's
+ * <code>_id</code> and each of its columns by name, such as
+ * <code>{"_id": 1, "chapter": "...", "section": "...", "xml": "..."}</code>.
+ * The body is always written as XML, even in a binary build, and lines are
+ * in source order. The file is written under a temporary name and renamed
+ * when the build finishes, so it is never left incomplete.
+ * 
+ * @author Ben Linskey
+ */
+public class JsonLinesSink implements OutputSink {
+    private final File file;
+    private final File temp;
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder();
+    private int count;
+
+    /**
+     * Class constructor.
+     * 
+     * @param path
+     *            the path of the file to write
+     * @throws IOException
+     */
+    public JsonLinesSink(String path) throws IOException {
+        file = new File(path);
+        temp = new File(path + ".tmp");
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                temp), "UTF-8"), 65536);
+    }
+
+    @Override
+    public void write(OutputRecord record) throws IOException, SQLException {
+        line.setLength(0);
+        line.append("{\"_id\": ").append(record.getId());
+        int body = record.size() - 1;
+        for (int i = 0; i < body; i++) {
+            line.append(", ").append(BuildProfile.quote(record.getColumn(i)))
+                    .append(": ")
+                    .append(BuildProfile.quote((String) record.getValue(i)));
+        }
+        line.append(", ").append(BuildProfile.quote(record.getColumn(body)))
+                .append(": ").append(BuildProfile.quote(record.getXml()))
+                .append("}\n");
+        out.write(line.toString());
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file + ".");
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + ".");
+        }
+        System.out.println(count + " rows written to " + file + ".");
+    }
+}
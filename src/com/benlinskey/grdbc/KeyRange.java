@@ -0,0 +1,138 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * A range of lexicon entries, given by the first and last Beta Code words in
+ * it, such as <code>a-b</code>. Entries are compared by the letters of their
+ * <code>key</code> attributes alone, in the order of the Greek alphabet
+ * rather than that of their Beta Code letters (<code>g</code>, gamma, comes
+ * before <code>d</code>, delta, and <code>c</code>, xi, after
+ * <code>n</code>), so that breathings, accents, capital markers and sense
+ * numbers are ignored, as they are in the order of the lexicon. The range
+ * includes every key that begins with its last word: <code>a-b</code> covers all words beginning with alpha or beta.
+ * Either end may be left open, as in <code>-b</code> or <code>w-</code>; a
+ * single word, as in <code>lo/gos</code>, covers the keys beginning with it.
+ * 
+ * @author Ben Linskey
+ */
+public class KeyRange {
+    /** The Beta Code letters in the order of the Greek alphabet. */
+    private final static String ALPHABET = "abgdezhqiklmncoprstufxyw";
+
+    private final String first;
+    private final String last;
+    private final String firstOrder;
+    private final String lastOrder;
+
+    private KeyRange(String first, String last) {
+        this.first = first;
+        this.last = last;
+        firstOrder = toOrder(first);
+        lastOrder = toOrder(last);
+    }
+
+    /**
+     * Parses a range.
+     * 
+     * @param range
+     *            the range, as given on the command line
+     * @return the range, or <code>null</code> if it is invalid
+     */
+    public static KeyRange parse(String range) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            String word = toLetters(range);
+            return word.length() == 0 ? null : new KeyRange(word, word);
+        }
+        if (range.indexOf('-', dash + 1) >= 0) {
+            return null;
+        }
+        String first = toLetters(range.substring(0, dash));
+        String last = toLetters(range.substring(dash + 1));
+        if ((first.length() == 0 && last.length() == 0)
+                || (last.length() > 0 && toOrder(first).compareTo(
+                        toOrder(last)) > 0)) {
+            return null;
+        }
+        return new KeyRange(first, last);
+    }
+
+    /**
+     * Returns the letters of a Beta Code word, in lowercase.
+     * 
+     * @param beta
+     *            a word in Beta Code
+     * @return its letters, in lowercase
+     */
+    static String toLetters(String beta) {
+        StringBuilder letters = new StringBuilder(beta.length());
+        for (int i = 0; i < beta.length(); i++) {
+            char c = beta.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                letters.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                letters.append((char) (c + 'a' - 'A'));
+            }
+        }
+        return letters.toString();
+    }
+
+    /**
+     * Returns the letters of a Beta Code word in lowercase, each replaced by
+     * the character whose position in the alphabet matches its position in
+     * the Greek alphabet, so that words compare in Greek order. Letters that
+     * are not Greek sort after all of those that are.
+     * 
+     * @param beta
+     *            a word in Beta Code
+     * @return a string that compares with others in Greek order
+     */
+    static String toOrder(String beta) {
+        String letters = toLetters(beta);
+        StringBuilder order = new StringBuilder(letters.length());
+        for (int i = 0; i < letters.length(); i++) {
+            char c = letters.charAt(i);
+            int position = ALPHABET.indexOf(c);
+            order.append(position < 0 ? (char) (c + ALPHABET.length())
+                    : (char) ('a' + position));
+        }
+        return order.toString();
+    }
+
+    /**
+     * Returns true if the entry with the specified key is in this range.
+     * 
+     * @param key
+     *            the entry's <code>key</code> attribute, in Beta Code, or
+     *            <code>null</code> if it has none
+     * @return <code>true</code> if the entry is in this range
+     */
+    public boolean contains(String key) {
+        String letters = key == null ? "" : toLetters(key);
+        String order = toOrder(letters);
+        if (order.compareTo(firstOrder) < 0) {
+            return false;
+        }
+        return last.length() == 0 || order.compareTo(lastOrder) <= 0
+                || letters.startsWith(last);
+    }
+
+    @Override
+    public String toString() {
+        return first.equals(last) ? first : first + "-" + last;
+    }
+}
@@ -15,70 +15,263 @@
 
 package com.benlinskey.grdbc;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Reads in an XML file containing a Greek lexicon and stores entries in an
  * SQLite database.
+ * <p>
+ * The hash of each entry's source XML is stored in the
+ * <code>lexicon_hashes</code> table of <code>lexicon-build.db</code>, the state
+ * database next to the lexicon (see <code>BulkLoader</code>), so that the
+ * lexicon itself holds only what the app reads. In incremental mode, an
+ * existing database is updated rather than rebuilt: only entries whose hashes
+ * have changed are parsed and rewritten, new entries are added, and entries
+ * that no longer appear in the source are deleted.
+ * <p>
+ * The lexicon file is mapped into memory rather than read onto the heap. The
+ * byte offset of each entry is kept in an index next to the file (see
+ * <code>SourceIndex</code>), and each entry is hashed and handed to the parser
+ * as its slice of the mapping. A build may be restricted to a range of keys,
+ * in which case the entries in the range are rewritten whether or not they
+ * have changed, and the rest of an existing database is left as it is.
+ * <p>
+ * In a lenient build, an entry that cannot be parsed is recorded in the
+ * <code>build_errors</code> table of the state database and skipped (see
+ * <code>BuildErrors</code>). Its hash is not stored, so the next incremental
+ * build tries it again, and an earlier version of the entry already in the
+ * database is kept.
+ * <p>
+ * Every <code>grdbc.checkpointInterval</code> entries, the rows written so far
+ * are committed together with a checkpoint in the <code>metadata</code> table
+ * of the state database, which gives the byte offset and key of the last entry
+ * processed, the hash of the source, and the next free row ID. A build that
+ * resumes an interrupted one deletes any rows committed after the checkpoint
+ * and carries on from the next entry, keeping everything before it. If the
+ * source has changed since the checkpoint, every entry is checked instead, as
+ * in an incremental build. The checkpoint is removed once the build is
+ * finished.
+ * <p>
+ * By default, each row of the <code>lexicon</code> table holds an entry's
+ * search keys and the entry itself. Since most entries are larger than a
+ * page, a search that walks an index over many rows reads a page for nearly
+ * every row. With the split layout, the table holds only the keys, which are
+ * small enough that a page holds dozens of them, and the entries are stored
+ * in <code>lexicon_entries</code>, whose <code>_id</code> matches that of
+ * their keys. A search then reads only key pages, and an entry is fetched by
+ * its <code>_id</code> once it has been chosen. Both tables are in source
+ * order, which is also the alphabetical order of the headwords, so the keys
+ * of neighbouring words share pages. An existing database that is updated
+ * keeps its layout.
+ * <p>
+ * Each entry is handed to the build's output sinks in source order: the
+ * SQLite database, and any other formats requested (see
+ * <code>OutputFormat</code>). The other formats are only written by full
+ * builds, since they need every entry.
+ * <p>
+ * When profiling is enabled, a report of the time spent in each stage of the
+ * build is written to <code>lexicon-profile.json</code> (see
+ * <code>BuildProfile</code>).
  * 
  * @author Ben Linskey
  */
 public class LexiconCreator {
+    public final static String ENTRY_TABLE_NAME = "lexicon_entries";
     private final static String FILE = "../xml/Perseus_text_1999.04.0058.xml";
     private final static String DB = "lexicon.db";
+    private final static String PROFILE = "lexicon-profile.json";
     private final static String TABLE_NAME = "lexicon";
-    private Connection connection;
+    private final static String FTS_TABLE_NAME = "lexicon_fts";
+    private final static String HASH_TABLE_NAME = "lexicon_hashes";
+    private final static String HASH_TABLE = BulkLoader.STATE + "."
+            + HASH_TABLE_NAME;
+    private final static String HASH_COLUMNS = "(_id INTEGER PRIMARY KEY, "
+            + "entryKey TEXT, hash TEXT)";
+    private final static int PARTITION_BYTES = 256 * 1024;
+    private final static int QUEUED_PARTITIONS_PER_THREAD = 2;
+    private final static int CHECKPOINT_INTERVAL = Integer.getInteger(
+            "grdbc.checkpointInterval", 1000);
+    private final static String CHECKPOINT_OFFSET = "checkpointOffset";
+    private final static String CHECKPOINT_KEY = "checkpointKey";
+    private final static String CHECKPOINT_SOURCE = "checkpointSource";
+    private final static String CHECKPOINT_NEXT_ID = "checkpointNextId";
+    private final static String[] COLUMNS = { "betaNoSymbols",
+            "betaSymbols", "greekFullWord", "greekNoSymbols",
+            "greekLowercase", "searchKey", "entry" };
+    private final static String[] SEARCH_COLUMNS = { "betaNoSymbols",
+            "betaSymbols", "greekNoSymbols", "greekLowercase", "searchKey" };
+
+    // Included in every hash. Change this when a change to the parser alters
+    // the output for unchanged source text, so that incremental builds
+    // reprocess every entry.
+    private final static String HASH_VERSION = "1\n";
+
+    private final int threads;
+    private final KeyRange range;
+    private final LexiconParser parser = new LexiconParser();
+    private final Map<String, StoredEntry> storedEntries = new HashMap<String, StoredEntry>();
+    private final Set<String> seenKeys = new HashSet<String>();
+    private final List<OutputSink> sinks = new ArrayList<OutputSink>();
+    private BulkLoader loader;
+    private EntryCompressor compressor;
+    private TagDictionary tags;
+    private BuildProfile profile;
+    private BuildErrors errors;
+    private MappedXmlFile file;
+    private SourceIndex index;
+    private String[] hashKeys;
+    private boolean split;
+    private Checkpoint checkpoint;
+    private int lastCheckpoint;
     private PreparedStatement insertStatement;
+    private PreparedStatement updateStatement;
+    private PreparedStatement entryInsertStatement;
+    private PreparedStatement entryUpdateStatement;
+    private PreparedStatement ftsInsertStatement;
+    private PreparedStatement ftsUpdateStatement;
+    private PreparedStatement hashStatement;
+    private int nextId = 1;
+    private int added;
+    private int updated;
+    private int removed;
 
     /**
-     * Class constructor.
+     * Class constructor. Creates a creator with the default options.
      */
     public LexiconCreator() {
-        // Load driver.
+        this(new BuildOptions());
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param options
+     *            the options for the build; an existing database that is
+     *            updated incrementally, in a range of keys, or from a
+     *            checkpoint keeps its storage format
+     */
+    public LexiconCreator(BuildOptions options) {
+        this.threads = options.getThreads();
+        this.range = options.getRange();
+        profile = new BuildProfile(DB, options.isProfiled());
+        profile.begin();
+
+        // Connect to database.
         try {
-            Class.forName("org.sqlite.JDBC");
+            loader = new BulkLoader(DB);
+            loader.setProfile(profile);
+            loader.attachState();
         } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+        moveOldState();
+
+        boolean incremental = options.isIncremental() || range != null;
+        if (options.isResumed()) {
+            checkpoint = loadCheckpoint();
+            if (checkpoint == null) {
+                System.out.println("No checkpoint found.");
+            }
+        }
+        if (checkpoint != null && hasStoredHashes()) {
+            keepLayout(options);
+            discardUncheckpointedRows();
+            loadStoredHashes();
+        } else if (incremental && hasStoredHashes()) {
+            checkpoint = null;
+            keepLayout(options);
+            loadStoredHashes();
+        } else {
+            checkpoint = null;
+            if (incremental) {
+                System.out.println("No entry hashes found; rebuilding.");
+            }
+            split = options.isSplit();
+            createDatabase();
         }
 
-        // Connect to database.
         try {
-            connection = DriverManager.getConnection("jdbc:sqlite:" + DB);
+            errors = new BuildErrors(loader, DB, options);
+            if (checkpoint != null) {
+                errors.resume(checkpoint.offset);
+            } else {
+                errors.reset();
+            }
+            EntryCompressor c = new EntryCompressor(loader);
+            if (options.isCompressed() || c.hasDictionary()) {
+                compressor = c;
+            }
+            Object names = Metadata.get(loader.getConnection(), Metadata.TAGS);
+            if (names != null) {
+                tags = new TagDictionary(names.toString());
+            } else if (options.isBinary()) {
+                tags = new TagDictionary();
+            }
+            parser.setTagDictionary(tags);
+            parser.setProfile(profile);
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
         }
 
-        // Use batch inserts for speed.
+        // Create prepared statements to use when writing entries. The insert
+        // and update statements take their parameters in the same order.
         try {
-            connection.setAutoCommit(false);
+            String columns = "betaNoSymbols, betaSymbols, greekFullWord, "
+                    + "greekNoSymbols, greekLowercase, searchKey"
+                    + (split ? "" : ", entry");
+            insertStatement = loader.prepareInsert("INSERT INTO "
+                    + TABLE_NAME + " (" + columns + ", _id) VALUES ("
+                    + columns.replaceAll("\\w+", "?") + ", ?)");
+            updateStatement = loader.prepareInsert("UPDATE " + TABLE_NAME
+                    + " SET " + columns.replace(",", " = ?,")
+                    + " = ? WHERE _id = ?");
+            if (split) {
+                entryInsertStatement = loader.prepareInsert("INSERT INTO "
+                        + ENTRY_TABLE_NAME + " (entry, _id) VALUES (?, ?)");
+                entryUpdateStatement = loader.prepareInsert("UPDATE "
+                        + ENTRY_TABLE_NAME + " SET entry = ? WHERE _id = ?");
+            }
+            ftsInsertStatement = loader.prepareInsert("INSERT INTO "
+                    + FTS_TABLE_NAME + " (text, docid) VALUES (?, ?)");
+            ftsUpdateStatement = loader.prepareInsert("UPDATE "
+                    + FTS_TABLE_NAME + " SET text = ? WHERE docid = ?");
+            hashStatement = loader.prepareInsert("INSERT OR REPLACE INTO "
+                    + HASH_TABLE + " (entryKey, hash, _id) VALUES (?, ?, ?)");
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
         }
 
-        createDatabase();
-
-        // Create a prepared statement to use when inserting entries.
+        sinks.add(new DatabaseSink());
         try {
-            insertStatement = connection.prepareStatement("INSERT INTO "
-                    + TABLE_NAME + " VALUES (NULL, ?, ?, ?, ?, ?, ?)");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            for (OutputFormat format : options.getOutputs()) {
+                sinks.add(format.open(format.getPath(DB)));
+            }
+        } catch (IOException e) {
+            throw new BuildException(e);
         }
     }
 
@@ -86,15 +279,54 @@ public class LexiconCreator {
      * Creates the lexicon database.
      */
     public void run() {
-        addEntries();
+        openSource();
+        if (range != null) {
+            System.out.println("Rebuilding entries " + range + " only.");
+        }
+        int first = findResumePosition();
+        if (threads > 1) {
+            addEntriesInParallel(first);
+        } else {
+            addEntries(first);
+        }
+        long start = profile.start();
+        removeMissingEntries();
+        profile.stop("delete", start);
+        start = profile.start();
+        closeSinks();
+        profile.stop("output", start);
+        System.out.println(added + " entries added, " + updated + " updated, "
+                + removed + " removed.");
+        errors.printSummary();
+        start = profile.start();
         createIndex();
+        profile.stop("index", start);
         try {
-            insertStatement.close();
-            connection.close();
+            start = profile.start();
+            new PrefixIndex(loader).build(TABLE_NAME, "searchKey");
+            profile.stop("prefixes", start);
+            if (tags != null) {
+                Metadata.put(loader, Metadata.TAGS, tags.encode());
+            }
+            if (compressor != null) {
+                start = profile.start();
+                compressor.compress(split ? ENTRY_TABLE_NAME : TABLE_NAME,
+                        "entry");
+                profile.stop("compress", start);
+            }
+            Metadata.remove(loader, BulkLoader.STATE, CHECKPOINT_OFFSET,
+                    CHECKPOINT_KEY, CHECKPOINT_SOURCE, CHECKPOINT_NEXT_ID);
+            start = profile.start();
+            loader.close();
+            profile.stop("optimize", start);
+            profile.end();
+            profile.writeReport(PROFILE);
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (IOException e) {
+            throw new BuildException(e);
         }
+        System.out.println(GreekTextParser.getTranscodingCache());
         System.out.println("Done.");
     }
 
@@ -112,106 +344,769 @@ public class LexiconCreator {
                     + "betaSymbols 	VARCHAR(100), "
                     + "greekFullWord 	VARCHAR(100), "
                     + "greekNoSymbols 	VARCHAR(100), "
-                    + "greekLowercase VARCHAR(100), " + "entry			TEXT)";
-            Statement statement = connection.createStatement();
-            statement.executeUpdate(dropTable);
-            statement.executeUpdate(createTable);
-            connection.commit();
+                    + "greekLowercase VARCHAR(100), "
+                    + "searchKey 		VARCHAR(100)"
+                    + (split ? ")" : ", entry			TEXT)");
+            String dropEntryTable = "DROP TABLE IF EXISTS "
+                    + ENTRY_TABLE_NAME;
+
+            // The full-text index holds the normalized text of each entry,
+            // keyed by the entry's _id.
+            String dropFtsTable = "DROP TABLE IF EXISTS " + FTS_TABLE_NAME;
+            String createFtsTable = "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME
+                    + " USING fts4(text, tokenize=simple)";
+            // The hash of each entry's source, along with the key that
+            // identifies the entry across builds.
+            String dropHashTable = "DROP TABLE IF EXISTS " + HASH_TABLE;
+            String createHashTable = "CREATE TABLE " + HASH_TABLE + " "
+                    + HASH_COLUMNS;
+            // A new database is compressed with a newly trained dictionary,
+            // and its tag streams use newly numbered tags. Any checkpoint
+            // belongs to an earlier build.
+            String dropMetadataTable = "DROP TABLE IF EXISTS "
+                    + Metadata.TABLE_NAME;
+            String dropCheckpoint = "DROP TABLE IF EXISTS " + BulkLoader.STATE
+                    + "." + Metadata.TABLE_NAME;
+            loader.execute(dropTable, createTable, dropEntryTable,
+                    dropFtsTable, createFtsTable, dropHashTable,
+                    createHashTable, dropMetadataTable, dropCheckpoint);
+            // In the split layout, the entries are kept apart from the keys.
+            if (split) {
+                loader.execute("CREATE TABLE " + ENTRY_TABLE_NAME
+                        + " (_id INTEGER PRIMARY KEY, entry TEXT)");
+            }
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Returns true if the database already contains entry hashes from a
+     * previous build, and its lexicon table has every current column.
+     * 
+     * @return <code>true</code> if the database can be updated incrementally
+     */
+    private boolean hasStoredHashes() {
+        try {
+            boolean found = hasTable(BulkLoader.STATE, HASH_TABLE_NAME);
+
+            // Databases built before search keys were added must be rebuilt.
+            // The pragma returns no result set at all for a missing table.
+            Statement statement = loader.getConnection().createStatement();
+            boolean current = false;
+            if (found) {
+                ResultSet rs = statement.executeQuery("PRAGMA table_info("
+                        + TABLE_NAME + ")");
+                while (rs.next()) {
+                    current |= rs.getString("name").equals("searchKey");
+                }
+                rs.close();
+            }
             statement.close();
+            return found && current;
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Returns true if an attached database contains the specified table.
+     * 
+     * @param schema
+     *            the name of the attached database, such as
+     *            <code>main</code>
+     * @param name
+     *            the name of the table
+     * @return <code>true</code> if the table exists
+     * @throws SQLException
+     */
+    private boolean hasTable(String schema, String name) throws SQLException {
+        Statement statement = loader.getConnection().createStatement();
+        ResultSet rs = statement.executeQuery("SELECT name FROM " + schema
+                + ".sqlite_master WHERE type = 'table' AND name = '" + name
+                + "'");
+        boolean found = rs.next();
+        rs.close();
+        statement.close();
+        return found;
+    }
+
+    /**
+     * Moves the entry hashes of a database built when they were kept in the
+     * database itself into its state database, so that it can still be
+     * updated incrementally, and drops the rest of the build state it holds.
+     */
+    private void moveOldState() {
+        try {
+            if (hasTable("main", HASH_TABLE_NAME)) {
+                if (!hasTable(BulkLoader.STATE, HASH_TABLE_NAME)) {
+                    loader.execute("CREATE TABLE " + HASH_TABLE + " "
+                            + HASH_COLUMNS, "INSERT INTO " + HASH_TABLE
+                            + " SELECT _id, entryKey, hash FROM main."
+                            + HASH_TABLE_NAME);
+                }
+                loader.execute("DROP TABLE main." + HASH_TABLE_NAME);
+            }
+            loader.execute("DROP TABLE IF EXISTS main."
+                    + BuildErrors.TABLE_NAME);
+            Metadata.remove(loader, "main", CHECKPOINT_OFFSET,
+                    CHECKPOINT_KEY, CHECKPOINT_SOURCE, CHECKPOINT_NEXT_ID);
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Uses the layout of the existing database, which is being updated.
+     * 
+     * @param options
+     *            the options for the build
+     */
+    private void keepLayout(BuildOptions options) {
+        try {
+            split = hasTable("main", ENTRY_TABLE_NAME);
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+        if (options.isSplit() && !split) {
+            System.out.println("Keeping the existing layout; run a full "
+                    + "build to split the lexicon table.");
+        }
+    }
+
+    /**
+     * Loads the entry hashes from a previous build, so that only changed
+     * entries are processed.
+     */
+    private void loadStoredHashes() {
+        System.out.println("Loading entry hashes...");
+        try {
+            Statement statement = loader.getConnection().createStatement();
+            ResultSet rs = statement.executeQuery("SELECT entryKey, hash, "
+                    + "_id FROM " + HASH_TABLE);
+            while (rs.next()) {
+                storedEntries.put(rs.getString(1), new StoredEntry(
+                        rs.getString(2), rs.getInt(3)));
+            }
+            rs.close();
+
+            rs = statement.executeQuery("SELECT MAX(_id) FROM " + TABLE_NAME);
+            if (rs.next()) {
+                nextId = rs.getInt(1) + 1;
+            }
+            rs.close();
+            statement.close();
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Loads the checkpoint left by an interrupted build, if there is one.
+     * 
+     * @return the checkpoint, or <code>null</code> if there is none
+     */
+    private Checkpoint loadCheckpoint() {
+        try {
+            Connection connection = loader.getConnection();
+            String state = BulkLoader.STATE;
+            Object offset = Metadata.get(connection, state, CHECKPOINT_OFFSET);
+            if (offset == null) {
+                return null;
+            }
+            return new Checkpoint(((Number) offset).intValue(), Metadata.get(
+                    connection, state, CHECKPOINT_KEY).toString(),
+                    Metadata.get(connection, state, CHECKPOINT_SOURCE)
+                            .toString(), ((Number) Metadata.get(connection,
+                            state, CHECKPOINT_NEXT_ID)).intValue());
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Deletes the rows that an interrupted build committed after its last
+     * checkpoint, which will be written again.
+     */
+    private void discardUncheckpointedRows() {
+        System.out.println("Resuming from checkpoint...");
+        try {
+            loader.execute("DELETE FROM " + TABLE_NAME + " WHERE _id >= "
+                    + checkpoint.nextId, "DELETE FROM " + FTS_TABLE_NAME
+                    + " WHERE docid >= " + checkpoint.nextId, "DELETE FROM "
+                    + HASH_TABLE + " WHERE _id >= " + checkpoint.nextId);
+            if (split) {
+                loader.execute("DELETE FROM " + ENTRY_TABLE_NAME
+                        + " WHERE _id >= " + checkpoint.nextId);
+            }
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Returns the position of the first entry to process: the entry after
+     * the checkpoint, if the build is resumed and the source has not changed
+     * since, or otherwise the first entry.
+     * 
+     * @return the position of the first entry to process
+     */
+    private int findResumePosition() {
+        if (checkpoint == null) {
+            return 0;
+        }
+        int i = index.find(checkpoint.offset);
+        if (i < 0 || !hashKeys[i].equals(checkpoint.key)
+                || !index.getHash().equals(checkpoint.source)) {
+            System.out.println("The source has changed since the checkpoint;"
+                    + " checking every entry.");
+            return 0;
+        }
+        System.out.println("Resuming after entry " + checkpoint.key
+                + " at byte " + checkpoint.offset + ".");
+        lastCheckpoint = i + 1;
+        return i + 1;
+    }
+
+    /**
+     * Commits the rows written so far together with a checkpoint recording
+     * that every entry before the specified position has been processed.
+     * 
+     * @param end
+     *            the position after the last entry processed
+     * @throws SQLException
+     */
+    private void checkpoint(int end) throws SQLException {
+        long start = profile.start();
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put(CHECKPOINT_OFFSET, index.getOffset(end - 1));
+        values.put(CHECKPOINT_KEY, hashKeys[end - 1]);
+        values.put(CHECKPOINT_SOURCE, index.getHash());
+        values.put(CHECKPOINT_NEXT_ID, nextId);
+        // Tag numbers are assigned as entries are parsed, so the rows
+        // written so far can only be read with the names as they are now.
+        // The names are saved first: if the build stops before the
+        // checkpoint is, the extra names are harmless.
+        if (tags != null) {
+            Metadata.put(loader, Metadata.TAGS, tags.encode());
+        }
+        Metadata.put(loader, BulkLoader.STATE, values);
+        lastCheckpoint = end;
+        profile.stop("checkpoint", start);
+    }
+
+    /**
+     * Maps the lexicon file, loads the index of its entries, and works out the
+     * key under which the hash of each entry is stored.
+     */
+    private void openSource() {
+        long start = profile.start();
+        try {
+            file = new MappedXmlFile(FILE);
+            index = SourceIndex.open(file, "entry", "key");
+        } catch (FileNotFoundException e) {
+            throw new BuildException("Lexicon file not found.");
+        } catch (IOException e) {
+            throw new BuildException(e);
+        } catch (XMLStreamException e) {
+            throw new BuildException(e);
+        }
+
+        hashKeys = new String[index.size()];
+        Map<String, Integer> keyCounts = new HashMap<String, Integer>();
+        for (int i = 0; i < index.size(); i++) {
+            hashKeys[i] = nextHashKey(index.getValue(i), keyCounts);
+            seenKeys.add(hashKeys[i]);
         }
+        profile.stop("scan", start);
     }
 
     /**
      * Parses the XML file, modifies the lexicon entries, and inserts the
      * modified entries into the database.
+     * 
+     * @param first
+     *            the position of the first entry to process
      */
-    private void addEntries() {
+    private void addEntries(int first) {
         System.out.println("Inserting entries...");
 
         try {
-            BufferedReader in = new BufferedReader(new FileReader(FILE));
-            StringBuilder xml = new StringBuilder();
-
-            // Extract the XML for each lexicon entry, then process it.
-            while (in.ready()) {
-                String line = in.readLine();
-                if (line.startsWith("<entry ")) {
-                    xml.delete(0, xml.length()); // Reset XML.
-                    xml.append(line); // Add this line to new chunk of XML.
-                } else if (line.startsWith("</entry>")) {
-                    xml.append(line);
-                    processEntry(xml.toString());
-                } else {
-                    xml.append(line);
+            // With no earlier build to compare against, every entry is
+            // parsed, and it is cheaper to parse them all with a single
+            // reader that is kept in step with the index than to start a new
+            // reader for each entry.
+            TeiReader stream = null;
+            if (storedEntries.isEmpty() && range == null && first == 0) {
+                stream = new TeiReader(file);
+            }
+            for (int i = first; i < index.size(); i++) {
+                if (i - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                    checkpoint(i);
+                }
+                if (!isSelected(i)) {
+                    continue;
+                }
+                long start = profile.start();
+                ByteBuffer xml = index.getSlice(i);
+                String hash = hash(xml);
+                if (!isChanged(hashKeys[i], hash)) {
+                    continue;
                 }
+                String stage = "parse";
+                LexiconEntry entry;
+                try {
+                    if (stream != null) {
+                        if (!stream.nextElement("entry")
+                                || !equal(stream.getAttribute("key"),
+                                        index.getValue(i))) {
+                            throw new XMLStreamException("Entry at byte "
+                                    + index.getOffset(i)
+                                    + " not found by parser.");
+                        }
+                        parser.parse(stream.getStreamReader());
+                    } else {
+                        parser.parse(xml);
+                    }
+                    stage = "keys";
+                    entry = createEntry(parser, hashKeys[i], hash);
+                } catch (Exception e) {
+                    // A reader cannot find its place again after an error,
+                    // so the rest of the entries are parsed one at a time.
+                    if (stage.equals("parse")) {
+                        stream = null;
+                    }
+                    errors.record(stage, hashKeys[i], index.getOffset(i), xml,
+                            e);
+                    errors.write();
+                    continue;
+                }
+                profile.item(hashKeys[i], start);
+                writeEntry(entry);
+            }
+            if (stream != null) {
+                stream.close();
             }
-            in.close();
 
-            insertStatement.executeBatch();
-            connection.commit();
-        } catch (FileNotFoundException e) {
-            System.err.println("Error: Lexicon file not found.");
-            System.exit(1);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            if (index.size() > 0) {
+                checkpoint(index.size());
+            }
+        } catch (XMLStreamException e) {
+            throw new BuildException(e);
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Processes the lexicon entries on a pool of worker threads. The entries
+     * are divided into partitions of about <code>PARTITION_BYTES</code> of
+     * source each, which the workers hash, parse and transcode, while this
+     * thread inserts the results into the database in their original order.
+     * 
+     * @param first
+     *            the position of the first entry to process
+     */
+    private void addEntriesInParallel(int first) {
+        System.out.println("Inserting entries using " + threads
+                + " threads...");
+
+        // Each worker reuses its own parser, since a transcoder must not be
+        // shared between threads. Only a few partitions are queued for each
+        // thread, which limits how far the workers can get ahead of the
+        // database.
+        final ThreadLocal<LexiconParser> parsers = new ThreadLocal<LexiconParser>() {
+            @Override
+            protected LexiconParser initialValue() {
+                LexiconParser parser = new LexiconParser();
+                parser.setTagDictionary(tags);
+                parser.setProfile(profile);
+                return parser;
+            }
+        };
+        int[] partitions = index.partition(first, Math.max(threads,
+                file.size() / PARTITION_BYTES));
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<List<LexiconEntry>>> pending = new LinkedList<Future<List<LexiconEntry>>>();
+        int queued = threads * QUEUED_PARTITIONS_PER_THREAD;
+        int next = 0;
+        int done = 0;
+
+        try {
+            while (next < partitions.length - 1 || !pending.isEmpty()) {
+                if (next < partitions.length - 1 && pending.size() < queued) {
+                    pending.add(workers.submit(processPartition(
+                            partitions[next], partitions[next + 1], parsers)));
+                    next++;
+                    continue;
+                }
+                for (LexiconEntry entry : pending.removeFirst().get()) {
+                    writeEntry(entry);
+                }
+                errors.write();
+                done++;
+                if (partitions[done] - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                    checkpoint(partitions[done]);
+                }
+            }
+            if (index.size() > 0) {
+                checkpoint(index.size());
+            }
+        } catch (InterruptedException e) {
+            throw new BuildException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BuildException) {
+                throw (BuildException) e.getCause();
+            }
+            throw new BuildException(e.getCause());
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        } finally {
+            // Stop the workers if an entry has failed.
+            workers.shutdownNow();
         }
     }
 
     /**
-     * Modifies the specified entry and inserts it into the database.
+     * Returns a task that processes each changed entry in a partition.
+     * 
+     * @param from
+     *            the position of the first entry in the partition
+     * @param to
+     *            the position after the last entry in the partition
+     * @param parsers
+     *            the parser of each worker thread
+     * @return a task returning the changed entries that could be processed,
+     *         in source order
+     */
+    private Callable<List<LexiconEntry>> processPartition(final int from,
+            final int to, final ThreadLocal<LexiconParser> parsers) {
+        return new Callable<List<LexiconEntry>>() {
+            @Override
+            public List<LexiconEntry> call() {
+                LexiconParser parser = parsers.get();
+                List<LexiconEntry> entries = new ArrayList<LexiconEntry>();
+                for (int i = from; i < to; i++) {
+                    if (!isSelected(i)) {
+                        continue;
+                    }
+                    long start = profile.start();
+                    ByteBuffer xml = index.getSlice(i);
+                    String hash = hash(xml);
+                    if (!isChanged(hashKeys[i], hash)) {
+                        continue;
+                    }
+                    String stage = "parse";
+                    try {
+                        parser.parse(xml);
+                        stage = "keys";
+                        entries.add(createEntry(parser, hashKeys[i], hash));
+                    } catch (Exception e) {
+                        errors.record(stage, hashKeys[i], index.getOffset(i),
+                                xml, e);
+                        continue;
+                    }
+                    profile.item(hashKeys[i], start);
+                }
+                return entries;
+            }
+        };
+    }
+
+    /**
+     * Returns the hash of an entry's source XML.
      * 
      * @param xml
-     *            the XML containing the entry to process
-     */
-    private void processEntry(String xml) {
-        try {
-            LexiconParser parser = new LexiconParser(xml);
-            insertStatement.setString(1, parser.getBetaNoSymbols());
-            insertStatement.setString(2, parser.getBetaSymbols());
-            insertStatement.setString(3, parser.getGreekFullWord());
-            insertStatement.setString(4, parser.getGreekNoSymbols());
-            insertStatement.setString(5, parser.getGreekLowercase());
-            insertStatement.setString(6, parser.getEntry());
-            insertStatement.addBatch();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-            System.exit(1);
-        } catch (SAXException e) {
-            e.printStackTrace();
-            System.exit(1);
+     *            the bytes of the entry in the source file
+     * @return the hash
+     */
+    private String hash(ByteBuffer xml) {
+        long start = profile.start();
+        String hash = ContentHash.of(HASH_VERSION, xml);
+        profile.stop("hash", start);
+        return hash;
+    }
+
+    /**
+     * Extracts the column values of the entry held by the specified parser.
+     * 
+     * @param parser
+     *            a parser containing the entry
+     * @param key
+     *            the key under which the hash of the entry is stored
+     * @param hash
+     *            the hash of the entry's source XML
+     * @return the entry
+     */
+    private LexiconEntry createEntry(LexiconParser parser, String key,
+            String hash) {
+        long start = profile.start();
+        LexiconEntry entry = new LexiconEntry(parser, key, hash);
+        profile.stop("keys", start);
+        return entry;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the key under which the hash of an entry is stored. This is the
+     * entry's <code>key</code> attribute, followed by a number if the same key
+     * has already appeared in the file.
+     * 
+     * @param key
+     *            the entry's <code>key</code> attribute
+     * @param keyCounts
+     *            the number of times each key has appeared so far
+     * @return a key unique to the entry
+     */
+    private static String nextHashKey(String key,
+            Map<String, Integer> keyCounts) {
+        if (key == null) {
+            key = "";
+        }
+        Integer count = keyCounts.get(key);
+        count = count == null ? 1 : count + 1;
+        keyCounts.put(key, count);
+        return count == 1 ? key : key + "#" + count;
+    }
+
+    /**
+     * Returns true if the entry at the specified position is in the range of
+     * keys being built.
+     * 
+     * @param i
+     *            the position of the entry in the source
+     * @return <code>true</code> if the entry may be written to the database
+     */
+    private boolean isSelected(int i) {
+        return range == null || range.contains(index.getValue(i));
+    }
+
+    /**
+     * Returns true if the specified entry must be written to the database.
+     * Every entry in a range of keys is rewritten.
+     * 
+     * @param key
+     *            the key under which the entry's hash is stored
+     * @param hash
+     *            the hash of the entry's source XML
+     * @return <code>true</code> if the entry is new or has changed
+     */
+    private boolean isChanged(String key, String hash) {
+        if (range != null) {
+            return true;
+        }
+        StoredEntry stored = storedEntries.get(key);
+        return stored == null || !stored.hash.equals(hash);
+    }
+
+    /**
+     * Adds the specified entry to the current batch of inserts, or of updates
+     * if an earlier version of the entry is already in the database.
+     * 
+     * @param entry
+     *            the entry to write
+     */
+    private void writeEntry(LexiconEntry entry) {
+        long start = profile.start();
+        StoredEntry stored = storedEntries.get(entry.getHashKey());
+        int id;
+        if (stored == null) {
+            id = nextId++;
+            added++;
+        } else {
+            id = stored.id;
+            updated++;
+        }
+        OutputRecord record = new OutputRecord(id, stored != null,
+                entry.getSearchKey(), COLUMNS, new Object[] {
+                        entry.getBetaNoSymbols(), entry.getBetaSymbols(),
+                        entry.getGreekFullWord(), entry.getGreekNoSymbols(),
+                        entry.getGreekLowercase(), entry.getSearchKey(),
+                        entry.getTagStream() != null ? entry.getTagStream()
+                                : entry.getEntry() }, entry.getSearchText(),
+                tags);
+
+        try {
+            for (OutputSink sink : sinks) {
+                sink.write(record);
+            }
+
+            hashStatement.setString(1, entry.getHashKey());
+            hashStatement.setString(2, entry.getHash());
+            hashStatement.setInt(3, id);
+            loader.addRow(hashStatement);
+        } catch (SQLException e) {
+            throw new BuildException(e);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        }
+        profile.stop("insert", start);
+    }
+
+    /**
+     * Finishes every output sink.
+     */
+    private void closeSinks() {
+        try {
+            for (OutputSink sink : sinks) {
+                sink.close();
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (IOException e) {
+            throw new BuildException(e);
         }
     }
 
     /**
-     * Creates an index on the database to speed up searches.
+     * Deletes the entries from a previous build that no longer appear in the
+     * source, or, in a build of a range of keys, the entries in the range
+     * that no longer appear.
+     */
+    private void removeMissingEntries() {
+        try {
+            PreparedStatement delete = loader.prepareInsert("DELETE FROM "
+                    + TABLE_NAME + " WHERE _id = ?");
+            PreparedStatement ftsDelete = loader.prepareInsert("DELETE FROM "
+                    + FTS_TABLE_NAME + " WHERE docid = ?");
+            PreparedStatement hashDelete = loader.prepareInsert("DELETE FROM "
+                    + HASH_TABLE + " WHERE _id = ?");
+            PreparedStatement entryDelete = split ? loader
+                    .prepareInsert("DELETE FROM " + ENTRY_TABLE_NAME
+                            + " WHERE _id = ?") : null;
+            for (Map.Entry<String, StoredEntry> e : storedEntries.entrySet()) {
+                // The number that distinguishes entries with the same key has
+                // no letters, so the range ignores it.
+                if (seenKeys.contains(e.getKey())
+                        || (range != null && !range.contains(e.getKey()))) {
+                    continue;
+                }
+                int id = e.getValue().id;
+                for (PreparedStatement statement : new PreparedStatement[] {
+                        delete, ftsDelete, hashDelete, entryDelete }) {
+                    if (statement != null) {
+                        statement.setInt(1, id);
+                        loader.addRow(statement);
+                    }
+                }
+                removed++;
+            }
+            loader.flush();
+        } catch (SQLException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Creates indexes on the database to speed up searches.
      */
     private void createIndex() {
         System.out.println("Creating index...");
 
-        // Create an index on the three columns matched against search queries.
-        String sql = "CREATE INDEX searchIndex ON " + TABLE_NAME
-                + " (betaNoSymbols, betaSymbols, greekNoSymbols, "
-                + "greekLowercase)";
+        // Create a separate index on each column matched against search
+        // queries, so that each can serve exact and prefix (range) lookups.
+        // Earlier builds had a single index on all of them, which only helped
+        // queries on its first column.
         try {
-            Statement statement = connection.createStatement();
-            statement.executeUpdate(sql);
-            statement.close();
-            connection.commit();
+            loader.execute("DROP INDEX IF EXISTS searchIndex");
+            for (String column : SEARCH_COLUMNS) {
+                loader.execute("CREATE INDEX IF NOT EXISTS " + column
+                        + "Index ON " + TABLE_NAME + " (" + column + ")");
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        // Merge the full-text index into a single b-tree.
+        try {
+            loader.execute("INSERT INTO " + FTS_TABLE_NAME + " ("
+                    + FTS_TABLE_NAME + ") VALUES ('optimize')");
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Writes entries to the lexicon table and its full-text index, in the
+     * layout of the database being built.
+     */
+    private class DatabaseSink implements OutputSink {
+        @Override
+        public void write(OutputRecord record) throws SQLException {
+            PreparedStatement statement;
+            PreparedStatement entryStatement;
+            PreparedStatement ftsStatement;
+            if (record.isUpdate()) {
+                statement = updateStatement;
+                entryStatement = entryUpdateStatement;
+                ftsStatement = ftsUpdateStatement;
+            } else {
+                statement = insertStatement;
+                entryStatement = entryInsertStatement;
+                ftsStatement = ftsInsertStatement;
+            }
+
+            int body = record.size() - 1;
+            for (int i = 0; i < body; i++) {
+                statement.setString(i + 1, (String) record.getValue(i));
+            }
+            int column = body + 1;
+            if (split) {
+                statement.setInt(column, record.getId());
+                loader.addRow(statement);
+                statement = entryStatement;
+                column = 1;
+            }
+            Object value = record.getValue(body);
+            if (value instanceof byte[]) {
+                statement.setBytes(column, (byte[]) value);
+            } else {
+                statement.setString(column, (String) value);
+            }
+            statement.setInt(column + 1, record.getId());
+            loader.addRow(statement);
+
+            ftsStatement.setString(1, record.getSearchText());
+            ftsStatement.setInt(2, record.getId());
+            loader.addRow(ftsStatement);
+        }
+
+        @Override
+        public void close() {
+            // The database is indexed and closed once the build is finished.
+        }
+    }
+
+    /**
+     * The last entry processed by an interrupted build.
+     */
+    private static class Checkpoint {
+        final int offset;
+        final String key;
+        final String source;
+        final int nextId;
+
+        Checkpoint(int offset, String key, String source, int nextId) {
+            this.offset = offset;
+            this.key = key;
+            this.source = source;
+            this.nextId = nextId;
+        }
+    }
+
+    /**
+     * The hash and row ID of an entry from a previous build.
+     */
+    private static class StoredEntry {
+        final String hash;
+        final int id;
+
+        StoredEntry(String hash, int id) {
+            this.hash = hash;
+            this.id = id;
+        }
+    }
 }
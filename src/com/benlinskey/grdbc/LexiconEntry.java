@@ -0,0 +1,138 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+/**
+ * Holds the column values of a single processed lexicon entry, ready to be
+ * inserted into the database.
+ * 
+ * @author Ben Linskey
+ */
+public class LexiconEntry {
+    private final String betaNoSymbols;
+    private final String betaSymbols;
+    private final String greekFullWord;
+    private final String greekNoSymbols;
+    private final String greekLowercase;
+    private final String searchKey;
+    private final String entry;
+    private final byte[] tagStream;
+    private final String searchText;
+    private final String hashKey;
+    private final String hash;
+
+    /**
+     * Class constructor. Extracts all column values from the specified parser.
+     * 
+     * @param parser
+     *            a parser containing the entry
+     * @param hashKey
+     *            the key under which the hash of the entry's source is stored
+     * @param hash
+     *            the hash of the entry's source XML
+     */
+    public LexiconEntry(LexiconParser parser, String hashKey, String hash) {
+        this.hashKey = hashKey;
+        this.hash = hash;
+        betaNoSymbols = parser.getBetaNoSymbols();
+        betaSymbols = parser.getBetaSymbols();
+        greekFullWord = parser.getGreekFullWord();
+        greekNoSymbols = parser.getGreekNoSymbols();
+        greekLowercase = parser.getGreekLowercase();
+        searchKey = parser.getSearchKey();
+        entry = parser.getEntry();
+        tagStream = parser.getTagStream();
+        searchText = SearchText.normalize(parser.getPlainText());
+    }
+
+    /**
+     * @return the betaNoSymbols
+     */
+    public String getBetaNoSymbols() {
+        return betaNoSymbols;
+    }
+
+    /**
+     * @return the betaSymbols
+     */
+    public String getBetaSymbols() {
+        return betaSymbols;
+    }
+
+    /**
+     * @return the greekFullWord
+     */
+    public String getGreekFullWord() {
+        return greekFullWord;
+    }
+
+    /**
+     * @return the greekNoSymbols
+     */
+    public String getGreekNoSymbols() {
+        return greekNoSymbols;
+    }
+
+    /**
+     * @return the greekLowercase
+     */
+    public String getGreekLowercase() {
+        return greekLowercase;
+    }
+
+    /**
+     * @return the searchKey
+     */
+    public String getSearchKey() {
+        return searchKey;
+    }
+
+    /**
+     * @return the entry
+     */
+    public String getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return the entry as a tag stream, or <code>null</code> if it was
+     *         written as XML text
+     */
+    public byte[] getTagStream() {
+        return tagStream;
+    }
+
+    /**
+     * @return the normalized plain text of the entry, for full-text search
+     */
+    public String getSearchText() {
+        return searchText;
+    }
+
+    /**
+     * @return the key under which the hash of the entry's source is stored
+     */
+    public String getHashKey() {
+        return hashKey;
+    }
+
+    /**
+     * @return the hash of the entry's source XML
+     */
+    public String getHash() {
+        return hash;
+    }
+}
@@ -15,12 +15,8 @@
 
 package com.benlinskey.grdbc;
 
-import java.io.IOException;
-
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * This class provides methods to parse a chunk of XML containing a lexicon
@@ -30,18 +26,122 @@ import org.xml.sax.SAXException;
  * @author Ben Linskey
  */
 public class LexiconParser extends GreekTextParser {
+    private final static String[] GREEK_ELEMENTS = { "orth", "ref",
+            "foreign", "note" };
+
+    // The keys of the current entry, derived together on first use.
+    private final StringBuilder letters = new StringBuilder();
+    private final StringBuilder lettersAndCapitals = new StringBuilder();
+    private boolean keysDerived;
+    private String betaNoSymbols;
+    private String betaSymbols;
+    private String greekFullWord;
+    private String greekNoSymbols;
+    private String greekLowercase;
+    private String searchKey;
+
+    /**
+     * Class constructor. Creates a parser with no entry; call one of the
+     * <code>parse</code> methods to parse an entry.
+     */
+    public LexiconParser() {
+        super();
+    }
+
     /**
      * Class constructor.
      * 
      * @param xml
      *            the XML to parse
-     * @throws ParserConfigurationException
-     * @throws SAXException
-     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public LexiconParser(String xml) throws XMLStreamException {
+        super();
+        parse(xml);
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param reader
+     *            a reader positioned at the start tag of the entry to parse;
+     *            when the constructor returns, the reader is positioned at the
+     *            entry's end tag
+     * @throws XMLStreamException
      */
-    public LexiconParser(String xml) throws ParserConfigurationException,
-            SAXException, IOException {
-        super(xml);
+    public LexiconParser(XMLStreamReader reader) throws XMLStreamException {
+        super();
+        parse(reader);
+    }
+
+    @Override
+    protected String[] getGreekElements() {
+        return GREEK_ELEMENTS;
+    }
+
+    /**
+     * Converts the value of the entry element's "key" attribute from Beta Code
+     * to Greek.
+     */
+    @Override
+    protected String getRootAttributeValue(String name, String value) {
+        if (name.equals("key")) {
+            // This is the entry's word in Greek; keep it for the key columns.
+            greekFullWord = betaToGreek(value);
+            return greekFullWord;
+        }
+        return value;
+    }
+
+    @Override
+    protected void startDocument() throws XMLStreamException {
+        super.startDocument();
+        keysDerived = false;
+        greekFullWord = null;
+    }
+
+    /**
+     * Derives all of the entry's keys from its "key" attribute, the first
+     * time any of them is requested. The attribute is read once and filtered
+     * in a single pass, and each distinct string is transcoded only once.
+     */
+    private void deriveKeys() {
+        if (keysDerived) {
+            return;
+        }
+        keysDerived = true;
+
+        betaSymbols = getRootAttribute("key");
+        if (betaSymbols == null) {
+            betaNoSymbols = greekNoSymbols = greekLowercase = searchKey = null;
+            return;
+        }
+
+        // Keep only ASCII letters, and separately ASCII letters and the
+        // capital letter marker.
+        letters.setLength(0);
+        lettersAndCapitals.setLength(0);
+        for (int i = 0; i < betaSymbols.length(); i++) {
+            char c = betaSymbols.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                letters.append(c);
+                lettersAndCapitals.append(c);
+            } else if (c == '*') {
+                lettersAndCapitals.append(c);
+            }
+        }
+        betaNoSymbols = letters.toString();
+
+        if (greekFullWord == null) {
+            greekFullWord = betaToGreek(betaSymbols);
+        }
+        if (lettersAndCapitals.length() == betaSymbols.length()) {
+            greekNoSymbols = greekFullWord;
+        } else {
+            greekNoSymbols = betaToGreek(lettersAndCapitals.toString());
+        }
+        greekLowercase = greekNoSymbols.toLowerCase();
+        searchKey = SearchText.toKey(greekFullWord);
     }
 
     /**
@@ -51,8 +151,8 @@ public class LexiconParser extends GreekTextParser {
      * @return this entry's word in Beta Code without diacritics
      */
     public String getBetaNoSymbols() {
-        // Get the word and replace all symbols with an empty string.
-        return getBetaSymbols().replaceAll("[^a-zA-Z]", "");
+        deriveKeys();
+        return betaNoSymbols;
     }
 
     /**
@@ -61,9 +161,8 @@ public class LexiconParser extends GreekTextParser {
      * @return this entry's word in Beta Code
      */
     public String getBetaSymbols() {
-        // We just need the "key" attribute from the "entry" element.
-        Node entry = doc.getElementsByTagName("entry").item(0);
-        return entry.getAttributes().getNamedItem("key").getTextContent();
+        deriveKeys();
+        return betaSymbols;
     }
 
     /**
@@ -72,8 +171,8 @@ public class LexiconParser extends GreekTextParser {
      * @return this entry's word in Greek characters
      */
     public String getGreekFullWord() {
-        // Use the transcoder to convert the beta code to Greek.
-        return betaToGreek(getBetaSymbols());
+        deriveKeys();
+        return greekFullWord;
     }
 
     /**
@@ -83,11 +182,8 @@ public class LexiconParser extends GreekTextParser {
      * @return this entry's word in Greek characters without diacritics
      */
     public String getGreekNoSymbols() {
-        // Get beta code with no symbols other than the capital letter marker.
-        String beta = getBetaSymbols().replaceAll("[^a-zA-Z\\*]", "");
-
-        // Use the transcoder to convert the beta code to Greek.
-        return betaToGreek(beta);
+        deriveKeys();
+        return greekNoSymbols;
     }
 
     /**
@@ -98,7 +194,19 @@ public class LexiconParser extends GreekTextParser {
      *         diacritics
      */
     public String getGreekLowercase() {
-        return getGreekNoSymbols().toLowerCase();
+        deriveKeys();
+        return greekLowercase;
+    }
+
+    /**
+     * Returns this entry's lookup key: its word in Greek characters,
+     * normalized by <code>SearchText.toKey</code>.
+     * 
+     * @return the lookup key of this entry's word
+     */
+    public String getSearchKey() {
+        deriveKeys();
+        return searchKey;
     }
 
     /**
@@ -109,23 +217,6 @@ public class LexiconParser extends GreekTextParser {
      *         characters
      */
     public String getEntry() {
-        transcodeEntryKey();
-        transcodeInElements("orth");
-        transcodeInElements("ref");
-        transcodeInElements("foreign");
-        transcodeInElements("note");
         return getUpdatedXML();
     }
-
-    /**
-     * Converts the value of the entry element's "key" attribute from Beta Code
-     * to Greek.
-     */
-    private void transcodeEntryKey() {
-        Node entryNode = doc.getElementsByTagName("entry").item(0);
-        Node keyAttr = entryNode.getAttributes().getNamedItem("key");
-        String beta = keyAttr.getTextContent();
-        String greek = betaToGreek(beta);
-        keyAttr.setTextContent(greek);
-    }
 }
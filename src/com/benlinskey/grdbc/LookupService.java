@@ -0,0 +1,516 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * Looks up entries in a built lexicon database, or sections in a built
+ * syntax database, for a server that answers lookups from the same data as
+ * the app. The database is opened read-only, and any number of threads may
+ * share a service.
+ * <p>
+ * A word is resolved to the entries whose <code>searchKey</code> is its
+ * lookup key (see <code>SearchText.toKey</code>), so lookups ignore
+ * diacritics, case, and final sigma. A word written only in ASCII is taken
+ * to be Beta Code and transcoded first, as the parser transcodes headwords.
+ * Sections of the syntax database are looked up by their titles, normalized
+ * the same way; there are few enough of them that their keys are read into
+ * memory when the service is opened.
+ * <p>
+ * Each lookup borrows one of a fixed number of connections, each with its
+ * own prepared statements, decoder and transcoder, and waits if all of them
+ * are in use. Decoded entries are kept in a cache that discards the least
+ * recently used entry once it is full, so frequently requested entries are
+ * neither read nor decoded again. <code>lookupAll</code> resolves many words
+ * at once, with one query for all of their keys and one for all of the
+ * entries that are not cached.
+ * 
+ * @author Ben Linskey
+ */
+public class LookupService {
+    public final static int DEFAULT_CONNECTIONS = 4;
+    public final static int DEFAULT_CACHE_SIZE = 4096;
+
+    // SQLite allows at most 999 parameters in a statement. Lists of
+    // parameters are padded to a power of two so that few statements need
+    // to be prepared.
+    private final static int MAX_PARAMETERS = 512;
+
+    private final BlockingQueue<Reader> readers;
+    private final List<Reader> allReaders = new ArrayList<Reader>();
+    private final Map<Integer, Entry> cache;
+    private final int cacheSize;
+    private final boolean lexicon;
+    private final String keyQuery;
+    private final String entryQuery;
+    private final Map<String, List<Integer>> sectionKeys;
+    private long hits;
+    private long misses;
+
+    /**
+     * An entry or section returned by a lookup.
+     */
+    public static class Entry {
+        private final int id;
+        private final String headword;
+        private final String xml;
+
+        private Entry(int id, String headword, String xml) {
+            this.id = id;
+            this.headword = headword;
+            this.xml = xml;
+        }
+
+        /**
+         * @return the entry's <code>_id</code>
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return the entry's headword in Greek, or the section's title
+         */
+        public String getHeadword() {
+            return headword;
+        }
+
+        /**
+         * @return the XML of the entry or section
+         */
+        public String getXml() {
+            return xml;
+        }
+    }
+
+    /**
+     * Class constructor. Opens a service with
+     * <code>DEFAULT_CONNECTIONS</code> connections and a cache of
+     * <code>DEFAULT_CACHE_SIZE</code> entries.
+     * 
+     * @param path
+     *            the path of a lexicon or syntax database
+     * @throws SQLException
+     *             if the database cannot be opened or is neither a lexicon
+     *             nor a syntax database
+     */
+    public LookupService(String path) throws SQLException {
+        this(path, DEFAULT_CONNECTIONS, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param path
+     *            the path of a lexicon or syntax database
+     * @param connections
+     *            the number of lookups that can read the database at once
+     * @param cacheSize
+     *            the number of decoded entries to cache, or 0 to cache none
+     * @throws SQLException
+     *             if the database cannot be opened or is neither a lexicon
+     *             nor a syntax database
+     */
+    public LookupService(String path, int connections, final int cacheSize)
+            throws SQLException {
+        if (connections < 1) {
+            throw new IllegalArgumentException("At least one connection is "
+                    + "needed.");
+        }
+        this.cacheSize = cacheSize;
+        cache = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            private final static long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> e) {
+                return size() > cacheSize;
+            }
+        };
+
+        readers = new ArrayBlockingQueue<Reader>(connections);
+        try {
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            for (int i = 0; i < connections; i++) {
+                Reader reader = new Reader(
+                        config.createConnection("jdbc:sqlite:" + path));
+                allReaders.add(reader);
+                readers.add(reader);
+            }
+
+            Connection connection = allReaders.get(0).connection;
+            if (hasTable(connection, "lexicon")) {
+                lexicon = true;
+                String from = hasTable(connection,
+                        LexiconCreator.ENTRY_TABLE_NAME) ? "lexicon JOIN "
+                        + LexiconCreator.ENTRY_TABLE_NAME + " USING (_id)"
+                        : "lexicon";
+                keyQuery = "SELECT searchKey, _id FROM lexicon "
+                        + "WHERE searchKey IN ";
+                entryQuery = "SELECT _id, greekFullWord, entry FROM " + from
+                        + " WHERE _id IN ";
+                sectionKeys = null;
+            } else if (hasTable(connection, "syntax")) {
+                lexicon = false;
+                keyQuery = null;
+                entryQuery = "SELECT _id, section, xml FROM syntax "
+                        + "WHERE _id IN ";
+                sectionKeys = loadSectionKeys(connection);
+            } else {
+                throw new SQLException(path + " is neither a lexicon nor a "
+                        + "syntax database.");
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static boolean hasTable(Connection connection, String name)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement("SELECT "
+                + "COUNT(*) FROM sqlite_master WHERE type = 'table' AND "
+                + "name = ?");
+        try {
+            statement.setString(1, name);
+            ResultSet rs = statement.executeQuery();
+            return rs.next() && rs.getInt(1) > 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static Map<String, List<Integer>> loadSectionKeys(
+            Connection connection) throws SQLException {
+        Map<String, List<Integer>> keys = new HashMap<String, List<Integer>>();
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT section, _id FROM "
+                    + "syntax ORDER BY _id");
+            while (rs.next()) {
+                String key = SearchText.toKey(rs.getString(1));
+                List<Integer> ids = keys.get(key);
+                if (ids == null) {
+                    ids = new ArrayList<Integer>(1);
+                    keys.put(key, ids);
+                }
+                ids.add(rs.getInt(2));
+            }
+        } finally {
+            statement.close();
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the entries whose headwords match the specified word, ignoring
+     * diacritics, case, and final sigma.
+     * 
+     * @param word
+     *            a word in Greek or Beta Code, or a section title
+     * @return the matching entries, in order of <code>_id</code>, which may
+     *         be empty
+     * @throws SQLException
+     */
+    public List<Entry> lookup(String word) throws SQLException {
+        return lookupAll(Collections.singletonList(word)).get(word);
+    }
+
+    /**
+     * Looks up many words at once. Each distinct key is resolved once, and
+     * the entries that are not cached are read in as few queries as
+     * possible.
+     * 
+     * @param words
+     *            words in Greek or Beta Code, or section titles
+     * @return the matching entries for each word, in order of
+     *         <code>_id</code>, in the order of the words
+     * @throws SQLException
+     */
+    public Map<String, List<Entry>> lookupAll(Collection<String> words)
+            throws SQLException {
+        Reader reader = borrow();
+        try {
+            Map<String, String> keys = new LinkedHashMap<String, String>();
+            for (String word : words) {
+                keys.put(word, reader.toKey(word));
+            }
+            Map<String, List<Integer>> ids = resolve(reader,
+                    new ArrayList<String>(new LinkedHashSet<String>(keys
+                            .values())));
+            List<Integer> wanted = new ArrayList<Integer>();
+            for (List<Integer> list : ids.values()) {
+                wanted.addAll(list);
+            }
+            Map<Integer, Entry> entries = getEntries(reader, wanted);
+
+            Map<String, List<Entry>> results;
+            results = new LinkedHashMap<String, List<Entry>>();
+            for (Map.Entry<String, String> word : keys.entrySet()) {
+                List<Integer> list = ids.get(word.getValue());
+                List<Entry> found = new ArrayList<Entry>(list == null ? 0
+                        : list.size());
+                if (list != null) {
+                    for (int id : list) {
+                        found.add(entries.get(id));
+                    }
+                }
+                results.put(word.getKey(), found);
+            }
+            return results;
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Returns the entry or section with the specified <code>_id</code>.
+     * 
+     * @param id
+     *            the <code>_id</code> of the entry or section
+     * @return the entry, or <code>null</code> if there is none
+     * @throws SQLException
+     */
+    public Entry get(int id) throws SQLException {
+        Reader reader = borrow();
+        try {
+            return getEntries(reader, Collections.singletonList(id)).get(id);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * @return the number of entries found in the cache since the service
+     *         was opened
+     */
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of entries that were not in the cache and had to be
+     *         read from the database since the service was opened
+     */
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    /**
+     * Closes every connection. Lookups in progress are not waited for.
+     */
+    public void close() {
+        for (Reader reader : allReaders) {
+            try {
+                reader.connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Reader borrow() throws SQLException {
+        try {
+            return readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a "
+                    + "connection.", e);
+        }
+    }
+
+    /**
+     * Returns the number of parameters in which to pass a list: its length,
+     * rounded up to a power of two. The last value is repeated to fill the
+     * list, which does not change the rows it matches.
+     */
+    private static int pad(int count) {
+        int parameters = Integer.highestOneBit(count);
+        return parameters < count ? parameters * 2 : parameters;
+    }
+
+    /**
+     * Returns the <code>_id</code> values of the rows with each of the
+     * specified keys, in ascending order. Keys with no rows are omitted.
+     */
+    private Map<String, List<Integer>> resolve(Reader reader,
+            List<String> keys) throws SQLException {
+        Map<String, List<Integer>> ids = new HashMap<String, List<Integer>>();
+        if (!lexicon) {
+            for (String key : keys) {
+                if (sectionKeys.containsKey(key)) {
+                    ids.put(key, sectionKeys.get(key));
+                }
+            }
+            return ids;
+        }
+
+        for (int start = 0; start < keys.size(); start += MAX_PARAMETERS) {
+            List<String> chunk = keys.subList(start,
+                    Math.min(keys.size(), start + MAX_PARAMETERS));
+            int parameters = pad(chunk.size());
+            PreparedStatement statement = reader.prepare(keyQuery,
+                    parameters, " ORDER BY _id");
+            for (int i = 0; i < parameters; i++) {
+                statement.setString(i + 1,
+                        chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                String key = rs.getString(1);
+                List<Integer> list = ids.get(key);
+                if (list == null) {
+                    list = new ArrayList<Integer>(1);
+                    ids.put(key, list);
+                }
+                list.add(rs.getInt(2));
+            }
+            rs.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the entries with the specified <code>_id</code> values, from
+     * the cache if they are there and otherwise from the database.
+     */
+    private Map<Integer, Entry> getEntries(Reader reader, List<Integer> ids)
+            throws SQLException {
+        Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+        Set<Integer> notCached = new LinkedHashSet<Integer>();
+        synchronized (this) {
+            for (int id : ids) {
+                Entry entry = cache.get(id);
+                if (entry != null) {
+                    entries.put(id, entry);
+                    hits++;
+                } else {
+                    notCached.add(id);
+                }
+            }
+            misses += notCached.size();
+        }
+
+        List<Integer> missing = new ArrayList<Integer>(notCached);
+
+        for (int start = 0; start < missing.size(); start += MAX_PARAMETERS) {
+            List<Integer> chunk = missing.subList(start,
+                    Math.min(missing.size(), start + MAX_PARAMETERS));
+            int parameters = pad(chunk.size());
+            PreparedStatement statement = reader.prepare(entryQuery,
+                    parameters, "");
+            for (int i = 0; i < parameters; i++) {
+                statement.setInt(i + 1,
+                        chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            ResultSet rs = statement.executeQuery();
+            List<Entry> read = new ArrayList<Entry>(chunk.size());
+            while (rs.next()) {
+                read.add(new Entry(rs.getInt(1), rs.getString(2),
+                        reader.decoder.getString(rs, 3)));
+            }
+            rs.close();
+            synchronized (this) {
+                for (Entry entry : read) {
+                    entries.put(entry.id, entry);
+                    if (cacheSize > 0) {
+                        cache.put(entry.id, entry);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * A connection with the state that only one lookup at a time may use.
+     */
+    private class Reader {
+        private final Connection connection;
+        private final EntryDecoder decoder;
+        private final BetaCodeTranscoder transcoder = new TableTranscoder();
+
+        // Statements by their SQL.
+        private final Map<String, PreparedStatement> statements;
+
+        private Reader(Connection connection) throws SQLException {
+            this.connection = connection;
+            decoder = new EntryDecoder(connection);
+            statements = new HashMap<String, PreparedStatement>();
+        }
+
+        /**
+         * Returns the lookup key of a word, transcoding it first if it is a
+         * lexicon headword written in Beta Code.
+         */
+        private String toKey(String word) {
+            if (lexicon && isAscii(word)) {
+                word = transcoder.transcode(word);
+            }
+            return SearchText.toKey(word);
+        }
+
+        private boolean isAscii(String word) {
+            for (int i = 0; i < word.length(); i++) {
+                if (word.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns a statement that ends in a list of the specified number of
+         * parameters, followed by the specified clause, preparing it the
+         * first time it is needed.
+         */
+        private PreparedStatement prepare(String query, int parameters,
+                String clause) throws SQLException {
+            StringBuilder sql = new StringBuilder(query.length() + parameters
+                    * 3 + clause.length());
+            sql.append(query).append('(');
+            for (int i = 0; i < parameters; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')').append(clause);
+            String key = sql.toString();
+            PreparedStatement statement = statements.get(key);
+            if (statement == null) {
+                statement = connection.prepareStatement(key);
+                statements.put(key, statement);
+            }
+            return statement;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.CharArrayReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A UTF-8 XML file mapped into memory. The file's contents are read by the
+ * operating system as they are needed rather than copied onto the heap, and
+ * any part of it can be parsed on its own: a slice of the buffer holding a
+ * complete element (see <code>ElementSlicer</code>) can be handed to another
+ * thread and parsed there.
+ * <p>
+ * The Perseus texts are UTF-8. The file's bytes are always decoded as UTF-8,
+ * whatever the platform's default encoding, and a file whose XML declaration
+ * names any other encoding is rejected.
+ * 
+ * @author Ben Linskey
+ */
+public class MappedXmlFile {
+    private final static String ENCODING = "UTF-8";
+    private final static ThreadLocal<CharsetDecoder> DECODER = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return Charset.forName(ENCODING).newDecoder();
+        }
+    };
+    private final static Pattern DECLARED_ENCODING = Pattern
+            .compile("^<\\?xml[^>]*\\sencoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    private final String path;
+    private final ByteBuffer buffer;
+
+    /**
+     * Class constructor. Maps the specified file into memory.
+     * 
+     * @param path
+     *            the path of the XML file
+     * @throws FileNotFoundException
+     *             if the file does not exist
+     * @throws IOException
+     *             if the file cannot be mapped, or is not UTF-8
+     */
+    public MappedXmlFile(String path) throws IOException {
+        this.path = path;
+        FileInputStream in = new FileInputStream(path);
+        try {
+            // The mapping stays valid after the file is closed.
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            in.close();
+        }
+        checkEncoding();
+    }
+
+    /**
+     * Rejects a file whose byte order mark or XML declaration shows that it
+     * is not UTF-8.
+     * 
+     * @throws IOException
+     */
+    private void checkEncoding() throws IOException {
+        int start = 0;
+        if (startsWith(0xef, 0xbb, 0xbf)) {
+            start = 3;
+        } else if (startsWith(0xfe, 0xff) || startsWith(0xff, 0xfe)) {
+            throw new IOException(path + " is UTF-16; only " + ENCODING
+                    + " is supported.");
+        }
+
+        StringBuilder declaration = new StringBuilder();
+        int limit = Math.min(buffer.limit(), start + 200);
+        for (int i = start; i < limit; i++) {
+            char c = (char) (buffer.get(i) & 0xff);
+            declaration.append(c);
+            if (c == '>') {
+                break;
+            }
+        }
+        Matcher m = DECLARED_ENCODING.matcher(declaration);
+        if (m.find() && !m.group(1).equalsIgnoreCase(ENCODING)
+                && !m.group(1).equalsIgnoreCase("UTF8")) {
+            throw new IOException(path + " is encoded as " + m.group(1)
+                    + "; only " + ENCODING + " is supported.");
+        }
+    }
+
+    private boolean startsWith(int... bytes) {
+        if (buffer.limit() < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((buffer.get(i) & 0xff) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the path of the file.
+     * 
+     * @return the path of the file
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the size of the file.
+     * 
+     * @return the size of the file in bytes
+     */
+    public int size() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns a read-only view of the whole file. Each call returns a new
+     * view with its own position, so views may be used by different threads.
+     * 
+     * @return the contents of the file
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a reader for the whole file. The file is decoded as it is read.
+     * 
+     * @return a reader positioned at the start of the document
+     * @throws XMLStreamException
+     */
+    public XMLStreamReader createReader() throws XMLStreamException {
+        return XmlFactories.getInputFactory().createXMLStreamReader(
+                new ByteBufferInputStream(getBuffer()), ENCODING);
+    }
+
+    /**
+     * Returns a reader for the XML between the position and limit of the
+     * specified buffer, such as a slice of a mapped file holding a single
+     * element.
+     * <p>
+     * The XML is decoded as UTF-8 in one step before it is parsed. For an
+     * element of a few kilobytes this is much cheaper than having the parser
+     * set up its own decoder for a stream of bytes.
+     * 
+     * @param xml
+     *            the XML to read; its position is not changed
+     * @return a reader positioned at the start of the XML
+     * @throws XMLStreamException
+     *             if the XML is not valid UTF-8
+     */
+    public static XMLStreamReader createReader(ByteBuffer xml)
+            throws XMLStreamException {
+        CharBuffer chars;
+        try {
+            chars = DECODER.get().decode(xml.duplicate());
+        } catch (CharacterCodingException e) {
+            throw new XMLStreamException("Invalid " + ENCODING + ": "
+                    + e.getMessage());
+        }
+        return XmlFactories.getInputFactory().createXMLStreamReader(
+                new CharArrayReader(chars.array(), chars.position(),
+                        chars.remaining()));
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reads and writes the <code>metadata</code> table, which holds values that
+ * describe how a database's rows are stored, such as the compression
+ * dictionary and the names used in tag streams. Each value is stored once per
+ * database under a name. A state database attached to a build (see
+ * <code>BulkLoader</code>) has a <code>metadata</code> table of its own,
+ * which holds the build's checkpoint.
+ * 
+ * @author Ben Linskey
+ */
+public class Metadata {
+    public final static String TABLE_NAME = "metadata";
+    public final static String DICTIONARY = "dictionary";
+    public final static String TAGS = "tags";
+
+    private Metadata() {
+    }
+
+    /**
+     * Returns the value stored under the specified name.
+     * 
+     * @param connection
+     *            a database connection
+     * @param name
+     *            the name of the value
+     * @return the value, or <code>null</code> if there is none
+     * @throws SQLException
+     */
+    public static Object get(Connection connection, String name)
+            throws SQLException {
+        return get(connection, "main", name);
+    }
+
+    /**
+     * Returns the value stored under the specified name in an attached
+     * database.
+     * 
+     * @param connection
+     *            a database connection
+     * @param schema
+     *            the name of the attached database, such as
+     *            <code>main</code>
+     * @param name
+     *            the name of the value
+     * @return the value, or <code>null</code> if there is none
+     * @throws SQLException
+     */
+    public static Object get(Connection connection, String schema,
+            String name) throws SQLException {
+        if (!exists(connection, schema)) {
+            return null;
+        }
+
+        PreparedStatement select = connection.prepareStatement("SELECT value "
+                + "FROM " + schema + "." + TABLE_NAME + " WHERE name = ?");
+        select.setString(1, name);
+        ResultSet rs = select.executeQuery();
+        Object value = rs.next() ? rs.getObject(1) : null;
+        rs.close();
+        select.close();
+        return value;
+    }
+
+    private static boolean exists(Connection connection, String schema)
+            throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT name FROM " + schema
+                + ".sqlite_master WHERE type = 'table' AND name = '"
+                + TABLE_NAME + "'");
+        boolean found = rs.next();
+        rs.close();
+        statement.close();
+        return found;
+    }
+
+    /**
+     * Stores a value under the specified name, replacing any earlier value,
+     * and commits it.
+     * 
+     * @param loader
+     *            the loader of the database
+     * @param name
+     *            the name of the value
+     * @param value
+     *            the value to store
+     * @throws SQLException
+     */
+    public static void put(BulkLoader loader, String name, Object value)
+            throws SQLException {
+        put(loader, Collections.singletonMap(name, value));
+    }
+
+    /**
+     * Stores several values, replacing any earlier values, and commits them
+     * together with any rows pending in the loader, so that either all of
+     * them are saved or none are.
+     * 
+     * @param loader
+     *            the loader of the database
+     * @param values
+     *            the values to store, by name
+     * @throws SQLException
+     */
+    public static void put(BulkLoader loader, Map<String, ?> values)
+            throws SQLException {
+        put(loader, "main", values);
+    }
+
+    /**
+     * Stores several values in an attached database, replacing any earlier
+     * values, and commits them together with any rows pending in the
+     * loader.
+     * 
+     * @param loader
+     *            the loader of the database
+     * @param schema
+     *            the name of the attached database, such as
+     *            <code>main</code>
+     * @param values
+     *            the values to store, by name
+     * @throws SQLException
+     */
+    public static void put(BulkLoader loader, String schema,
+            Map<String, ?> values) throws SQLException {
+        loader.execute("CREATE TABLE IF NOT EXISTS " + schema + "."
+                + TABLE_NAME + " (name TEXT PRIMARY KEY, value)");
+        PreparedStatement statement = loader.getConnection().prepareStatement(
+                "INSERT OR REPLACE INTO " + schema + "." + TABLE_NAME
+                        + " (name, value) VALUES (?, ?)");
+        for (Map.Entry<String, ?> e : values.entrySet()) {
+            statement.setString(1, e.getKey());
+            statement.setObject(2, e.getValue());
+            statement.executeUpdate();
+        }
+        statement.close();
+        loader.flush();
+    }
+
+    /**
+     * Removes the values stored under the specified names in an attached
+     * database and commits the change. The table is dropped if no values are
+     * left in it.
+     * 
+     * @param loader
+     *            the loader of the database
+     * @param schema
+     *            the name of the attached database, such as
+     *            <code>main</code>
+     * @param names
+     *            the names of the values to remove
+     * @throws SQLException
+     */
+    public static void remove(BulkLoader loader, String schema,
+            String... names) throws SQLException {
+        Connection connection = loader.getConnection();
+        if (!exists(connection, schema)) {
+            return;
+        }
+        PreparedStatement statement = connection.prepareStatement("DELETE "
+                + "FROM " + schema + "." + TABLE_NAME + " WHERE name = ?");
+        for (String name : names) {
+            statement.setString(1, name);
+            statement.executeUpdate();
+        }
+        statement.close();
+
+        Statement count = connection.createStatement();
+        ResultSet rs = count.executeQuery("SELECT COUNT(*) FROM " + schema
+                + "." + TABLE_NAME);
+        boolean empty = rs.next() && rs.getInt(1) == 0;
+        rs.close();
+        count.close();
+        if (empty) {
+            loader.execute("DROP TABLE " + schema + "." + TABLE_NAME);
+        } else {
+            loader.flush();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.IOException;
+
+/**
+ * The formats in which a build can write its rows in addition to the SQLite
+ * database. Each output is written next to the database and named after it,
+ * such as <code>lexicon.jsonl</code> for <code>lexicon.db</code>.
+ * 
+ * @author Ben Linskey
+ */
+public enum OutputFormat {
+    /** One JSON object per row (see <code>JsonLinesSink</code>). */
+    JSONL("jsonl") {
+        @Override
+        public OutputSink open(String path) throws IOException {
+            return new JsonLinesSink(path);
+        }
+    },
+
+    /** A sorted snapshot for memory mapping (see <code>Snapshot</code>). */
+    SNAPSHOT("snapshot") {
+        @Override
+        public OutputSink open(String path) throws IOException {
+            return new SnapshotSink(path);
+        }
+    };
+
+    private final String name;
+
+    private OutputFormat(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the format with the specified name.
+     * 
+     * @param name
+     *            the name of the format, as given on the command line
+     * @return the format, or <code>null</code> if there is none by that name
+     */
+    public static OutputFormat parse(String name) {
+        for (OutputFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the path of the output of a database in this format.
+     * 
+     * @param db
+     *            the path of the database, such as <code>lexicon.db</code>
+     * @return the path of the output, such as <code>lexicon.jsonl</code>
+     */
+    public String getPath(String db) {
+        return db.replaceFirst("\\.db$", "") + "." + name;
+    }
+
+    /**
+     * Opens a sink that writes in this format.
+     * 
+     * @param path
+     *            the path of the file to write
+     * @return the sink
+     * @throws IOException
+     */
+    public abstract OutputSink open(String path) throws IOException;
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,140 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.SQLException;
+
+/**
+ * A lexicon entry or syntax section as it is handed to the output sinks of a
+ * build: its row ID, a lookup key, the values of its columns, and the
+ * normalized text that is indexed for full-text search. The last column is
+ * the body, which holds the XML of the entry or section, or its tag stream
+ * in a binary build.
+ * 
+ * @author Ben Linskey
+ */
+public class OutputRecord {
+    private final int id;
+    private final boolean update;
+    private final String key;
+    private final String[] columns;
+    private final Object[] values;
+    private final String searchText;
+    private final TagDictionary tags;
+
+    /**
+     * Class constructor.
+     * 
+     * @param id
+     *            the row ID
+     * @param update
+     *            <code>true</code> if the row replaces one already in the
+     *            database
+     * @param key
+     *            the key by which the row is looked up, such as the search
+     *            key of a lexicon entry
+     * @param columns
+     *            the names of the columns, with the body last
+     * @param values
+     *            the value of each column: a string, or, for the body of a
+     *            binary build, a tag stream
+     * @param searchText
+     *            the normalized text indexed for full-text search
+     * @param tags
+     *            the names used in tag streams, or <code>null</code> if the
+     *            body is XML
+     */
+    public OutputRecord(int id, boolean update, String key, String[] columns,
+            Object[] values, String searchText, TagDictionary tags) {
+        this.id = id;
+        this.update = update;
+        this.key = key;
+        this.columns = columns;
+        this.values = values;
+        this.searchText = searchText;
+        this.tags = tags;
+    }
+
+    /**
+     * @return the row ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return <code>true</code> if the row replaces one already in the
+     *         database, in an incremental build
+     */
+    public boolean isUpdate() {
+        return update;
+    }
+
+    /**
+     * @return the key by which the row is looked up
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the number of columns, including the body
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * @param i
+     *            the position of a column, from 0
+     * @return the name of the column
+     */
+    public String getColumn(int i) {
+        return columns[i];
+    }
+
+    /**
+     * @param i
+     *            the position of a column, from 0
+     * @return the value of the column, as it is stored in the database
+     */
+    public Object getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * @return the normalized text indexed for full-text search
+     */
+    public String getSearchText() {
+        return searchText;
+    }
+
+    /**
+     * Returns the XML of the body, decoding it first if it is a tag stream.
+     * 
+     * @return the XML of the entry or section
+     * @throws SQLException
+     *             if the tag stream cannot be decoded
+     */
+    public String getXml() throws SQLException {
+        Object body = values[values.length - 1];
+        if (body instanceof byte[]) {
+            return new EntryDecoder(null, tags.getNames())
+                    .decode((byte[]) body);
+        }
+        return (String) body;
+    }
+}
@@ -0,0 +1,50 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * A destination for the rows produced by a build. Each lexicon entry or
+ * syntax section is parsed once and handed to every sink of the build in
+ * turn, in source order, on a single thread.
+ * <p>
+ * The SQLite database is always one of the sinks, since it also holds the
+ * state that incremental and resumed builds depend on. Other sinks are added
+ * with <code>--output</code> (see <code>OutputFormat</code>).
+ * 
+ * @author Ben Linskey
+ */
+public interface OutputSink {
+    /**
+     * Writes a row.
+     * 
+     * @param record
+     *            the row to write
+     * @throws IOException
+     * @throws SQLException
+     */
+    void write(OutputRecord record) throws IOException, SQLException;
+
+    /**
+     * Finishes the output once every row has been written.
+     * 
+     * @throws IOException
+     * @throws SQLException
+     */
+    void close() throws IOException, SQLException;
+}
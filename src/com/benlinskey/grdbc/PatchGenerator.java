@@ -0,0 +1,836 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a patch that turns one version of a lexicon or syntax database into
+ * another, so that applications can download a small update rather than the
+ * whole database.
+ * <p>
+ * Rows are matched by their key, <code>betaSymbols</code> in the lexicon and
+ * <code>section</code> in the syntax database, together with their position
+ * among rows sharing that key. Both tables are read in key order and merged
+ * in a single pass, so memory use does not depend on the size of the
+ * databases.
+ * <p>
+ * The patch is a gzip-compressed SQLite script which deletes, updates, and
+ * inserts rows of the main table and its full-text index, in key order,
+ * inside a single transaction, along with any change to the tables that
+ * accompany it, which are merged in the same way: the <code>metadata</code>
+ * table, which holds the compression dictionary and tag names, and the
+ * lexicon's prefix table; one whose layout has changed is dropped and
+ * written out in full. Rows keep the <code>_id</code> they have in the new
+ * database. Incremental builds (<code>-i</code>) never renumber existing
+ * rows, so patches between them contain only the rows that changed; a full
+ * rebuild may renumber many rows, each of which costs the patch a few short
+ * statements. The state that only builds need, such as entry hashes, is not
+ * in the databases (see <code>BulkLoader</code>), so it is never patched.
+ * <p>
+ * A manifest is written alongside the patch, in JSON. It gives the SHA-1
+ * hash of the patch file and of the old database file, and a content
+ * checksum of each database: the SHA-1 hash of every row in key order, each
+ * row being its <code>_id</code>, its columns, and its full-text index text,
+ * each encoded as UTF-8 (or as stored, for BLOBs) and followed by a zero
+ * byte, or written as a single one byte if it is <code>NULL</code>. A
+ * client can check the content checksum after applying the patch to confirm
+ * that its database matches the new one.
+ * 
+ * @author Ben Linskey
+ */
+public class PatchGenerator {
+    private final static int FORMAT_VERSION = 1;
+    // Databases built before their build state was kept apart from them
+    // hold it in these tables, which clients do not need.
+    private final static String[] BUILD_TABLES = { "lexicon_hashes",
+            BuildErrors.TABLE_NAME };
+    private final static Table LEXICON = new Table("lexicon", "lexicon_fts",
+            "betaSymbols", new String[] { "betaNoSymbols", "betaSymbols",
+                    "greekFullWord", "greekNoSymbols", "greekLowercase",
+                    "searchKey", "entry" }, Metadata.TABLE_NAME,
+            PrefixIndex.getTableName("lexicon"));
+    private final static Table SYNTAX = new Table("syntax", "syntax_fts",
+            "section", new String[] { "chapter", "section", "xml" },
+            Metadata.TABLE_NAME);
+
+    private final String oldDb;
+    private final String newDb;
+    private final String patchFile;
+    private Table table;
+    private Writer out;
+    private int added;
+    private int updated;
+    private int removed;
+    private int moved;
+
+    /**
+     * Class constructor.
+     * 
+     * @param oldDb
+     *            the path of the database that clients already have
+     * @param newDb
+     *            the path of the database that clients should end up with
+     * @param patchFile
+     *            the path of the patch to write; the manifest is written to
+     *            the same path followed by <code>.manifest</code>
+     */
+    public PatchGenerator(String oldDb, String newDb, String patchFile) {
+        this.oldDb = oldDb;
+        this.newDb = newDb;
+        this.patchFile = patchFile;
+    }
+
+    /**
+     * Writes the patch and its manifest.
+     */
+    public void run() {
+        System.out.println("Comparing " + oldDb + " with " + newDb + "...");
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Connection oldConnection = connect(oldDb);
+            Connection newConnection = connect(newDb);
+            table = findTable(oldConnection);
+            if (table != findTable(newConnection)) {
+                System.err.println(oldDb + " and " + newDb
+                        + " do not contain the same table.");
+                System.exit(1);
+            }
+
+            RowCursor oldRows = new RowCursor(oldConnection);
+            RowCursor newRows = new RowCursor(newConnection);
+            MessageDigest patchDigest = MessageDigest.getInstance("SHA-1");
+            OutputStream file = new DigestOutputStream(new FileOutputStream(
+                    patchFile), patchDigest);
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(file), "UTF-8"));
+            writePatch(oldRows, newRows, maxId(oldConnection));
+            out.close();
+            oldRows.close();
+            newRows.close();
+            oldConnection.close();
+            newConnection.close();
+
+            writeManifest(oldRows, newRows,
+                    ContentHash.toHex(patchDigest.digest()));
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println(added + " rows added, " + updated + " updated, "
+                + removed + " removed.");
+        if (moved > 0) {
+            System.out.println(moved + " rows were renumbered; databases "
+                    + "built with -i keep the numbers of existing rows.");
+        }
+        System.out.println("Patch written to " + patchFile + " ("
+                + new File(patchFile).length() + " bytes).");
+    }
+
+    /**
+     * Opens a database for reading.
+     * 
+     * @param db
+     *            the path of the database file
+     * @return the connection
+     * @throws SQLException
+     * @throws IOException
+     *             if the database does not exist
+     */
+    private static Connection connect(String db) throws SQLException,
+            IOException {
+        // Connecting would silently create an empty database.
+        if (!new File(db).isFile()) {
+            throw new IOException(db + " does not exist.");
+        }
+        return DriverManager.getConnection("jdbc:sqlite:" + db);
+    }
+
+    /**
+     * Returns the table stored in the specified database.
+     * 
+     * @param connection
+     *            a database connection
+     * @return the lexicon or syntax table
+     * @throws SQLException
+     *             if the database contains neither table
+     */
+    private static Table findTable(Connection connection) throws SQLException {
+        for (Table t : new Table[] { LEXICON, SYNTAX }) {
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM "
+                    + "sqlite_master WHERE type = 'table' AND name = '"
+                    + t.name + "'");
+            boolean found = result.getInt(1) > 0;
+            result.close();
+            statement.close();
+            if (found) {
+                if (t == LEXICON && hasEntryTable(connection)) {
+                    throw new SQLException("Databases with the split "
+                            + "lexicon layout cannot be patched.");
+                }
+                return t;
+            }
+        }
+        throw new SQLException("Not a lexicon or syntax database.");
+    }
+
+    /**
+     * Returns true if the lexicon entries are stored apart from their keys
+     * (see <code>LexiconCreator</code>).
+     * 
+     * @param connection
+     *            a database connection
+     * @return <code>true</code> if the database has the split layout
+     * @throws SQLException
+     */
+    private static boolean hasEntryTable(Connection connection)
+            throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM "
+                + "sqlite_master WHERE type = 'table' AND name = '"
+                + LexiconCreator.ENTRY_TABLE_NAME + "'");
+        boolean found = result.getInt(1) > 0;
+        result.close();
+        statement.close();
+        return found;
+    }
+
+    /**
+     * Returns the largest row number in the table.
+     * 
+     * @param connection
+     *            a database connection
+     * @return the largest <code>_id</code>, or 0 if the table is empty
+     * @throws SQLException
+     */
+    private int maxId(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT MAX(_id) FROM "
+                + table.name);
+        int max = result.getInt(1);
+        result.close();
+        statement.close();
+        return max;
+    }
+
+    /**
+     * Merges the rows of both databases and writes the statements needed to
+     * turn the old rows into the new ones.
+     * <p>
+     * Rows that must take a number that may still be held by another old row
+     * are first given the negated number, which no row uses, and are moved
+     * into place once every old row has been deleted or renumbered.
+     * 
+     * @param oldRows
+     *            the rows of the old database, in key order
+     * @param newRows
+     *            the rows of the new database, in key order
+     * @param oldMaxId
+     *            the largest row number in the old database
+     * @throws SQLException
+     * @throws IOException
+     */
+    private void writePatch(RowCursor oldRows, RowCursor newRows, int oldMaxId)
+            throws SQLException, IOException {
+        out.write("-- grdbc patch " + FORMAT_VERSION + " " + table.name
+                + "\n");
+        out.write("BEGIN TRANSACTION;\n");
+        writeKeyedTables(oldRows.connection, newRows.connection);
+
+        oldRows.next();
+        newRows.next();
+        boolean staged = false;
+        while (oldRows.valid || newRows.valid) {
+            int cmp;
+            if (!oldRows.valid) {
+                cmp = 1;
+            } else if (!newRows.valid) {
+                cmp = -1;
+            } else {
+                cmp = oldRows.compareTo(newRows);
+            }
+
+            if (cmp < 0) {
+                writeDelete(oldRows.id);
+                removed++;
+                oldRows.next();
+            } else if (cmp > 0) {
+                int id = newRows.id <= oldMaxId ? -newRows.id : newRows.id;
+                staged |= id < 0;
+                writeInsert(newRows, id);
+                added++;
+                newRows.next();
+            } else {
+                int id = newRows.id;
+                if (oldRows.id != newRows.id) {
+                    id = -newRows.id;
+                    writeMove(oldRows.id, id);
+                    staged = true;
+                    moved++;
+                }
+                if (writeUpdate(oldRows, newRows, id)) {
+                    updated++;
+                }
+                oldRows.next();
+                newRows.next();
+            }
+        }
+
+        if (staged) {
+            out.write("UPDATE " + table.name
+                    + " SET _id = -_id WHERE _id < 0;\n");
+            out.write("INSERT INTO " + table.fts + " (docid, text) "
+                    + "SELECT -docid, text FROM " + table.fts
+                    + " WHERE docid < 0;\n");
+            out.write("DELETE FROM " + table.fts + " WHERE docid < 0;\n");
+        }
+        out.write("COMMIT;\n");
+    }
+
+    /**
+     * Writes the statements that delete a row.
+     * 
+     * @param id
+     *            the number of the row to delete
+     * @throws IOException
+     */
+    private void writeDelete(int id) throws IOException {
+        out.write("DELETE FROM " + table.name + " WHERE _id = " + id + ";\n");
+        out.write("DELETE FROM " + table.fts + " WHERE docid = " + id + ";\n");
+    }
+
+    /**
+     * Writes the statements that renumber a row.
+     * 
+     * @param from
+     *            the current number of the row
+     * @param to
+     *            the new number of the row, which must be unused
+     * @throws IOException
+     */
+    private void writeMove(int from, int to) throws IOException {
+        out.write("UPDATE " + table.name + " SET _id = " + to
+                + " WHERE _id = " + from + ";\n");
+        out.write("INSERT INTO " + table.fts + " (docid, text) SELECT " + to
+                + ", text FROM " + table.fts + " WHERE docid = " + from
+                + ";\n");
+        out.write("DELETE FROM " + table.fts + " WHERE docid = " + from
+                + ";\n");
+    }
+
+    /**
+     * Writes the statements that insert a row.
+     * 
+     * @param row
+     *            the row to insert
+     * @param id
+     *            the number to insert the row under
+     * @throws IOException
+     */
+    private void writeInsert(RowCursor row, int id) throws IOException {
+        out.write("INSERT INTO " + table.name + " (_id");
+        for (String column : table.columns) {
+            out.write(", " + column);
+        }
+        out.write(") VALUES (" + id);
+        for (Object value : row.values) {
+            out.write(", ");
+            writeLiteral(value);
+        }
+        out.write(");\n");
+
+        out.write("INSERT INTO " + table.fts + " (docid, text) VALUES (" + id
+                + ", ");
+        writeLiteral(row.text);
+        out.write(");\n");
+    }
+
+    /**
+     * Writes the statements that change the columns of a row that differ
+     * between the old and new databases.
+     * 
+     * @param oldRow
+     *            the row in the old database
+     * @param newRow
+     *            the matching row in the new database
+     * @param id
+     *            the number the row has in the patched database
+     * @return <code>true</code> if the row has changed
+     * @throws IOException
+     */
+    private boolean writeUpdate(RowCursor oldRow, RowCursor newRow, int id)
+            throws IOException {
+        boolean changed = false;
+        for (int i = 0; i < table.columns.length; i++) {
+            if (!equal(oldRow.values[i], newRow.values[i])) {
+                out.write(changed ? ", " : "UPDATE " + table.name + " SET ");
+                out.write(table.columns[i] + " = ");
+                writeLiteral(newRow.values[i]);
+                changed = true;
+            }
+        }
+        if (changed) {
+            out.write(" WHERE _id = " + id + ";\n");
+        }
+
+        if (!equal(oldRow.text, newRow.text)) {
+            out.write("UPDATE " + table.fts + " SET text = ");
+            writeLiteral(newRow.text);
+            out.write(" WHERE docid = " + id + ";\n");
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Writes a value as an SQL literal.
+     * 
+     * @param value
+     *            the value to write: a string, a number, a byte array, or
+     *            <code>null</code>
+     * @throws IOException
+     */
+    private void writeLiteral(Object value) throws IOException {
+        if (value == null) {
+            out.write("NULL");
+        } else if (value instanceof byte[]) {
+            out.write("X'");
+            out.write(ContentHash.toHex((byte[]) value));
+            out.write('\'');
+        } else if (value instanceof Number) {
+            out.write(value.toString());
+        } else {
+            out.write('\'');
+            out.write(value.toString().replace("'", "''"));
+            out.write('\'');
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Writes the statements that bring the tables that accompany the main
+     * table, the <code>metadata</code> and prefix tables, up to date. Each row
+     * of these tables is identified by its first column, and rows are compared
+     * by value. Both versions of a table are read in order of that column and
+     * merged, as the main table is, since the prefix table has several rows
+     * for every entry.
+     * 
+     * @param oldConnection
+     *            a connection to the old database
+     * @param newConnection
+     *            a connection to the new database
+     * @throws SQLException
+     * @throws IOException
+     */
+    private void writeKeyedTables(Connection oldConnection,
+            Connection newConnection) throws SQLException, IOException {
+        for (String name : table.keyedTables) {
+            KeyedTable oldTable = new KeyedTable(oldConnection, name);
+            KeyedTable newTable = new KeyedTable(newConnection, name);
+            try {
+                writeKeyedTable(oldTable, newTable);
+            } finally {
+                oldTable.close();
+                newTable.close();
+            }
+        }
+        for (String name : BUILD_TABLES) {
+            KeyedTable oldTable = new KeyedTable(oldConnection, name);
+            KeyedTable newTable = new KeyedTable(newConnection, name);
+            if (oldTable.definition != null && newTable.definition == null) {
+                out.write("DROP TABLE " + name + ";\n");
+            }
+            oldTable.close();
+            newTable.close();
+        }
+    }
+
+    private void writeKeyedTable(KeyedTable oldTable, KeyedTable newTable)
+            throws SQLException, IOException {
+        String name = newTable.name;
+        if (newTable.definition == null) {
+            if (oldTable.definition != null) {
+                out.write("DROP TABLE " + name + ";\n");
+            }
+            return;
+        }
+
+        // If the layout has changed, the table is written afresh.
+        boolean changed = oldTable.definition != null
+                && !oldTable.definition.equals(newTable.definition);
+        if (changed) {
+            out.write("DROP TABLE " + name + ";\n");
+        }
+        out.write(newTable.definition.replaceFirst("^CREATE TABLE",
+                "CREATE TABLE IF NOT EXISTS") + ";\n");
+        String key = newTable.columns[0];
+        String columns = Arrays.toString(newTable.columns);
+        columns = columns.substring(1, columns.length() - 1);
+        if (!changed) {
+            oldTable.next();
+        }
+        newTable.next();
+        while (oldTable.valid || newTable.valid) {
+            int cmp;
+            if (!oldTable.valid) {
+                cmp = 1;
+            } else if (!newTable.valid) {
+                cmp = -1;
+            } else {
+                cmp = compareKeys(oldTable.key, newTable.key);
+            }
+
+            if (cmp < 0) {
+                out.write("DELETE FROM " + name + " WHERE " + key + " = ");
+                writeLiteral(oldTable.key);
+                out.write(";\n");
+                oldTable.next();
+                continue;
+            }
+            if (cmp > 0 || !equal(oldTable.values, newTable.values)) {
+                out.write("INSERT OR REPLACE INTO " + name + " (" + columns
+                        + ") VALUES (");
+                for (int i = 0; i < newTable.values.length; i++) {
+                    if (i > 0) {
+                        out.write(", ");
+                    }
+                    writeLiteral(newTable.values[i]);
+                }
+                out.write(");\n");
+            }
+            if (cmp == 0) {
+                oldTable.next();
+            }
+            newTable.next();
+        }
+    }
+
+    private static boolean equal(Object[] a, Object[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (!equal(a[i], b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the manifest describing the patch.
+     * 
+     * @param oldRows
+     *            the exhausted cursor over the old database
+     * @param newRows
+     *            the exhausted cursor over the new database
+     * @param patchHash
+     *            the SHA-1 hash of the patch file
+     * @throws IOException
+     */
+    private void writeManifest(RowCursor oldRows, RowCursor newRows,
+            String patchHash) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"format\": ").append(FORMAT_VERSION).append(",\n");
+        json.append("  \"table\": \"").append(table.name).append("\",\n");
+        json.append("  \"patch\": {\n");
+        json.append("    \"file\": \"").append(new File(patchFile).getName())
+                .append("\",\n");
+        json.append("    \"size\": ").append(new File(patchFile).length())
+                .append(",\n");
+        json.append("    \"sha1\": \"").append(patchHash).append("\"\n");
+        json.append("  },\n");
+        json.append("  \"old\": {\n");
+        json.append("    \"fileSha1\": \"").append(ContentHash.ofFile(oldDb))
+                .append("\",\n");
+        json.append("    \"contentSha1\": \"").append(oldRows.checksum())
+                .append("\",\n");
+        json.append("    \"rows\": ").append(oldRows.count).append("\n");
+        json.append("  },\n");
+        json.append("  \"new\": {\n");
+        json.append("    \"contentSha1\": \"").append(newRows.checksum())
+                .append("\",\n");
+        json.append("    \"rows\": ").append(newRows.count).append("\n");
+        json.append("  },\n");
+        json.append("  \"added\": ").append(added).append(",\n");
+        json.append("  \"updated\": ").append(updated).append(",\n");
+        json.append("  \"removed\": ").append(removed).append(",\n");
+        json.append("  \"moved\": ").append(moved).append("\n");
+        json.append("}\n");
+
+        Writer manifest = new OutputStreamWriter(new FileOutputStream(
+                patchFile + ".manifest"), "UTF-8");
+        manifest.write(json.toString());
+        manifest.close();
+    }
+
+    /**
+     * Compares two strings in the order SQLite uses for text with the default
+     * <code>BINARY</code> collation, which is the order of their code points.
+     * <code>null</code> sorts first.
+     */
+    /**
+     * Compares two keys in the order of <code>ORDER BY</code>: integers by
+     * value and text by code point.
+     */
+    private static int compareKeys(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            long x = ((Number) a).longValue();
+            long y = ((Number) b).longValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        return compareText(a == null ? null : a.toString(), b == null ? null
+                : b.toString());
+    }
+
+    private static int compareText(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    /**
+     * Describes a table that can be patched.
+     */
+    private static class Table {
+        final String name;
+        final String fts;
+        final String key;
+        final String[] columns;
+        final String[] keyedTables;
+
+        Table(String name, String fts, String key, String[] columns,
+                String... keyedTables) {
+            this.name = name;
+            this.fts = fts;
+            this.key = key;
+            this.columns = columns;
+            this.keyedTables = keyedTables;
+        }
+    }
+
+    /**
+     * Reads the rows of a table that accompanies the main table one at a
+     * time, in order of their first column.
+     */
+    private static class KeyedTable {
+        private final Statement statement;
+        private ResultSet result;
+        final String name;
+        String definition;
+        String[] columns;
+        Object[] values;
+        Object key;
+        boolean valid;
+
+        /**
+         * Opens a table, which need not exist.
+         * 
+         * @param connection
+         *            a database connection
+         * @param name
+         *            the name of the table
+         * @throws SQLException
+         */
+        KeyedTable(Connection connection, String name) throws SQLException {
+            this.name = name;
+            statement = connection.createStatement();
+            result = statement.executeQuery("SELECT sql FROM "
+                    + "sqlite_master WHERE type = 'table' AND name = '"
+                    + name + "'");
+            if (result.next()) {
+                definition = result.getString(1);
+            }
+            result.close();
+            result = null;
+            if (definition != null) {
+                result = statement.executeQuery("SELECT * FROM " + name
+                        + " ORDER BY 1");
+                ResultSetMetaData meta = result.getMetaData();
+                columns = new String[meta.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = meta.getColumnName(i + 1);
+                }
+            }
+        }
+
+        /**
+         * Advances to the next row.
+         */
+        void next() throws SQLException {
+            valid = result != null && result.next();
+            if (!valid) {
+                return;
+            }
+            values = new Object[columns.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = result.getObject(i + 1);
+            }
+            key = values[0];
+        }
+
+        void close() throws SQLException {
+            if (result != null) {
+                result.close();
+            }
+            statement.close();
+        }
+    }
+
+    /**
+     * Reads the rows of a database one at a time, in key order, and
+     * accumulates their content checksum.
+     */
+    private class RowCursor {
+        private final Statement statement;
+        private final ResultSet result;
+        private final MessageDigest digest;
+        private final int keyIndex;
+        final Connection connection;
+        final Object[] values = new Object[table.columns.length];
+        boolean valid;
+        int id;
+        String key;
+        String text;
+        int occurrence;
+        int count;
+
+        RowCursor(Connection connection) throws SQLException,
+                NoSuchAlgorithmException {
+            StringBuilder sql = new StringBuilder("SELECT t._id");
+            for (String column : table.columns) {
+                sql.append(", t.").append(column);
+            }
+            sql.append(", f.text FROM ").append(table.name)
+                    .append(" t LEFT JOIN ").append(table.fts)
+                    .append(" f ON f.docid = t._id ORDER BY t.")
+                    .append(table.key).append(", t._id");
+            this.connection = connection;
+            statement = connection.createStatement();
+            result = statement.executeQuery(sql.toString());
+            digest = MessageDigest.getInstance("SHA-1");
+            keyIndex = Arrays.asList(table.columns).indexOf(table.key);
+        }
+
+        /**
+         * Advances to the next row.
+         */
+        void next() throws SQLException, UnsupportedEncodingException {
+            valid = result.next();
+            if (!valid) {
+                return;
+            }
+            id = result.getInt(1);
+            for (int i = 0; i < values.length; i++) {
+                // Compressed entries are stored as BLOBs.
+                values[i] = result.getObject(i + 2);
+            }
+            text = result.getString(values.length + 2);
+
+            String previous = key;
+            key = values[keyIndex] == null ? null : values[keyIndex]
+                    .toString();
+            occurrence = count > 0 && equal(key, previous) ? occurrence + 1
+                    : 0;
+            count++;
+
+            update(Integer.toString(id));
+            for (Object value : values) {
+                update(value);
+            }
+            update(text);
+        }
+
+        /**
+         * Compares the current rows of two cursors by key, then by position
+         * among the rows sharing that key.
+         */
+        int compareTo(RowCursor other) {
+            int cmp = compareText(key, other.key);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return occurrence - other.occurrence;
+        }
+
+        String checksum() {
+            return ContentHash.toHex(digest.digest());
+        }
+
+        void close() throws SQLException {
+            result.close();
+            statement.close();
+        }
+
+        private void update(Object value) throws UnsupportedEncodingException {
+            if (value == null) {
+                digest.update((byte) 1);
+            } else {
+                digest.update(value instanceof byte[] ? (byte[]) value : value
+                        .toString().getBytes("UTF-8"));
+                digest.update((byte) 0);
+            }
+        }
+    }
+}
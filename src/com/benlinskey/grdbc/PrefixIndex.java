@@ -0,0 +1,208 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds a table of every prefix of the lookup keys in a table, so that
+ * "starts with" lookups typed one letter at a time can be answered with a
+ * single primary-key probe rather than a scan.
+ * <p>
+ * Each row of the prefix table holds a prefix of at most
+ * <code>MAX_LENGTH</code> letters, the number of rows whose keys begin with
+ * it, and the <code>_id</code> values of the first <code>MAX_IDS</code> of
+ * those rows in key order, separated by commas. When more rows match than
+ * the table lists, or the text typed is longer than
+ * <code>MAX_LENGTH</code>, the rows can be read in order from the index on
+ * the key column instead.
+ * <p>
+ * So that each prefix is stored only once, rows are keyed by an
+ * <code>INTEGER PRIMARY KEY</code> derived from the prefix (see
+ * <code>getId</code>) rather than by the prefix itself, which would need an
+ * index holding a second copy of every prefix. A client normalizes the text
+ * typed so far with <code>SearchText.toKey</code>, computes its id, and
+ * reads the rows from that id upwards, while there is one, until it finds
+ * the row holding its prefix: ids that collide are moved to the next free
+ * id. A prefix that is not in the table matches no rows.
+ * <p>
+ * The table is derived entirely from the key column, so it is rebuilt from
+ * scratch whenever the keys may have changed.
+ * 
+ * @author Ben Linskey
+ */
+public class PrefixIndex {
+    public final static int MAX_IDS = 20;
+    public final static int MAX_LENGTH = 6;
+
+    private final BulkLoader loader;
+
+    /**
+     * Class constructor.
+     * 
+     * @param loader
+     *            the loader of the database to index
+     */
+    public PrefixIndex(BulkLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the name of the prefix table of the specified table.
+     * 
+     * @param table
+     *            the name of the indexed table
+     * @return the name of its prefix table
+     */
+    public static String getTableName(String table) {
+        return table + "_prefixes";
+    }
+
+    /**
+     * Returns the id of the row that holds the specified prefix, unless it
+     * collides with that of another prefix: the first eight bytes of the
+     * SHA-1 hash of the prefix, encoded as UTF-8, as a signed big-endian
+     * integer.
+     * 
+     * @param prefix
+     *            a prefix of a normalized key
+     * @return the id of its row
+     */
+    public static long getId(String prefix) {
+        String hash = ContentHash.of(prefix);
+        return Long.parseLong(hash.substring(0, 8), 16) << 32
+                | Long.parseLong(hash.substring(8, 16), 16);
+    }
+
+    /**
+     * Replaces the prefix table of the specified table with one built from
+     * its current keys.
+     * 
+     * @param table
+     *            the table to index, which must have an <code>_id</code>
+     *            column
+     * @param column
+     *            the column holding normalized lookup keys
+     * @throws SQLException
+     */
+    public void build(String table, String column) throws SQLException {
+        System.out.println("Creating prefix index...");
+        String prefixTable = getTableName(table);
+        loader.execute("DROP TABLE IF EXISTS " + prefixTable, "CREATE TABLE "
+                + prefixTable + " (id INTEGER PRIMARY KEY, prefix TEXT, "
+                + "count INTEGER, ids TEXT)");
+
+        // The keys are read in full before any rows are written, since a
+        // transaction cannot be committed while a query is still reading
+        // from it.
+        List<String> keys = new ArrayList<String>();
+        List<Integer> ids = new ArrayList<Integer>();
+        Statement select = loader.getConnection().createStatement();
+        ResultSet rs = select.executeQuery("SELECT _id, " + column + " FROM "
+                + table + " WHERE " + column + " <> '' ORDER BY " + column
+                + ", _id");
+        while (rs.next()) {
+            ids.add(rs.getInt(1));
+            keys.add(rs.getString(2));
+        }
+        rs.close();
+        select.close();
+
+        PreparedStatement insert = loader.prepareInsert("INSERT INTO "
+                + prefixTable + " (id, prefix, count, ids) "
+                + "VALUES (?, ?, ?, ?)");
+        Set<Long> used = new HashSet<Long>();
+
+        // Since the keys are sorted, the keys beginning with any prefix are
+        // consecutive. Each prefix of the previous key stays open until a key
+        // that does not share it is reached; open prefixes are held by
+        // length.
+        List<Prefix> open = new ArrayList<Prefix>();
+        String previous = "";
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            int shared = commonPrefixLength(previous, key);
+            while (open.size() > shared) {
+                open.remove(open.size() - 1).write(insert, used);
+            }
+            int end = Math.min(key.length(), MAX_LENGTH);
+            for (int length = shared + 1; length <= end; length++) {
+                open.add(new Prefix(key.substring(0, length)));
+            }
+            for (Prefix prefix : open) {
+                prefix.add(ids.get(i));
+            }
+            previous = key;
+        }
+        while (!open.isEmpty()) {
+            open.remove(open.size() - 1).write(insert, used);
+        }
+        loader.flush();
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A prefix whose matching rows are still being counted.
+     */
+    private class Prefix {
+        final String prefix;
+        final StringBuilder ids = new StringBuilder();
+        int count;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        void add(int id) {
+            if (count < MAX_IDS) {
+                if (count > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+            count++;
+        }
+
+        void write(PreparedStatement insert, Set<Long> used)
+                throws SQLException {
+            long id = getId(prefix);
+            while (!used.add(id)) {
+                id++;
+            }
+            insert.setLong(1, id);
+            insert.setString(2, prefix);
+            insert.setInt(3, count);
+            insert.setString(4, ids.toString());
+            loader.addRow(insert);
+        }
+    }
+}
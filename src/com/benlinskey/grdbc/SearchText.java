@@ -0,0 +1,108 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.text.Normalizer;
+
+/**
+ * Normalizes Greek and English text for full-text search.
+ * <p>
+ * The SQLite FTS "simple" tokenizer only folds the case of ASCII letters and
+ * treats every non-ASCII character as part of a word, so text is normalized
+ * before it is indexed: diacritics are removed, letters are lowercased, final
+ * sigma becomes medial sigma, and everything other than letters and digits
+ * becomes a single space. Search queries must be normalized the same way
+ * before they are matched against the index.
+ * <p>
+ * Headwords are normalized the same way into lookup keys, which are stored
+ * alongside the lexicon entries and indexed for exact and prefix lookups.
+ * 
+ * @author Ben Linskey
+ */
+public class SearchText {
+    private final static char FINAL_SIGMA = '\u03c2';
+    private final static char SIGMA = '\u03c3';
+
+    private SearchText() {
+    }
+
+    /**
+     * Normalizes the specified text for indexing or searching.
+     * 
+     * @param text
+     *            the text to normalize
+     * @return the normalized text, with words separated by single spaces
+     */
+    public static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean space = true;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                c = Character.toLowerCase(c);
+                normalized.append(c == FINAL_SIGMA ? SIGMA : c);
+                space = false;
+            } else if (!space && !isMark(c)) {
+                normalized.append(' ');
+                space = true;
+            }
+        }
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' ') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Normalizes a headword for use as a lookup key. The word is normalized
+     * as for searching, except that everything other than letters is
+     * dropped, so that the keys of all spellings of a word that differ only
+     * in diacritics, case, or final sigma are equal and sort together.
+     * 
+     * @param word
+     *            the word to normalize
+     * @return the lookup key
+     */
+    public static String toKey(String word) {
+        String decomposed = Normalizer.normalize(word, Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetter(c)) {
+                c = Character.toLowerCase(c);
+                key.append(c == FINAL_SIGMA ? SIGMA : c);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns true if the specified character is a combining mark, such as an
+     * accent or breathing separated from its letter by decomposition.
+     * 
+     * @param c
+     *            a character
+     * @return <code>true</code> if the character is a combining mark
+     */
+    private static boolean isMark(char c) {
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK
+                || type == Character.COMBINING_SPACING_MARK
+                || type == Character.ENCLOSING_MARK;
+    }
+}
@@ -0,0 +1,197 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A read-only snapshot of a lexicon or syntax database, written by
+ * <code>SnapshotSink</code> and mapped into memory for lookups. Opening a
+ * snapshot reads nothing but its header; the operating system pages in the
+ * parts that lookups touch.
+ * <p>
+ * A snapshot holds, in this order, all big-endian:
+ * <ul>
+ * <li>a 32-byte header: the magic number, the format version, the number of
+ * rows, the length of the key data, and the offset and length of the body
+ * data (the last two as longs)</li>
+ * <li>a table of 24 bytes per row, sorted by key: the offset and length of
+ * the row's key within the key data, its <code>_id</code>, the length of its
+ * body, and the offset of its body within the body data (a long)</li>
+ * <li>the key data: the UTF-8 bytes of every key, in table order</li>
+ * <li>the body data, starting at a multiple of 8 bytes: the UTF-8 XML of
+ * every row, in source order</li>
+ * </ul>
+ * Keys are compared as unsigned bytes, which for UTF-8 is the order of their
+ * code points; rows with equal keys are in order of <code>_id</code>.
+ * Snapshots larger than 2 GB cannot be mapped.
+ * 
+ * @author Ben Linskey
+ */
+public class Snapshot {
+    final static int MAGIC = 0x4752534e;
+    final static int VERSION = 1;
+    final static int HEADER_BYTES = 32;
+    final static int ROW_BYTES = 24;
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int keyStart;
+    private final long bodyStart;
+
+    private Snapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a snapshot, or of another version.");
+        }
+        count = buffer.getInt(8);
+        keyStart = HEADER_BYTES + count * ROW_BYTES;
+        bodyStart = buffer.getLong(16);
+    }
+
+    /**
+     * Maps the specified snapshot into memory.
+     * 
+     * @param path
+     *            the path of the snapshot
+     * @return the snapshot
+     * @throws IOException
+     *             if the file cannot be mapped or is not a snapshot
+     */
+    public static Snapshot open(String path) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            // The mapping stays valid after the file is closed.
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map.");
+            }
+            return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param i
+     *            the position of a row in key order, from 0
+     * @return the row's key
+     */
+    public String getKey(int i) {
+        return decode(keyStart + buffer.getInt(row(i)),
+                buffer.getInt(row(i) + 4));
+    }
+
+    /**
+     * @param i
+     *            the position of a row in key order, from 0
+     * @return the row's <code>_id</code>
+     */
+    public int getId(int i) {
+        return buffer.getInt(row(i) + 8);
+    }
+
+    /**
+     * @param i
+     *            the position of a row in key order, from 0
+     * @return the XML of the row's entry or section
+     */
+    public String getBody(int i) {
+        return decode((int) (bodyStart + buffer.getLong(row(i) + 16)),
+                buffer.getInt(row(i) + 12));
+    }
+
+    /**
+     * Returns the position of the first row whose key is not less than the
+     * specified key. The rows whose keys begin with a prefix start at the
+     * position of the prefix.
+     * 
+     * @param key
+     *            the key to look for
+     * @return the position of the first row whose key is equal to or greater
+     *         than the key, or the number of rows if there is none
+     */
+    public int lowerBound(String key) {
+        byte[] bytes = key.getBytes(UTF8);
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, bytes) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the first row with the specified key.
+     * 
+     * @param key
+     *            the key to look for
+     * @return the position of the first matching row, or -1 if there is none
+     */
+    public int find(String key) {
+        int i = lowerBound(key);
+        return i < count && compare(i, key.getBytes(UTF8)) == 0 ? i : -1;
+    }
+
+    private int row(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Row " + i + " of " + count);
+        }
+        return HEADER_BYTES + i * ROW_BYTES;
+    }
+
+    /**
+     * Compares the key of a row with the specified bytes.
+     */
+    private int compare(int i, byte[] key) {
+        int start = keyStart + buffer.getInt(row(i));
+        int length = buffer.getInt(row(i) + 4);
+        int n = Math.min(length, key.length);
+        for (int j = 0; j < n; j++) {
+            int c = (buffer.get(start + j) & 0xff) - (key[j] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    private String decode(int start, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(start + length);
+        slice.position(start);
+        return UTF8.decode(slice).toString();
+    }
+}
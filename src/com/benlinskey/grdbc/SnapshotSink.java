@@ -0,0 +1,177 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes a snapshot of the rows, sorted by key, for lookups by a server that
+ * maps it into memory (see <code>Snapshot</code>).
+ * <p>
+ * Bodies are written to a temporary file as they arrive, and only the keys
+ * and the position of each body are kept in memory. Once every row has been
+ * written, the keys are sorted and the snapshot is assembled from them and
+ * the temporary file under a temporary name, which is renamed when it is
+ * complete.
+ * 
+ * @author Ben Linskey
+ */
+public class SnapshotSink implements OutputSink {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File bodyFile;
+    private final OutputStream bodies;
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+    private int[] ids = new int[1024];
+    private long[] bodyOffsets = new long[1024];
+    private int[] bodyLengths = new int[1024];
+    private long bodyBytes;
+    private int count;
+
+    /**
+     * Class constructor.
+     * 
+     * @param path
+     *            the path of the snapshot to write
+     * @throws IOException
+     */
+    public SnapshotSink(String path) throws IOException {
+        file = new File(path);
+        bodyFile = new File(path + ".body.tmp");
+        bodies = new BufferedOutputStream(new FileOutputStream(bodyFile),
+                65536);
+    }
+
+    @Override
+    public void write(OutputRecord record) throws IOException, SQLException {
+        byte[] body = record.getXml().getBytes(UTF8);
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            bodyOffsets = Arrays.copyOf(bodyOffsets, count * 2);
+            bodyLengths = Arrays.copyOf(bodyLengths, count * 2);
+        }
+        String key = record.getKey();
+        keys.add(key == null ? new byte[0] : key.getBytes(UTF8));
+        ids[count] = record.getId();
+        bodyOffsets[count] = bodyBytes;
+        bodyLengths[count] = body.length;
+        bodies.write(body);
+        bodyBytes += body.length;
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bodies.close();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = compareBytes(keys.get(a), keys.get(b));
+                return c != 0 ? c : ids[a] - ids[b];
+            }
+        });
+
+        long keyBytes = 0;
+        for (byte[] key : keys) {
+            keyBytes += key.length;
+        }
+        long tableEnd = Snapshot.HEADER_BYTES + (long) count
+                * Snapshot.ROW_BYTES;
+        long bodyStart = (tableEnd + keyBytes + 7) & ~7L;
+        if (bodyStart + bodyBytes > Integer.MAX_VALUE) {
+            throw new IOException("The snapshot would be too large to map.");
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), 65536));
+        try {
+            out.writeInt(Snapshot.MAGIC);
+            out.writeInt(Snapshot.VERSION);
+            out.writeInt(count);
+            out.writeInt((int) keyBytes);
+            out.writeLong(bodyStart);
+            out.writeLong(bodyBytes);
+            int keyOffset = 0;
+            for (int i : order) {
+                out.writeInt(keyOffset);
+                out.writeInt(keys.get(i).length);
+                out.writeInt(ids[i]);
+                out.writeInt(bodyLengths[i]);
+                out.writeLong(bodyOffsets[i]);
+                keyOffset += keys.get(i).length;
+            }
+            for (int i : order) {
+                out.write(keys.get(i));
+            }
+            for (long i = tableEnd + keyBytes; i < bodyStart; i++) {
+                out.write(0);
+            }
+            InputStream in = new BufferedInputStream(new FileInputStream(
+                    bodyFile));
+            try {
+                byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+            bodyFile.delete();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file + ".");
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + ".");
+        }
+        System.out.println(count + " rows written to " + file + ".");
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,351 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The byte offset and length of every element with a given name in a source
+ * text, along with the value of one of its attributes, such as the
+ * <code>key</code> of each lexicon entry. With the index, any element can be
+ * read straight from the mapped file, and the elements can be divided into
+ * partitions of about the same size for worker threads, without scanning the
+ * text.
+ * <p>
+ * The index is built with an <code>ElementSlicer</code> and cached in a
+ * sidecar file next to the source, named after the source and the element,
+ * such as <code>Perseus_text_1999.04.0058.xml.entry.idx</code>. The sidecar
+ * records the size, modification time and SHA-1 hash of the source. It is
+ * used without further checks while the size and modification time match;
+ * if only the modification time differs, the source is hashed, and the index
+ * is kept if the hash still matches. Otherwise the index is rebuilt. An index
+ * that cannot be saved, for instance because the directory is read-only, is
+ * simply rebuilt on every run.
+ * 
+ * @author Ben Linskey
+ */
+public class SourceIndex {
+    private final static int MAGIC = 0x47524958;
+    private final static int VERSION = 1;
+
+    private final MappedXmlFile file;
+    private final String element;
+    private final String attribute;
+    private int[] offsets = new int[1024];
+    private int[] lengths = new int[1024];
+    private String[] values = new String[1024];
+    private int count;
+    private String hash;
+
+    private SourceIndex(MappedXmlFile file, String element, String attribute) {
+        this.file = file;
+        this.element = element;
+        this.attribute = attribute;
+    }
+
+    /**
+     * Returns the index of the specified elements of a source text, loading
+     * it from its sidecar file if that is still valid, and otherwise building
+     * it and saving it.
+     * 
+     * @param file
+     *            the source text
+     * @param element
+     *            the name of the elements to index
+     * @param attribute
+     *            the name of the attribute whose value is recorded for each
+     *            element
+     * @return the index
+     * @throws IOException
+     *             if the source cannot be read
+     * @throws XMLStreamException
+     *             if an element in the source is not closed
+     */
+    public static SourceIndex open(MappedXmlFile file, String element,
+            String attribute) throws IOException, XMLStreamException {
+        SourceIndex index = new SourceIndex(file, element, attribute);
+        File sidecar = new File(getPath(file.getPath(), element));
+        long modified = new File(file.getPath()).lastModified();
+        try {
+            switch (index.load(sidecar, modified)) {
+            case VALID:
+                return index;
+            case TOUCHED:
+                index.save(sidecar, modified);
+                return index;
+            default:
+                break;
+            }
+        } catch (FileNotFoundException e) {
+            // Not indexed yet.
+        } catch (EOFException e) {
+            System.out.println("Ignoring truncated index " + sidecar + ".");
+        }
+
+        System.out.println("Indexing " + file.getPath() + "...");
+        index.build();
+        try {
+            index.save(sidecar, modified);
+        } catch (IOException e) {
+            System.out.println("Could not save index " + sidecar + ": "
+                    + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Returns the path of the sidecar file holding an index.
+     * 
+     * @param source
+     *            the path of the source text
+     * @param element
+     *            the name of the indexed elements
+     * @return the path of the index
+     */
+    public static String getPath(String source, String element) {
+        return source + "." + element + ".idx";
+    }
+
+    private enum Status {
+        VALID, TOUCHED, STALE
+    }
+
+    /**
+     * Loads the index from its sidecar file, if it is an index of the current
+     * source.
+     * 
+     * @return whether the loaded index is valid as it is, is valid but was
+     *         saved with a different modification time, or is stale and has
+     *         not been loaded
+     * @throws IOException
+     */
+    private Status load(File sidecar, long modified) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(element)
+                    || !in.readUTF().equals(attribute)
+                    || in.readLong() != file.size()) {
+                return Status.STALE;
+            }
+            long savedModified = in.readLong();
+            String savedHash = in.readUTF();
+            Status status = Status.VALID;
+            if (savedModified != modified) {
+                if (!savedHash.equals(hashSource())) {
+                    return Status.STALE;
+                }
+                status = Status.TOUCHED;
+            }
+
+            hash = savedHash;
+            count = in.readInt();
+            offsets = new int[count];
+            lengths = new int[count];
+            values = new String[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readInt();
+                lengths[i] = in.readInt();
+                values[i] = in.readBoolean() ? in.readUTF() : null;
+            }
+            return status;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void save(File sidecar, long modified) throws IOException {
+        getHash();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sidecar)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(element);
+            out.writeUTF(attribute);
+            out.writeLong(file.size());
+            out.writeLong(modified);
+            out.writeUTF(hash);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeBoolean(values[i] != null);
+                if (values[i] != null) {
+                    out.writeUTF(values[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private String hashSource() {
+        return ContentHash.of("", file.getBuffer());
+    }
+
+    /**
+     * Scans the source for the indexed elements.
+     * 
+     * @throws XMLStreamException
+     */
+    private void build() throws XMLStreamException {
+        ElementSlicer in = new ElementSlicer(file.getBuffer(), element);
+        count = 0;
+        while (in.next()) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            offsets[count] = in.getStart();
+            lengths[count] = in.getEnd() - in.getStart();
+            values[count] = in.getAttribute(attribute);
+            count++;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the source, which identifies the version of
+     * the text that was indexed.
+     * 
+     * @return the hash of the source
+     */
+    public String getHash() {
+        if (hash == null) {
+            hash = hashSource();
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the position of the element at the specified offset.
+     * 
+     * @param offset
+     *            the offset of an element's start tag in bytes
+     * @return the position of the element, or -1 if no element starts at the
+     *         offset
+     */
+    public int find(int offset) {
+        int i = Arrays.binarySearch(offsets, 0, count, offset);
+        return i >= 0 ? i : -1;
+    }
+
+    /**
+     * Returns the number of elements in the source.
+     * 
+     * @return the number of indexed elements
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the offset of an element in the source.
+     * 
+     * @param i
+     *            the position of the element in the source, from 0
+     * @return the offset of the element's start tag in bytes
+     */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns the length of an element in the source.
+     * 
+     * @param i
+     *            the position of the element in the source, from 0
+     * @return the length of the element in bytes
+     */
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Returns the value of the indexed attribute of an element.
+     * 
+     * @param i
+     *            the position of the element in the source, from 0
+     * @return the value of the attribute, or <code>null</code> if the element
+     *         has no such attribute
+     */
+    public String getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns the bytes of an element, read from the mapped source.
+     * 
+     * @param i
+     *            the position of the element in the source, from 0
+     * @return a buffer whose contents are the element
+     */
+    public ByteBuffer getSlice(int i) {
+        ByteBuffer slice = file.getBuffer();
+        slice.limit(offsets[i] + lengths[i]);
+        slice.position(offsets[i]);
+        return slice.slice();
+    }
+
+    /**
+     * Divides the elements from the specified position onward into
+     * consecutive partitions holding about the same number of bytes. Fewer
+     * partitions are returned if there are fewer elements than requested
+     * partitions.
+     * 
+     * @param from
+     *            the position of the first element to include
+     * @param partitions
+     *            the number of partitions wanted
+     * @return the position of the first element of each partition, followed
+     *         by the number of elements
+     */
+    public int[] partition(int from, int partitions) {
+        partitions = Math.max(1, Math.min(partitions, count - from));
+        if (from >= count) {
+            return new int[] { count };
+        }
+        long first = offsets[from];
+        long total = offsets[count - 1] + lengths[count - 1] - first;
+        int[] bounds = new int[partitions + 1];
+        bounds[0] = from;
+        int n = 1;
+        for (int i = from + 1; i < count && n < partitions; i++) {
+            // Start a new partition at the first element past its share of
+            // the bytes.
+            if ((offsets[i] - first) * partitions >= total * n) {
+                bounds[n++] = i;
+            }
+        }
+        bounds[n] = count;
+        return n == partitions ? bounds : Arrays.copyOf(bounds, n + 1);
+    }
+}
@@ -15,24 +15,26 @@
 
 package com.benlinskey.grdbc;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Reads in an XML file containing the Overview of Greek Syntax text and stores
  * sections of the text in an SQLite database.
+ * <p>
+ * In a lenient build, a section that cannot be transcoded is recorded in the
+ * <code>build_errors</code> table of <code>syntax-build.db</code> and skipped
+ * (see <code>BuildErrors</code>).
+ * The text is read as a single stream, which cannot go on past malformed XML,
+ * so a parse error still stops the build.
+ * <p>
+ * Each section is handed to the database and to any other outputs requested
+ * (see <code>OutputSink</code>) as soon as it has been transcoded.
  * 
  * @author Ben Linskey
  * 
@@ -40,47 +42,84 @@ import org.xml.sax.SAXException;
 public class SyntaxCreator {
     private final static String FILE = "../xml/Perseus_text_1999.04.0052.xml";
     private final static String DB = "syntax.db";
+    private final static String PROFILE = "syntax-profile.json";
     private final static String TABLE_NAME = "syntax";
-    private Connection connection;
+    private final static String FTS_TABLE_NAME = "syntax_fts";
+    private final static String SOURCES_CITED = "Sources Cited";
+    private final static String[] COLUMNS = { "chapter", "section", "xml" };
+    private final SyntaxParser parser = new SyntaxParser();
+    private final List<OutputSink> sinks = new ArrayList<OutputSink>();
+    private BulkLoader loader;
+    private EntryCompressor compressor;
+    private TagDictionary tags;
+    private BuildProfile profile;
+    private BuildErrors errors;
     private PreparedStatement insertStatement;
+    private PreparedStatement ftsInsertStatement;
+    private int nextId = 1;
 
     /**
-     * Class constructor.
+     * Class constructor. Creates a creator with the default options.
      */
     public SyntaxCreator() {
-        // Load driver.
+        this(new BuildOptions());
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param options
+     *            the options for the build
+     */
+    public SyntaxCreator(BuildOptions options) {
+        profile = new BuildProfile(DB, options.isProfiled());
+        profile.begin();
+        parser.setProfile(profile);
+
+        // Connect to database.
         try {
-            Class.forName("org.sqlite.JDBC");
+            loader = new BulkLoader(DB);
+            loader.setProfile(profile);
+            loader.attachState();
         } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (SQLException e) {
+            throw new BuildException(e);
         }
 
-        // Connect to database.
+        createDatabase();
+
         try {
-            connection = DriverManager.getConnection("jdbc:sqlite:" + DB);
+            errors = new BuildErrors(loader, DB, options);
+            errors.reset();
+            if (options.isCompressed()) {
+                compressor = new EntryCompressor(loader);
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        }
+        if (options.isBinary()) {
+            tags = new TagDictionary();
+            parser.setTagDictionary(tags);
         }
 
-        // Use batch inserts for speed.
+        // Create prepared statements to use when inserting entries.
         try {
-            connection.setAutoCommit(false);
+            insertStatement = loader.prepareInsert("INSERT INTO "
+                    + TABLE_NAME + " VALUES (?, ?, ?, ?)");
+            ftsInsertStatement = loader.prepareInsert("INSERT INTO "
+                    + FTS_TABLE_NAME + " (docid, text) VALUES (?, ?)");
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
         }
 
-        createDatabase();
-
-        // Create a prepared statement to use when inserting entries.
+        sinks.add(new DatabaseSink());
         try {
-            insertStatement = connection.prepareStatement("INSERT INTO "
-                    + TABLE_NAME + " VALUES (NULL, ?, ?, ?)");
-        } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            for (OutputFormat format : options.getOutputs()) {
+                sinks.add(format.open(format.getPath(DB)));
+            }
+        } catch (IOException e) {
+            throw new BuildException(e);
         }
     }
 
@@ -89,13 +128,38 @@ public class SyntaxCreator {
      */
     public void run() {
         addSections();
+        errors.printSummary();
         try {
-            insertStatement.close();
-            connection.close();
+            long start = profile.start();
+            for (OutputSink sink : sinks) {
+                sink.close();
+            }
+            profile.stop("output", start);
+            if (tags != null) {
+                Metadata.put(loader, Metadata.TAGS, tags.encode());
+            }
+            if (compressor != null) {
+                start = profile.start();
+                compressor.compress(TABLE_NAME, "xml");
+                profile.stop("compress", start);
+            }
+
+            // Merge the full-text index into a single b-tree.
+            start = profile.start();
+            loader.execute("INSERT INTO " + FTS_TABLE_NAME + " ("
+                    + FTS_TABLE_NAME + ") VALUES ('optimize')");
+            profile.stop("index", start);
+            start = profile.start();
+            loader.close();
+            profile.stop("optimize", start);
+            profile.end();
+            profile.writeReport(PROFILE);
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (IOException e) {
+            throw new BuildException(e);
         }
+        System.out.println(GreekTextParser.getTranscodingCache());
         System.out.println("Done.");
     }
 
@@ -104,21 +168,25 @@ public class SyntaxCreator {
      * database.
      */
     private void createDatabase() {
-        System.out.println("Creating lexicon database...");
+        System.out.println("Creating syntax database...");
         try {
             String dropTable = "DROP TABLE IF EXISTS " + TABLE_NAME;
             String createTable = "CREATE TABLE " + TABLE_NAME + " ("
                     + "_id 			INTEGER PRIMARY KEY, "
                     + "chapter	 	VARCHAR(100), " + "section	 	VARCHAR(100), "
                     + "xml			TEXT)";
-            Statement statement = connection.createStatement();
-            statement.executeUpdate(dropTable);
-            statement.executeUpdate(createTable);
-            connection.commit();
-            statement.close();
+
+            // The full-text index holds the normalized text of each section,
+            // keyed by the section's _id.
+            String dropFtsTable = "DROP TABLE IF EXISTS " + FTS_TABLE_NAME;
+            String createFtsTable = "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME
+                    + " USING fts4(text, tokenize=simple)";
+            String dropMetadataTable = "DROP TABLE IF EXISTS "
+                    + Metadata.TABLE_NAME;
+            loader.execute(dropTable, createTable, dropFtsTable,
+                    createFtsTable, dropMetadataTable);
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
         }
     }
 
@@ -130,91 +198,98 @@ public class SyntaxCreator {
         System.out.println("Inserting data...");
 
         String chapter = null;
-        String section = null;
-        StringBuilder xml = new StringBuilder();
-        Pattern pattern = Pattern.compile("<head>(.*?)</head>");
 
         try {
-            BufferedReader in = new BufferedReader(new FileReader(FILE));
-            while (in.ready()) {
-                String line = in.readLine();
-                if (line.startsWith("<div1")) {
-                    // Get chapter title.
-                    line = in.readLine(); // Next line is "head" element with
-                                          // title.
-                    Matcher matcher = pattern.matcher(line);
-                    matcher.find();
-                    chapter = matcher.group(1);
-
-                    if (chapter.equals("Sources Cited")) {
-                        section = chapter;
-                        xml.delete(0, xml.length());
-                        xml.append("<section>");
-                        xml.append("<head>Sources Cited</head>");
+            TeiReader in = new TeiReader(FILE);
+            while (in.nextElement("div1", "div2")) {
+                if (in.getName().equals("div1")) {
+                    chapter = in.readHead();
+
+                    // The list of sources has no subsections, so we store the
+                    // whole chapter as a single section.
+                    if (chapter.equals(SOURCES_CITED)) {
+                        addSection(in, chapter, chapter);
                     }
-                } else if (line.startsWith("<div2")) {
-                    // Get section title.
-                    line = in.readLine(); // Next line is "head" element with
-                                          // title.
-                    Matcher matcher = pattern.matcher(line);
-                    matcher.find();
-                    section = matcher.group(1);
-
-                    // Reset XML and add "head" element.
-                    xml.delete(0, xml.length());
-                    xml.append("<section>");
-                    xml.append(line);
-                } else if (line.contains("</div2>")) {
-                    // Get any XML before the "</div2>" tag.
-                    String[] split = line.split("</div2>");
-                    xml.append(split[0]);
-
-                    // Add closing root tag.
-                    xml.append("</section>");
-
-                    SyntaxParser parser = new SyntaxParser(xml.toString());
-                    String transcodedXml = parser.transcode();
-
-                    // Add data to database.
-                    insertStatement.setString(1, chapter);
-                    insertStatement.setString(2, section);
-                    insertStatement.setString(3, transcodedXml);
-                    insertStatement.addBatch();
-                } else if (line.contains("</div1>")
-                        && chapter.equals("Sources Cited")) {
-                    // Get any XML before the "</div2>" tag.
-                    String[] split = line.split("</div1>");
-                    xml.append(split[0]);
-
-                    // Add closing root tag.
-                    xml.append("</section>");
-
-                    // Add data to database.
-                    insertStatement.setString(1, chapter);
-                    insertStatement.setString(2, section);
-                    insertStatement.setString(3, xml.toString());
-                    insertStatement.addBatch();
                 } else {
-                    // Get next line of XML.
-                    xml.append(line);
+                    addSection(in, chapter, in.readHead());
                 }
             }
             in.close();
 
-            insertStatement.executeBatch();
-            connection.commit();
+            loader.flush();
         } catch (SQLException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
-            System.exit(1);
-        } catch (SAXException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new BuildException(e);
+        } catch (XMLStreamException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Transcodes the remaining content of the current division and adds it to
+     * the database as a section.
+     * 
+     * @param in
+     *            the reader, positioned after the division's head element
+     * @param chapter
+     *            the title of the chapter containing the section
+     * @param section
+     *            the title of the section
+     * @throws XMLStreamException
+     * @throws SQLException
+     */
+    private void addSection(TeiReader in, String chapter, String section)
+            throws XMLStreamException, SQLException, IOException {
+        long start = profile.start();
+        try {
+            parser.parse(in.getStreamReader(), section);
+        } catch (RuntimeException e) {
+            // The reader skips the rest of the section when it looks for the
+            // next one.
+            errors.record("parse", section, -1, null, e);
+            errors.write();
+            return;
+        }
+        profile.stop("parse", start);
+        profile.item(section, start);
+        start = profile.start();
+        OutputRecord record = new OutputRecord(nextId++, false, section,
+                COLUMNS, new Object[] { chapter, section,
+                        tags != null ? parser.getTagStream()
+                                : parser.transcode() },
+                SearchText.normalize(parser.getPlainText()), tags);
+        for (OutputSink sink : sinks) {
+            sink.write(record);
+        }
+        profile.stop("insert", start);
+    }
+
+    /**
+     * Writes sections to the syntax table and its full-text index.
+     */
+    private class DatabaseSink implements OutputSink {
+        @Override
+        public void write(OutputRecord record) throws SQLException {
+            insertStatement.setInt(1, record.getId());
+            insertStatement.setString(2, (String) record.getValue(0));
+            insertStatement.setString(3, (String) record.getValue(1));
+            Object value = record.getValue(2);
+            if (value instanceof byte[]) {
+                insertStatement.setBytes(4, (byte[]) value);
+            } else {
+                insertStatement.setString(4, (String) value);
+            }
+            loader.addRow(insertStatement);
+
+            ftsInsertStatement.setInt(1, record.getId());
+            ftsInsertStatement.setString(2, record.getSearchText());
+            loader.addRow(ftsInsertStatement);
+        }
+
+        @Override
+        public void close() {
+            // The database is compressed, indexed and closed afterwards.
         }
     }
 }
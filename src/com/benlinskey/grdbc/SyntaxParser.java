@@ -15,11 +15,9 @@
 
 package com.benlinskey.grdbc;
 
-import java.io.IOException;
-
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * Parses XML from the Overview of Greek Syntax text and converts Beta Code to
@@ -29,18 +27,76 @@ import org.xml.sax.SAXException;
  * 
  */
 public class SyntaxParser extends GreekTextParser {
+    private final static String[] GREEK_ELEMENTS = { "quote", "foreign" };
+
+    /**
+     * Class constructor. Creates a parser with no section; call one of the
+     * <code>parse</code> methods to parse a section.
+     */
+    public SyntaxParser() {
+        super();
+    }
+
     /**
      * Class constructor.
      * 
      * @param xml
      *            the XML to parse
-     * @throws ParserConfigurationException
-     * @throws SAXException
-     * @throws IOException
+     * @throws XMLStreamException
      */
-    public SyntaxParser(String xml) throws ParserConfigurationException,
-            SAXException, IOException {
-        super(xml);
+    public SyntaxParser(String xml) throws XMLStreamException {
+        super();
+        parse(xml);
+    }
+
+    /**
+     * Class constructor. Wraps the remaining content of the current division
+     * in a <code>section</code> element headed by the specified title.
+     * 
+     * @param reader
+     *            a reader positioned inside the division to parse, after its
+     *            <code>head</code> element; when the constructor returns, the
+     *            reader is positioned at the division's end tag
+     * @param title
+     *            the title of the section
+     * @throws XMLStreamException
+     */
+    public SyntaxParser(XMLStreamReader reader, String title)
+            throws XMLStreamException {
+        super();
+        parse(reader, title);
+    }
+
+    /**
+     * Wraps the remaining content of the current division in a
+     * <code>section</code> element headed by the specified title.
+     * 
+     * @param reader
+     *            a reader positioned inside the division to parse, after its
+     *            <code>head</code> element; when this method returns, the
+     *            reader is positioned at the division's end tag
+     * @param title
+     *            the title of the section
+     * @throws XMLStreamException
+     */
+    public void parse(XMLStreamReader reader, String title)
+            throws XMLStreamException {
+        startDocument();
+        XMLStreamWriter writer = getWriter();
+        writer.writeStartElement("section");
+        writer.writeStartElement("head");
+        writer.writeCharacters(title);
+        writer.writeEndElement();
+        appendText(title);
+        appendText(" ");
+        copyContent(reader);
+        writer.writeEndElement();
+        endDocument();
+    }
+
+    @Override
+    protected String[] getGreekElements() {
+        return GREEK_ELEMENTS;
     }
 
     /**
@@ -51,8 +107,6 @@ public class SyntaxParser extends GreekTextParser {
      *         characters
      */
     public String transcode() {
-        transcodeInElements("quote");
-        transcodeInElements("foreign");
         return getUpdatedXML();
     }
 }
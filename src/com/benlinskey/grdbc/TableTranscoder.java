@@ -0,0 +1,369 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import edu.unc.epidoc.transcoder.TransCoder;
+
+/**
+ * A table-driven <code>BetaCodeTranscoder</code> that produces the same output
+ * as the EpiDoc TransCoder's BetaCode parser and UnicodeC converter.
+ * <p>
+ * The character mappings are read once from the TransCoder's own property
+ * files, and the output for every ASCII character with every combination of
+ * diacritics is computed in advance. Transcoding is then a single pass over a
+ * <code>char[]</code> that appends precomputed strings to a reused buffer.
+ * Rare sequences (escape codes, diacritics on non-ASCII characters) are
+ * handled by a slower path that follows the TransCoder's rules literally.
+ * <p>
+ * Instances are cheap to create but must not be shared between threads.
+ * 
+ * @author Ben Linskey
+ */
+public class TableTranscoder implements BetaCodeTranscoder {
+    private final static String UNRECOGNIZED = "?";
+    private final static String DIACRITICS = "()+/=\\|";
+    private final static int ASCII = 128;
+
+    // Mappings from the TransCoder's property files.
+    private final static Map<String, String> BETA_CODE;
+    private final static Map<String, String> COMPOSED;
+    private final static Map<String, String> DECOMPOSED;
+
+    // Diacritic bit for each ASCII character, or -1.
+    private final static int[] DIACRITIC_BITS = new int[ASCII];
+
+    // Diacritic names, in the order in which the TransCoder sorts them.
+    private final static String[] DIACRITIC_NAMES;
+
+    // Output for each ASCII character and set of diacritics.
+    private final static String[][] SMALL;
+    private final static String[][] CAPITAL;
+    private final static String SIGMA_FINAL;
+    private final static String EMPTY;
+
+    static {
+        Properties accents;
+        try {
+            BETA_CODE = load("BetaCodeParser.properties");
+            COMPOSED = load("UnicodeCConverter.properties");
+            DECOMPOSED = load("UnicodeDConverter.properties");
+            accents = new Properties();
+            InputStream in = TransCoder.class
+                    .getResourceAsStream("GreekAccents.properties");
+            accents.load(in);
+            in.close();
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+
+        // Sort the diacritics by their accent keys, as the TransCoder does.
+        List<String> keys = new ArrayList<String>();
+        Map<String, String> names = new HashMap<String, String>();
+        for (int i = 0; i < DIACRITICS.length(); i++) {
+            String name = lookup(DIACRITICS.substring(i, i + 1));
+            String key = accents.getProperty(name);
+            keys.add(key);
+            names.put(key, name);
+        }
+        Collections.sort(keys);
+        DIACRITIC_NAMES = new String[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            DIACRITIC_NAMES[i] = names.get(keys.get(i));
+        }
+        for (int c = 0; c < ASCII; c++) {
+            DIACRITIC_BITS[c] = -1;
+        }
+        for (int i = 0; i < DIACRITICS.length(); i++) {
+            char c = DIACRITICS.charAt(i);
+            String key = accents.getProperty(lookup(String.valueOf(c)));
+            DIACRITIC_BITS[c] = keys.indexOf(key);
+        }
+
+        int combinations = 1 << DIACRITIC_NAMES.length;
+        SMALL = new String[ASCII][combinations];
+        CAPITAL = new String[ASCII][combinations];
+        for (char c = 0; c < ASCII; c++) {
+            for (int mask = 0; mask < combinations; mask++) {
+                SMALL[c][mask] = convert(lookup(c) + suffix(mask));
+                CAPITAL[c][mask] = convert(lookup("*" + c) + suffix(mask));
+            }
+        }
+        SIGMA_FINAL = convert(lookup("S2"));
+        EMPTY = convert("");
+    }
+
+    private char[] chars = new char[64];
+    private final StringBuilder out = new StringBuilder(64);
+
+    @Override
+    public String transcode(String beta) {
+        int n = beta.length();
+        if (chars.length < n) {
+            chars = new char[Math.max(n, chars.length * 2)];
+        }
+        beta.getChars(0, n, chars, 0);
+        out.setLength(0);
+        transcode(chars, n, out);
+        return out.toString();
+    }
+
+    /**
+     * Converts Beta Code to Greek characters.
+     * 
+     * @param in
+     *            the Beta Code to transcode
+     * @param n
+     *            the number of characters to transcode
+     * @param out
+     *            the buffer to which the Greek is appended
+     */
+    private static void transcode(char[] in, int n, StringBuilder out) {
+        int i = 0;
+        while (i < n) {
+            char ch = in[i++];
+
+            // Escape codes, capitals, and other prefixed characters.
+            if (i < n && isPrefix(ch)) {
+                char next = in[i];
+                if (Character.isDigit(next) || isPrefix(next)) {
+                    i = appendEscape(in, i, n, out);
+                    continue;
+                }
+                if (ch == '#' && Character.isLetter(next)) {
+                    out.append(SMALL[ch][0]);
+                    continue;
+                }
+                int mask = 0;
+                while (i < n && isDiacritic(in[i])) {
+                    mask |= 1 << DIACRITIC_BITS[in[i++]];
+                }
+                if (i < n) {
+                    char c = in[i++];
+                    if (ch == '*' && c < ASCII) {
+                        out.append(CAPITAL[c][mask]);
+                    } else {
+                        out.append(convert(lookup("" + ch + c) + suffix(mask)));
+                    }
+                } else {
+                    out.append(EMPTY);
+                }
+                continue;
+            }
+
+            // Sigma takes its final form at the end of a word.
+            if (ch == 'S' || ch == 's') {
+                if (i < n && Character.isDigit(in[i])) {
+                    out.append(convert(lookup("" + ch + in[i++])));
+                } else if (isTerminalSigma(in, i, n)) {
+                    out.append(SIGMA_FINAL);
+                } else {
+                    out.append(SMALL[ch][0]);
+                }
+                continue;
+            }
+
+            // Any other character, with the diacritics that follow it.
+            int mask = 0;
+            while (i < n && isDiacritic(in[i])) {
+                mask |= 1 << DIACRITIC_BITS[in[i++]];
+            }
+            if (ch < ASCII) {
+                out.append(SMALL[ch][mask]);
+            } else if (mask == 0) {
+                out.append(convert(lookup(ch)));
+            } else {
+                out.append(convert(lookup(ch) + suffix(mask)));
+            }
+        }
+    }
+
+    /**
+     * Appends the output for an escape code such as <code>%40</code> or
+     * <code>#3</code>. Unknown codes are reduced to their first character.
+     * 
+     * @param in
+     *            the Beta Code being transcoded
+     * @param i
+     *            the index of the character following the prefix
+     * @param n
+     *            the number of characters to transcode
+     * @param out
+     *            the buffer to which the output is appended
+     * @return the index of the next character to transcode
+     */
+    private static int appendEscape(char[] in, int i, int n, StringBuilder out) {
+        int start = i - 1;
+        if (isPrefix(in[i])) {
+            i++;
+        }
+        while (i < n && Character.isDigit(in[i])) {
+            i++;
+        }
+        String escape = new String(in, start, i - start);
+        if (lookup(escape).equals(escape)) {
+            i = start + 1;
+            escape = escape.substring(0, 1);
+        }
+        out.append(convert(lookup(escape)));
+        return i;
+    }
+
+    /**
+     * Returns true if a sigma followed by the specified position ends a word.
+     * 
+     * @param in
+     *            the Beta Code being transcoded
+     * @param i
+     *            the index of the character following the sigma
+     * @param n
+     *            the number of characters to transcode
+     * @return <code>true</code> if the sigma is final
+     */
+    private static boolean isTerminalSigma(char[] in, int i, int n) {
+        if (i >= n) {
+            return true;
+        }
+        for (int j = i; j < n; j++) {
+            char c = in[j];
+            if (Character.isWhitespace(c)) {
+                return true;
+            } else if (Character.isLetter(c) || c == '-') {
+                return false;
+            } else if (c == ',' || c == '.' || c == ':' || c == ';'
+                    || c == '_') {
+                return true;
+            } else if (c == '\'') {
+                return false;
+            } else if (j == n - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPrefix(char c) {
+        return c == '*' || c == '#' || c == '%';
+    }
+
+    private static boolean isDiacritic(char c) {
+        return c < ASCII && DIACRITIC_BITS[c] >= 0;
+    }
+
+    /**
+     * Returns the names of the diacritics in the specified set, each preceded
+     * by an underscore.
+     * 
+     * @param mask
+     *            a set of diacritic bits
+     * @return the diacritic names
+     */
+    private static String suffix(int mask) {
+        StringBuilder suffix = new StringBuilder();
+        for (int bit = 0; bit < DIACRITIC_NAMES.length; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                suffix.append('_').append(DIACRITIC_NAMES[bit]);
+            }
+        }
+        return suffix.toString();
+    }
+
+    /**
+     * Returns the name of the specified Beta Code character, ignoring case.
+     * 
+     * @param c
+     *            a Beta Code character
+     * @return the character's name, or the character itself if it has none
+     */
+    private static String lookup(char c) {
+        char key = Character.isLowerCase(c) ? Character.toUpperCase(c) : c;
+        String name = BETA_CODE.get(String.valueOf(key));
+        return name == null ? String.valueOf(c) : name;
+    }
+
+    /**
+     * Returns the name of the specified Beta Code sequence, ignoring case.
+     * 
+     * @param beta
+     *            a Beta Code sequence
+     * @return the sequence's name, or the sequence itself if it has none
+     */
+    private static String lookup(String beta) {
+        String name = BETA_CODE.get(beta.toUpperCase());
+        return name == null ? beta : name;
+    }
+
+    /**
+     * Converts a character name, optionally followed by diacritic names, to
+     * Unicode.
+     * 
+     * @param token
+     *            the names to convert, separated by underscores
+     * @return the Unicode equivalent
+     */
+    private static String convert(String token) {
+        if (token.length() <= 1) {
+            String composed = COMPOSED.get(token);
+            return composed == null ? token : composed;
+        }
+
+        String composed = COMPOSED.get(token);
+        if (composed != null) {
+            return composed;
+        }
+        if (token.indexOf('_') > 0) {
+            StringBuilder decomposed = new StringBuilder();
+            StringTokenizer parts = new StringTokenizer(token, "_");
+            while (parts.hasMoreTokens()) {
+                String part = DECOMPOSED.get(parts.nextToken());
+                decomposed.append(part == null ? UNRECOGNIZED : part);
+            }
+            return decomposed.toString();
+        }
+        String decomposed = DECOMPOSED.get(token);
+        return decomposed == null ? UNRECOGNIZED : decomposed;
+    }
+
+    /**
+     * Loads one of the TransCoder's property files into a map.
+     * 
+     * @param name
+     *            the name of the property file
+     * @return the mappings in the file
+     * @throws IOException
+     */
+    private static Map<String, String> load(String name) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = TransCoder.class.getResourceAsStream(name);
+        properties.load(in);
+        in.close();
+
+        Map<String, String> map = new HashMap<String, String>();
+        for (String key : properties.stringPropertyNames()) {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns numbers to the element and attribute names used in tag streams.
+ * Names are numbered from zero in the order in which they are first seen, and
+ * numbers are never reassigned, so a dictionary loaded from an earlier build
+ * can be extended without changing the streams already written. A dictionary
+ * may be shared by any number of threads.
+ * 
+ * @author Ben Linskey
+ */
+public class TagDictionary {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Class constructor. Creates an empty dictionary.
+     */
+    public TagDictionary() {
+    }
+
+    /**
+     * Class constructor. Creates a dictionary holding the specified names.
+     * 
+     * @param encoded
+     *            the names, as returned by <code>encode</code>
+     */
+    public TagDictionary(String encoded) {
+        if (encoded.length() > 0) {
+            for (String name : encoded.split("\n")) {
+                getId(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the specified name, assigning it the next number
+     * if it has not been seen before.
+     * 
+     * @param name
+     *            an element or attribute name
+     * @return the number of the name
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns every name in the dictionary, indexed by number.
+     * 
+     * @return the names
+     */
+    public String[] getNames() {
+        synchronized (names) {
+            return names.toArray(new String[names.size()]);
+        }
+    }
+
+    /**
+     * Returns the names in the dictionary as a single string, in order of
+     * number, separated by newlines.
+     * 
+     * @return the encoded names
+     */
+    public String encode() {
+        StringBuilder encoded = new StringBuilder();
+        for (String name : getNames()) {
+            if (encoded.length() > 0) {
+                encoded.append('\n');
+            }
+            encoded.append(name);
+        }
+        return encoded.toString();
+    }
+}
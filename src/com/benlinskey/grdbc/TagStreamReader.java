@@ -0,0 +1,389 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads a tag stream written by <code>TagStreamWriter</code>.
+ * <p>
+ * A tag stream is a compact binary form of an XML document. It is a sequence
+ * of tokens, each of which begins with one of the token types defined below.
+ * Numbers are unsigned variable-length integers, seven bits to a byte with
+ * the high bit set on every byte but the last, and strings are a number
+ * giving their length in bytes followed by their UTF-8 encoding. Element and
+ * attribute names are stored as numbers, which index the names of a
+ * <code>TagDictionary</code> stored once per database.
+ * <ul>
+ * <li><code>START</code> and <code>EMPTY</code>: the number of the element's
+ * name, then each attribute as one more than the number of its name followed
+ * by its value, then a zero</li>
+ * <li><code>END</code>: nothing</li>
+ * <li><code>TEXT</code> and <code>COMMENT</code>: the text</li>
+ * <li><code>PROCESSING_INSTRUCTION</code>: the target, then the data</li>
+ * <li><code>ENTITY_REFERENCE</code>: the name of the entity</li>
+ * </ul>
+ * The stream can be read one token at a time with <code>next</code>, replayed
+ * as SAX events with <code>replay</code>, or copied to an
+ * <code>XMLStreamWriter</code> with <code>copyTo</code>.
+ * 
+ * @author Ben Linskey
+ */
+public class TagStreamReader {
+    public final static int END_OF_STREAM = -1;
+    public final static int END = 0;
+    public final static int START = 1;
+    public final static int EMPTY = 2;
+    public final static int TEXT = 3;
+    public final static int COMMENT = 4;
+    public final static int PROCESSING_INSTRUCTION = 5;
+    public final static int ENTITY_REFERENCE = 6;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int end;
+    private final String[] names;
+    private int position;
+    private int tokenStart;
+    private int nameId;
+    private String text;
+    private String piData;
+    private int attributeCount;
+    private int[] attributeNames = new int[8];
+    private String[] attributeValues = new String[8];
+
+    /**
+     * Class constructor.
+     * 
+     * @param data
+     *            the buffer holding the stream
+     * @param offset
+     *            the offset of the stream in the buffer
+     * @param length
+     *            the length of the stream in bytes
+     * @param names
+     *            the names of the stream's tag dictionary, indexed by number
+     */
+    public TagStreamReader(byte[] data, int offset, int length, String[] names) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+        this.names = names;
+    }
+
+    /**
+     * Reads the next token.
+     * 
+     * @return the type of the token, or <code>END_OF_STREAM</code> if there
+     *         are no more tokens
+     * @throws IllegalStateException
+     *             if the stream is corrupt
+     */
+    public int next() {
+        tokenStart = position;
+        if (position >= end) {
+            return END_OF_STREAM;
+        }
+        int type = data[position++];
+        switch (type) {
+        case START:
+        case EMPTY:
+            nameId = readNumber();
+            attributeCount = 0;
+            for (int n = readNumber(); n != 0; n = readNumber()) {
+                if (attributeCount == attributeNames.length) {
+                    growAttributes();
+                }
+                attributeNames[attributeCount] = n - 1;
+                attributeValues[attributeCount] = readString();
+                attributeCount++;
+            }
+            break;
+        case END:
+            break;
+        case TEXT:
+        case COMMENT:
+        case ENTITY_REFERENCE:
+            text = readString();
+            break;
+        case PROCESSING_INSTRUCTION:
+            text = readString();
+            piData = readString();
+            break;
+        default:
+            throw new IllegalStateException("Unknown token type " + type
+                    + " at offset " + tokenStart + ".");
+        }
+        return type;
+    }
+
+    /**
+     * Returns the offset at which the current token begins.
+     * 
+     * @return the offset of the current token in the buffer
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * Returns the offset just past the end of the current token.
+     * 
+     * @return the offset of the next token in the buffer
+     */
+    public int getTokenEnd() {
+        return position;
+    }
+
+    /**
+     * Returns the name of the current element.
+     * 
+     * @return the element's name
+     */
+    public String getName() {
+        return names[nameId];
+    }
+
+    /**
+     * Returns the number of attributes of the current element.
+     * 
+     * @return the number of attributes
+     */
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * Returns the name of an attribute of the current element.
+     * 
+     * @param index
+     *            the index of the attribute
+     * @return the attribute's name
+     */
+    public String getAttributeName(int index) {
+        return names[attributeNames[index]];
+    }
+
+    /**
+     * Returns the value of an attribute of the current element.
+     * 
+     * @param index
+     *            the index of the attribute
+     * @return the attribute's value
+     */
+    public String getAttributeValue(int index) {
+        return attributeValues[index];
+    }
+
+    /**
+     * Returns the text of the current text or comment token, the name of the
+     * current entity reference, or the target of the current processing
+     * instruction.
+     * 
+     * @return the text of the current token
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the data of the current processing instruction.
+     * 
+     * @return the processing instruction's data
+     */
+    public String getPIData() {
+        return piData;
+    }
+
+    /**
+     * Reads the rest of the stream, reporting it to the specified handler as
+     * a complete document. Comments are reported if the handler is also a
+     * <code>LexicalHandler</code>.
+     * 
+     * @param handler
+     *            the handler to receive the events
+     * @throws SAXException
+     *             if the handler throws an exception
+     */
+    public void replay(ContentHandler handler) throws SAXException {
+        LexicalHandler lexicalHandler = handler instanceof LexicalHandler ? (LexicalHandler) handler
+                : null;
+        AttributesImpl attributes = new AttributesImpl();
+        List<String> open = new ArrayList<String>();
+        char[] chars = new char[256];
+
+        handler.startDocument();
+        int type;
+        while ((type = next()) != END_OF_STREAM) {
+            switch (type) {
+            case START:
+            case EMPTY:
+                attributes.clear();
+                for (int i = 0; i < attributeCount; i++) {
+                    String qName = getAttributeName(i);
+                    attributes.addAttribute(namespaceOf(qName),
+                            localNameOf(qName), qName, "CDATA",
+                            attributeValues[i]);
+                }
+                String name = getName();
+                handler.startElement("", name, name, attributes);
+                if (type == EMPTY) {
+                    handler.endElement("", name, name);
+                } else {
+                    open.add(name);
+                }
+                break;
+            case END:
+                String closed = open.remove(open.size() - 1);
+                handler.endElement("", closed, closed);
+                break;
+            case TEXT:
+                if (chars.length < text.length()) {
+                    chars = new char[text.length()];
+                }
+                text.getChars(0, text.length(), chars, 0);
+                handler.characters(chars, 0, text.length());
+                break;
+            case COMMENT:
+                if (lexicalHandler != null) {
+                    lexicalHandler.comment(text.toCharArray(), 0,
+                            text.length());
+                }
+                break;
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction(text, piData);
+                break;
+            case ENTITY_REFERENCE:
+                handler.skippedEntity(text);
+                break;
+            default:
+                break;
+            }
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Copies the rest of the stream to the specified writer.
+     * 
+     * @param writer
+     *            the writer to copy to
+     * @throws XMLStreamException
+     *             if the writer throws an exception
+     */
+    public void copyTo(XMLStreamWriter writer) throws XMLStreamException {
+        int type;
+        while ((type = next()) != END_OF_STREAM) {
+            switch (type) {
+            case START:
+            case EMPTY:
+                if (type == START) {
+                    writer.writeStartElement(getName());
+                } else {
+                    writer.writeEmptyElement(getName());
+                }
+                for (int i = 0; i < attributeCount; i++) {
+                    String qName = getAttributeName(i);
+                    int colon = qName.indexOf(':');
+                    if (colon < 0) {
+                        writer.writeAttribute(qName, attributeValues[i]);
+                    } else {
+                        writer.writeAttribute(qName.substring(0, colon),
+                                namespaceOf(qName), localNameOf(qName),
+                                attributeValues[i]);
+                    }
+                }
+                break;
+            case END:
+                writer.writeEndElement();
+                break;
+            case TEXT:
+                writer.writeCharacters(text);
+                break;
+            case COMMENT:
+                writer.writeComment(text);
+                break;
+            case PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(text, piData);
+                break;
+            case ENTITY_REFERENCE:
+                writer.writeEntityRef(text);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the namespace of a qualified attribute name. Only the
+     * <code>xml</code> prefix is bound; the source texts use no other
+     * namespaces.
+     */
+    private static String namespaceOf(String qName) {
+        return qName.startsWith("xml:") ? XMLConstants.XML_NS_URI : "";
+    }
+
+    private static String localNameOf(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    private int readNumber() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position >= end) {
+                throw new IllegalStateException("Truncated tag stream.");
+            }
+            b = data[position++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private String readString() {
+        int length = readNumber();
+        if (position + length > end) {
+            throw new IllegalStateException("Truncated tag stream.");
+        }
+        String s = new String(data, position, length, UTF_8);
+        position += length;
+        return s;
+    }
+
+    private void growAttributes() {
+        int[] names = new int[attributeNames.length * 2];
+        System.arraycopy(attributeNames, 0, names, 0, attributeCount);
+        attributeNames = names;
+        String[] values = new String[attributeValues.length * 2];
+        System.arraycopy(attributeValues, 0, values, 0, attributeCount);
+        attributeValues = values;
+    }
+}
@@ -0,0 +1,338 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.nio.charset.Charset;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a document as a tag stream, the binary format described in
+ * <code>TagStreamReader</code>, rather than as XML text.
+ * <p>
+ * The writer can be used anywhere an <code>XMLStreamWriter</code> can, but it
+ * does not check that the document is well formed and does not support
+ * namespace declarations or DTDs. Adjacent runs of text are merged. A writer
+ * may be reused for any number of documents by calling <code>reset</code>;
+ * writers are not thread-safe, but any number of them may share a tag
+ * dictionary.
+ * 
+ * @author Ben Linskey
+ */
+public class TagStreamWriter implements XMLStreamWriter {
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final TagDictionary tags;
+    private final StringBuilder text = new StringBuilder();
+    private byte[] buffer = new byte[4096];
+    private int length;
+    private boolean inStartTag;
+
+    /**
+     * Class constructor.
+     * 
+     * @param tags
+     *            the dictionary that numbers element and attribute names
+     */
+    public TagStreamWriter(TagDictionary tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * Discards the document written so far.
+     */
+    public void reset() {
+        length = 0;
+        text.setLength(0);
+        inStartTag = false;
+    }
+
+    /**
+     * Returns the stream written since the last call to <code>reset</code>.
+     * 
+     * @param prefix
+     *            a byte to write before the stream, such as a format number
+     * @return a copy of the stream, preceded by the prefix
+     */
+    public byte[] toByteArray(int prefix) {
+        flushText();
+        closeStartTag();
+        byte[] bytes = new byte[length + 1];
+        bytes[0] = (byte) prefix;
+        System.arraycopy(buffer, 0, bytes, 1, length);
+        return bytes;
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        writeTag(TagStreamReader.START, localName);
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeTag(TagStreamReader.START, localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName,
+            String namespaceURI) throws XMLStreamException {
+        writeTag(TagStreamReader.START, qualify(prefix, localName));
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        writeTag(TagStreamReader.EMPTY, localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName)
+            throws XMLStreamException {
+        writeTag(TagStreamReader.EMPTY, localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName,
+            String namespaceURI) throws XMLStreamException {
+        writeTag(TagStreamReader.EMPTY, qualify(prefix, localName));
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        flushText();
+        closeStartTag();
+        writeByte(TagStreamReader.END);
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        flushText();
+        closeStartTag();
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value)
+            throws XMLStreamException {
+        writeAttributeName(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI,
+            String localName, String value) throws XMLStreamException {
+        writeAttributeName(qualify(prefix, localName), value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName,
+            String value) throws XMLStreamException {
+        writeAttributeName(localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI)
+            throws XMLStreamException {
+        throw new XMLStreamException("Namespaces are not supported.");
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI)
+            throws XMLStreamException {
+        throw new XMLStreamException("Namespaces are not supported.");
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        flushText();
+        closeStartTag();
+        writeByte(TagStreamReader.COMMENT);
+        writeString(data);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target)
+            throws XMLStreamException {
+        writeProcessingInstruction(target, "");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data)
+            throws XMLStreamException {
+        flushText();
+        closeStartTag();
+        writeByte(TagStreamReader.PROCESSING_INSTRUCTION);
+        writeString(target);
+        writeString(data);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        throw new XMLStreamException("DTDs are not supported.");
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        flushText();
+        closeStartTag();
+        writeByte(TagStreamReader.ENTITY_REFERENCE);
+        writeString(name);
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version)
+            throws XMLStreamException {
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        closeStartTag();
+        this.text.append(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len)
+            throws XMLStreamException {
+        closeStartTag();
+        this.text.append(text, start, len);
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri)
+            throws XMLStreamException {
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context)
+            throws XMLStreamException {
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Unknown property: " + name);
+    }
+
+    private void writeTag(int type, String name) {
+        flushText();
+        closeStartTag();
+        writeByte(type);
+        writeNumber(tags.getId(name));
+        inStartTag = true;
+    }
+
+    private void writeAttributeName(String name, String value)
+            throws XMLStreamException {
+        if (!inStartTag) {
+            throw new XMLStreamException("Attribute " + name
+                    + " written outside a start tag.");
+        }
+        writeNumber(tags.getId(name) + 1);
+        writeString(value);
+    }
+
+    /**
+     * Ends the list of attributes of the last start tag, if it is still open.
+     */
+    private void closeStartTag() {
+        if (inStartTag) {
+            writeNumber(0);
+            inStartTag = false;
+        }
+    }
+
+    private void flushText() {
+        if (text.length() > 0) {
+            writeByte(TagStreamReader.TEXT);
+            writeString(text.toString());
+            text.setLength(0);
+        }
+    }
+
+    private static String qualify(String prefix, String localName) {
+        if (prefix == null || prefix.length() == 0) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    private void writeString(String s) {
+        byte[] bytes = s.getBytes(UTF_8);
+        writeNumber(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeNumber(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, length
+                    + extra)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streams through a Perseus TEI document in a single pass, stopping at the
+ * start of each element of interest (lexicon entries, syntax divisions) so
+ * that its content can be consumed directly from the underlying
+ * <code>XMLStreamReader</code>. The document is mapped into memory and read
+ * as UTF-8 (see <code>MappedXmlFile</code>).
+ *
+ * @author Ben Linskey
+ */
+public class TeiReader {
+    private final XMLStreamReader reader;
+    private final StringWriter out = new StringWriter();
+    private XMLStreamWriter recorder;
+    private int recordDepth;
+
+    /**
+     * Class constructor.
+     * 
+     * @param file
+     *            the path of the XML file to read
+     * @throws FileNotFoundException
+     * @throws IOException
+     *             if the file cannot be mapped, or is not UTF-8
+     * @throws XMLStreamException
+     */
+    public TeiReader(String file) throws IOException, XMLStreamException {
+        this(new MappedXmlFile(file));
+    }
+
+    /**
+     * Class constructor.
+     * 
+     * @param file
+     *            the mapped XML file to read
+     * @throws XMLStreamException
+     */
+    public TeiReader(MappedXmlFile file) throws XMLStreamException {
+        reader = file.createReader();
+    }
+
+    /**
+     * Returns an <code>XMLInputFactory</code> configured for reading Perseus
+     * texts. External DTDs are never fetched, since the texts reference DTDs
+     * that are not distributed with this program.
+     * 
+     * @return a configured <code>XMLInputFactory</code>
+     */
+    static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+        factory.setXMLResolver(new XMLResolver() {
+            @Override
+            public Object resolveEntity(String publicID, String systemID,
+                    String baseURI, String namespace) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
+        return factory;
+    }
+
+    /**
+     * Advances to the start of the next element with one of the specified
+     * names.
+     * 
+     * @param names
+     *            the names of the elements to stop at
+     * @return <code>true</code> if such an element was found, or
+     *         <code>false</code> if the end of the document was reached
+     * @throws XMLStreamException
+     */
+    public boolean nextElement(String... names) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                for (String n : names) {
+                    if (n.equals(name)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the name of the current element.
+     * 
+     * @return the name of the current element
+     */
+    public String getName() {
+        return reader.getLocalName();
+    }
+
+    /**
+     * Returns the value of the specified attribute of the current element.
+     * 
+     * @param name
+     *            the name of the attribute
+     * @return the value of the attribute, or <code>null</code> if the current
+     *         element has no such attribute
+     */
+    public String getAttribute(String name) {
+        return reader.getAttributeValue(null, name);
+    }
+
+    /**
+     * Advances past the next <code>head</code> element and returns its text.
+     * 
+     * @return the text of the next <code>head</code> element
+     * @throws XMLStreamException
+     */
+    public String readHead() throws XMLStreamException {
+        if (!nextElement("head")) {
+            throw new XMLStreamException("Expected head element",
+                    reader.getLocation());
+        }
+        return reader.getElementText();
+    }
+
+    /**
+     * Reads the current element and returns it as a string of untranscoded
+     * XML. This allows the element to be handed off to another thread for
+     * processing. When this method returns, the reader is positioned at the
+     * element's end tag.
+     * 
+     * @return the XML of the current element
+     * @throws XMLStreamException
+     */
+    public String readElement() throws XMLStreamException {
+        startRecording();
+        while (recorder != null) {
+            reader.next();
+            recordEvent();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Begins recording the current element.
+     * 
+     * @throws XMLStreamException
+     */
+    private void startRecording() throws XMLStreamException {
+        out.getBuffer().setLength(0);
+        recorder = XmlFactories.getOutputFactory().createXMLStreamWriter(out);
+        recordDepth = 0;
+        recordEvent();
+    }
+
+    /**
+     * Writes the current event to the recording, and finishes the recording
+     * at the end tag of the recorded element.
+     * 
+     * @throws XMLStreamException
+     */
+    private void recordEvent() throws XMLStreamException {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+            recordDepth++;
+            recorder.writeStartElement(reader.getLocalName());
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String prefix = reader.getAttributePrefix(i);
+                if (prefix == null || prefix.length() == 0) {
+                    recorder.writeAttribute(reader.getAttributeLocalName(i),
+                            reader.getAttributeValue(i));
+                } else {
+                    recorder.writeAttribute(prefix,
+                            reader.getAttributeNamespace(i),
+                            reader.getAttributeLocalName(i),
+                            reader.getAttributeValue(i));
+                }
+            }
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            recordDepth--;
+            recorder.writeEndElement();
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+            recorder.writeCharacters(reader.getText());
+            break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+            recorder.writeEntityRef(reader.getLocalName());
+            break;
+        case XMLStreamConstants.COMMENT:
+            recorder.writeComment(reader.getText());
+            break;
+        default:
+            break;
+        }
+        if (recordDepth == 0) {
+            recorder.close();
+            recorder = null;
+        }
+    }
+
+    /**
+     * Returns the underlying stream reader, positioned at the current element.
+     * 
+     * @return the underlying stream reader
+     */
+    public XMLStreamReader getStreamReader() {
+        return reader;
+    }
+
+    /**
+     * Closes the reader.
+     * 
+     * @throws XMLStreamException
+     */
+    public void close() throws XMLStreamException {
+        reader.close();
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks that <code>TableTranscoder</code> produces exactly the same output as
+ * the EpiDoc TransCoder. Every text node and attribute value in the specified
+ * files is transcoded with both, along with the stripped forms of lexicon keys
+ * that <code>LexiconParser</code> produces, and any differences are reported.
+ * The program exits with a status of 1 if a difference is found or if any of
+ * the files does not exist, so that a missing text is never taken to have
+ * been checked.
+ * <p>
+ * Usage: <code>java com.benlinskey.grdbc.TranscoderVerifier file...</code>
+ * 
+ * @author Ben Linskey
+ */
+public class TranscoderVerifier {
+    private final static int MAX_REPORTED = 20;
+
+    public static void main(String[] args) {
+        for (String file : args) {
+            if (!new File(file).isFile()) {
+                System.err.println(file + " does not exist.");
+                System.exit(1);
+            }
+        }
+
+        Set<String> strings = new LinkedHashSet<String>();
+        for (String file : args) {
+            System.out.println("Reading " + file + "...");
+            try {
+                collectStrings(file, strings);
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        BetaCodeTranscoder reference = null;
+        try {
+            reference = new EpiDocTranscoder();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        BetaCodeTranscoder table = new TableTranscoder();
+
+        System.out.println("Comparing " + strings.size() + " strings...");
+        int mismatches = 0;
+        for (String beta : strings) {
+            String expected = reference.transcode(beta);
+            String actual = table.transcode(beta);
+            if (!expected.equals(actual)) {
+                if (mismatches < MAX_REPORTED) {
+                    System.out.println("Mismatch for \"" + beta + "\":");
+                    System.out.println("  expected \"" + expected + "\"");
+                    System.out.println("  actual   \"" + actual + "\"");
+                }
+                mismatches++;
+            }
+        }
+
+        System.out.println(mismatches + " mismatches in " + strings.size()
+                + " strings.");
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Adds every text node and attribute value in the specified file to a set.
+     * 
+     * @param file
+     *            the path of the XML file to read
+     * @param strings
+     *            the set to which the strings are added
+     * @throws Exception
+     */
+    private static void collectStrings(String file, Set<String> strings)
+            throws Exception {
+        InputStream in = new FileInputStream(file);
+        XMLStreamReader reader = TeiReader.createInputFactory()
+                .createXMLStreamReader(in);
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String value = reader.getAttributeValue(i);
+                    strings.add(value);
+                    if (reader.getAttributeLocalName(i).equals("key")) {
+                        strings.add(value.replaceAll("[^a-zA-Z]", ""));
+                        strings.add(value.replaceAll("[^a-zA-Z\\*]", ""));
+                    }
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                strings.add(reader.getText());
+                break;
+            default:
+                break;
+            }
+        }
+        reader.close();
+        in.close();
+    }
+}
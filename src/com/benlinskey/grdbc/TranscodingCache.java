@@ -0,0 +1,164 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of Beta Code strings and their Greek
+ * equivalents. The cache is split into segments, each of which evicts its
+ * least recently used strings once full, so that worker threads rarely
+ * contend for the same lock.
+ * 
+ * @author Ben Linskey
+ */
+public class TranscodingCache {
+    private final static int SEGMENTS = 16;
+    private final Segment[] segments;
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Class constructor.
+     * 
+     * @param maxSize
+     *            the maximum number of strings to hold
+     */
+    public TranscodingCache(int maxSize) {
+        this.maxSize = maxSize;
+        segments = new Segment[SEGMENTS];
+        int segmentSize = Math.max(1, maxSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Returns the cached Greek equivalent of the specified Beta Code.
+     * 
+     * @param beta
+     *            the Beta Code to look up
+     * @return the Greek equivalent, or <code>null</code> if it is not cached
+     */
+    public String get(String beta) {
+        Segment segment = segmentFor(beta);
+        String greek;
+        synchronized (segment) {
+            greek = segment.get(beta);
+        }
+        if (greek == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return greek;
+    }
+
+    /**
+     * Adds the Greek equivalent of the specified Beta Code to the cache.
+     * 
+     * @param beta
+     *            the Beta Code
+     * @param greek
+     *            the Greek equivalent
+     */
+    public void put(String beta, String greek) {
+        Segment segment = segmentFor(beta);
+        synchronized (segment) {
+            segment.put(beta, greek);
+        }
+    }
+
+    /**
+     * Returns the segment responsible for the specified string.
+     * 
+     * @param beta
+     *            a Beta Code string
+     * @return the segment holding the string
+     */
+    private Segment segmentFor(String beta) {
+        int hash = beta.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Returns the number of lookups that found a cached string.
+     * 
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached string.
+     * 
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of strings currently held in the cache.
+     * 
+     * @return the size of the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns a summary of the cache's size and hit rate.
+     */
+    @Override
+    public String toString() {
+        long h = getHits();
+        long total = h + getMisses();
+        double rate = total == 0 ? 0 : 100.0 * h / total;
+        return String.format("Transcoding cache: %d/%d strings, %d hits, "
+                + "%d misses (%.1f%% hit rate)", size(), maxSize, h,
+                total - h, rate);
+    }
+
+    /**
+     * A single LRU segment of the cache.
+     */
+    private static class Segment extends LinkedHashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
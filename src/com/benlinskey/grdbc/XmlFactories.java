@@ -0,0 +1,66 @@
+/* Copyright 2013 Benjamin Linskey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.benlinskey.grdbc;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Holds one configured <code>XMLInputFactory</code> and
+ * <code>XMLOutputFactory</code> per thread. Looking up a StAX factory goes
+ * through the JAXP service loader, which is far more expensive than creating
+ * a reader or writer, so parsers fetch their factories from here rather than
+ * creating new ones for every entry.
+ * 
+ * @author Ben Linskey
+ */
+public class XmlFactories {
+    private final static ThreadLocal<XMLInputFactory> INPUT = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return TeiReader.createInputFactory();
+        }
+    };
+
+    private final static ThreadLocal<XMLOutputFactory> OUTPUT = new ThreadLocal<XMLOutputFactory>() {
+        @Override
+        protected XMLOutputFactory initialValue() {
+            return XMLOutputFactory.newInstance();
+        }
+    };
+
+    private XmlFactories() {
+    }
+
+    /**
+     * Returns the current thread's <code>XMLInputFactory</code>, configured
+     * for reading Perseus texts.
+     * 
+     * @return an <code>XMLInputFactory</code> for the current thread
+     */
+    public static XMLInputFactory getInputFactory() {
+        return INPUT.get();
+    }
+
+    /**
+     * Returns the current thread's <code>XMLOutputFactory</code>.
+     * 
+     * @return an <code>XMLOutputFactory</code> for the current thread
+     */
+    public static XMLOutputFactory getOutputFactory() {
+        return OUTPUT.get();
+    }
+}